@@ -187,6 +187,14 @@ public class Block {
     protected double maxX;
     protected double maxY;
     protected double maxZ;
+    // Spigot start - shapes are set and then read back, so each thread ticking a world keeps its own bounds
+    private final ThreadLocal<double[]> bounds = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[] { Block.this.minX, Block.this.minY, Block.this.minZ, Block.this.maxX, Block.this.maxY, Block.this.maxZ };
+        }
+    };
+    // Spigot end
     public StepSound stepSound;
     public float cA;
     public final Material material;
@@ -294,6 +302,19 @@ public class Block {
     }
 
     protected final void a(float f, float f1, float f2, float f3, float f4, float f5) {
+        // Spigot start
+        double[] bounds = this.bounds.get();
+        bounds[0] = (double) f;
+        bounds[1] = (double) f1;
+        bounds[2] = (double) f2;
+        bounds[3] = (double) f3;
+        bounds[4] = (double) f4;
+        bounds[5] = (double) f5;
+        // The fields are only kept up to date outside of parallel world ticking
+        if (org.spigotmc.WorldTicker.isWorldThread()) {
+            return;
+        }
+        // Spigot end
         this.minX = (double) f;
         this.minY = (double) f1;
         this.minZ = (double) f2;
@@ -302,6 +323,18 @@ public class Block {
         this.maxZ = (double) f5;
     }
 
+    // Spigot start
+    /**
+     * Gets the bounds last set by the calling thread, as minX, minY, minZ,
+     * maxX, maxY and maxZ.
+     *
+     * @return the bounds of this block for the calling thread
+     */
+    protected final double[] getBounds() {
+        return this.bounds.get();
+    }
+    // Spigot end
+
     public boolean a_(IBlockAccess iblockaccess, int i, int j, int k, int l) {
         return iblockaccess.getMaterial(i, j, k).isBuildable();
     }
@@ -323,7 +356,8 @@ public class Block {
     }
 
     public AxisAlignedBB e(World world, int i, int j, int k) {
-        return AxisAlignedBB.a().a((double) i + this.minX, (double) j + this.minY, (double) k + this.minZ, (double) i + this.maxX, (double) j + this.maxY, (double) k + this.maxZ);
+        double[] bounds = this.getBounds(); // Spigot
+        return AxisAlignedBB.a().a((double) i + bounds[0], (double) j + bounds[1], (double) k + bounds[2], (double) i + bounds[3], (double) j + bounds[4], (double) k + bounds[5]); // Spigot
     }
 
     public boolean c() {
@@ -423,34 +457,37 @@ public class Block {
         this.updateShape(world, i, j, k);
         vec3d = vec3d.add((double) (-i), (double) (-j), (double) (-k));
         vec3d1 = vec3d1.add((double) (-i), (double) (-j), (double) (-k));
-        Vec3D vec3d2 = vec3d.b(vec3d1, this.minX);
-        Vec3D vec3d3 = vec3d.b(vec3d1, this.maxX);
-        Vec3D vec3d4 = vec3d.c(vec3d1, this.minY);
-        Vec3D vec3d5 = vec3d.c(vec3d1, this.maxY);
-        Vec3D vec3d6 = vec3d.d(vec3d1, this.minZ);
-        Vec3D vec3d7 = vec3d.d(vec3d1, this.maxZ);
-
-        if (!this.a(vec3d2)) {
+        // Spigot start
+        double[] bounds = this.getBounds();
+        Vec3D vec3d2 = vec3d.b(vec3d1, bounds[0]);
+        Vec3D vec3d3 = vec3d.b(vec3d1, bounds[3]);
+        Vec3D vec3d4 = vec3d.c(vec3d1, bounds[1]);
+        Vec3D vec3d5 = vec3d.c(vec3d1, bounds[4]);
+        Vec3D vec3d6 = vec3d.d(vec3d1, bounds[2]);
+        Vec3D vec3d7 = vec3d.d(vec3d1, bounds[5]);
+        // Spigot end
+
+        if (!this.a(vec3d2, bounds)) { // Spigot
             vec3d2 = null;
         }
 
-        if (!this.a(vec3d3)) {
+        if (!this.a(vec3d3, bounds)) { // Spigot
             vec3d3 = null;
         }
 
-        if (!this.b(vec3d4)) {
+        if (!this.b(vec3d4, bounds)) { // Spigot
             vec3d4 = null;
         }
 
-        if (!this.b(vec3d5)) {
+        if (!this.b(vec3d5, bounds)) { // Spigot
             vec3d5 = null;
         }
 
-        if (!this.c(vec3d6)) {
+        if (!this.c(vec3d6, bounds)) { // Spigot
             vec3d6 = null;
         }
 
-        if (!this.c(vec3d7)) {
+        if (!this.c(vec3d7, bounds)) { // Spigot
             vec3d7 = null;
         }
 
@@ -513,17 +550,19 @@ public class Block {
         }
     }
 
-    private boolean a(Vec3D vec3d) {
-        return vec3d == null ? false : vec3d.d >= this.minY && vec3d.d <= this.maxY && vec3d.e >= this.minZ && vec3d.e <= this.maxZ;
+    // Spigot start - pass the bounds of the calling thread
+    private boolean a(Vec3D vec3d, double[] bounds) {
+        return vec3d == null ? false : vec3d.d >= bounds[1] && vec3d.d <= bounds[4] && vec3d.e >= bounds[2] && vec3d.e <= bounds[5];
     }
 
-    private boolean b(Vec3D vec3d) {
-        return vec3d == null ? false : vec3d.c >= this.minX && vec3d.c <= this.maxX && vec3d.e >= this.minZ && vec3d.e <= this.maxZ;
+    private boolean b(Vec3D vec3d, double[] bounds) {
+        return vec3d == null ? false : vec3d.c >= bounds[0] && vec3d.c <= bounds[3] && vec3d.e >= bounds[2] && vec3d.e <= bounds[5];
     }
 
-    private boolean c(Vec3D vec3d) {
-        return vec3d == null ? false : vec3d.c >= this.minX && vec3d.c <= this.maxX && vec3d.d >= this.minY && vec3d.d <= this.maxY;
+    private boolean c(Vec3D vec3d, double[] bounds) {
+        return vec3d == null ? false : vec3d.c >= bounds[0] && vec3d.c <= bounds[3] && vec3d.d >= bounds[1] && vec3d.d <= bounds[4];
     }
+    // Spigot end
 
     public void wasExploded(World world, int i, int j, int k) {}
 
@@ -554,27 +593,27 @@ public class Block {
     public void updateShape(IBlockAccess iblockaccess, int i, int j, int k) {}
 
     public final double v() {
-        return this.minX;
+        return this.getBounds()[0]; // Spigot
     }
 
     public final double w() {
-        return this.maxX;
+        return this.getBounds()[3]; // Spigot
     }
 
     public final double x() {
-        return this.minY;
+        return this.getBounds()[1]; // Spigot
     }
 
     public final double y() {
-        return this.maxY;
+        return this.getBounds()[4]; // Spigot
     }
 
     public final double z() {
-        return this.minZ;
+        return this.getBounds()[2]; // Spigot
     }
 
     public final double A() {
-        return this.maxZ;
+        return this.getBounds()[5]; // Spigot
     }
 
     public boolean b(IBlockAccess iblockaccess, int i, int j, int k, int l) {
@@ -258,7 +258,8 @@ public class BlockButton extends Block {
         boolean flag = (l & 8) != 0;
 
         this.e(l);
-        List list = world.a(EntityArrow.class, AxisAlignedBB.a().a((double) i + this.minX, (double) j + this.minY, (double) k + this.minZ, (double) i + this.maxX, (double) j + this.maxY, (double) k + this.maxZ));
+        double[] bounds = this.getBounds(); // Spigot
+        List list = world.a(EntityArrow.class, AxisAlignedBB.a().a((double) i + bounds[0], (double) j + bounds[1], (double) k + bounds[2], (double) i + bounds[3], (double) j + bounds[4], (double) k + bounds[5])); // Spigot
         boolean flag1 = !list.isEmpty();
 
         if (flag1 && !flag) {
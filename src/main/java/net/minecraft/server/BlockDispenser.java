@@ -5,7 +5,14 @@ import java.util.Random;
 public class BlockDispenser extends BlockContainer {
 
     public static final IRegistry a = new RegistryDefault(new DispenseBehaviorItem());
-    public static boolean eventFired = false; // CraftBukkit
+    // Spigot start - per thread, worlds may tick in parallel
+    public static final ThreadLocal<Boolean> eventFired = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    }; // CraftBukkit
+    // Spigot end
     private Random b = new Random();
 
     protected BlockDispenser(int i) {
@@ -89,7 +96,7 @@ public class BlockDispenser extends BlockContainer {
 
                 if (idispensebehavior != IDispenseBehavior.a) {
                     ItemStack itemstack1 = idispensebehavior.a(sourceblock, itemstack);
-                    eventFired = false; // CraftBukkit - reset event status
+                    eventFired.set(Boolean.FALSE); // CraftBukkit - reset event status
 
                     tileentitydispenser.setItem(l, itemstack1.count == 0 ? null : itemstack1);
                 }
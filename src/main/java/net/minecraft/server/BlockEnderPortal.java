@@ -7,7 +7,14 @@ import org.bukkit.event.entity.EntityPortalEnterEvent; // CraftBukkit
 
 public class BlockEnderPortal extends BlockContainer {
 
-    public static boolean a = false;
+    // Spigot start - per thread, worlds may tick in parallel
+    public static final ThreadLocal<Boolean> a = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+    // Spigot end
 
     protected BlockEnderPortal(int i, Material material) {
         super(i, 0, material);
@@ -53,7 +60,7 @@ public class BlockEnderPortal extends BlockContainer {
     }
 
     public void onPlace(World world, int i, int j, int k) {
-        if (!a) {
+        if (!a.get()) { // Spigot
             if (world.worldProvider.dimension != 0) {
                 world.setTypeId(i, j, k, 0);
             }
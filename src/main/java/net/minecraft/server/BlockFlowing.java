@@ -217,9 +217,13 @@ public class BlockFlowing extends BlockFluids {
     private boolean[] n(World world, int i, int j, int k) {
         int l;
         int i1;
+        // Spigot start - use locals, this block is shared between worlds which may tick in parallel
+        boolean[] b = new boolean[4];
+        int[] c = new int[4];
+        // Spigot end
 
         for (l = 0; l < 4; ++l) {
-            this.c[l] = 1000;
+            c[l] = 1000;
             i1 = i;
             int j1 = k;
 
@@ -241,26 +245,26 @@ public class BlockFlowing extends BlockFluids {
 
             if (!this.o(world, i1, j, j1) && (world.getMaterial(i1, j, j1) != this.material || world.getData(i1, j, j1) != 0)) {
                 if (this.o(world, i1, j - 1, j1)) {
-                    this.c[l] = this.d(world, i1, j, j1, 1, l);
+                    c[l] = this.d(world, i1, j, j1, 1, l);
                 } else {
-                    this.c[l] = 0;
+                    c[l] = 0;
                 }
             }
         }
 
-        l = this.c[0];
+        l = c[0];
 
         for (i1 = 1; i1 < 4; ++i1) {
-            if (this.c[i1] < l) {
-                l = this.c[i1];
+            if (c[i1] < l) {
+                l = c[i1];
             }
         }
 
         for (i1 = 0; i1 < 4; ++i1) {
-            this.b[i1] = this.c[i1] == l;
+            b[i1] = c[i1] == l;
         }
 
-        return this.b;
+        return b;
     }
 
     private boolean o(World world, int i, int j, int k) {
@@ -23,7 +23,7 @@ public class BlockPiston extends Block {
     public int a(int i, int j) {
         int k = e(j);
 
-        return k > 5 ? this.textureId : (i == k ? (!f(j) && this.minX <= 0.0D && this.minY <= 0.0D && this.minZ <= 0.0D && this.maxX >= 1.0D && this.maxY >= 1.0D && this.maxZ >= 1.0D ? this.textureId : 110) : (i == Facing.OPPOSITE_FACING[k] ? 109 : 108));
+        return k > 5 ? this.textureId : (i == k ? (!f(j) && this.v() <= 0.0D && this.x() <= 0.0D && this.z() <= 0.0D && this.w() >= 1.0D && this.y() >= 1.0D && this.A() >= 1.0D ? this.textureId : 110) : (i == Facing.OPPOSITE_FACING[k] ? 109 : 108));
     }
 
     public int d() {
@@ -11,7 +11,7 @@ import org.bukkit.event.block.BlockRedstoneEvent; // CraftBukkit
 public class BlockRedstoneTorch extends BlockTorch {
 
     private boolean isOn = false;
-    private static Map b = new HashMap();
+    private static Map b = java.util.Collections.synchronizedMap(new HashMap()); // Spigot - worlds may tick in parallel
 
     public int a(int i, int j) {
         return i == 1 ? Block.REDSTONE_WIRE.a(i, j) : super.a(i, j);
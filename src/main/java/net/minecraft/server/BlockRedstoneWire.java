@@ -9,8 +9,20 @@ import org.bukkit.event.block.BlockRedstoneEvent; // CraftBukkit
 
 public class BlockRedstoneWire extends Block {
 
-    private boolean a = true;
-    private Set b = new java.util.LinkedHashSet(); // CraftBukkit - HashSet -> LinkedHashSet
+    // Spigot start - per thread, this block is shared between worlds which may tick in parallel
+    private final ThreadLocal<Boolean> a = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.TRUE;
+        }
+    };
+    private final ThreadLocal<Set> b = new ThreadLocal<Set>() {
+        @Override
+        protected Set initialValue() {
+            return new java.util.LinkedHashSet(); // CraftBukkit - HashSet -> LinkedHashSet
+        }
+    };
+    // Spigot end
 
     public BlockRedstoneWire(int i, int j) {
         super(i, j, Material.ORIENTABLE);
@@ -43,9 +55,10 @@ public class BlockRedstoneWire extends Block {
 
     private void l(World world, int i, int j, int k) {
         this.a(world, i, j, k, i, j, k);
-        ArrayList arraylist = new ArrayList(this.b);
+        Set b = this.b.get(); // Spigot
+        ArrayList arraylist = new ArrayList(b);
 
-        this.b.clear();
+        b.clear();
 
         for (int l = 0; l < arraylist.size(); ++l) {
             ChunkPosition chunkposition = (ChunkPosition) arraylist.get(l);
@@ -58,10 +71,10 @@ public class BlockRedstoneWire extends Block {
         int k1 = world.getData(i, j, k);
         int l1 = 0;
 
-        this.a = false;
+        this.a.set(Boolean.FALSE); // Spigot
         boolean flag = world.isBlockIndirectlyPowered(i, j, k);
 
-        this.a = true;
+        this.a.set(Boolean.TRUE); // Spigot
         int i2;
         int j2;
         int k2;
@@ -172,13 +185,14 @@ public class BlockRedstoneWire extends Block {
             }
 
             if (k1 < l1 || l1 == 0) {
-                this.b.add(new ChunkPosition(i, j, k));
-                this.b.add(new ChunkPosition(i - 1, j, k));
-                this.b.add(new ChunkPosition(i + 1, j, k));
-                this.b.add(new ChunkPosition(i, j - 1, k));
-                this.b.add(new ChunkPosition(i, j + 1, k));
-                this.b.add(new ChunkPosition(i, j, k - 1));
-                this.b.add(new ChunkPosition(i, j, k + 1));
+                Set b = this.b.get(); // Spigot
+                b.add(new ChunkPosition(i, j, k));
+                b.add(new ChunkPosition(i - 1, j, k));
+                b.add(new ChunkPosition(i + 1, j, k));
+                b.add(new ChunkPosition(i, j - 1, k));
+                b.add(new ChunkPosition(i, j + 1, k));
+                b.add(new ChunkPosition(i, j, k - 1));
+                b.add(new ChunkPosition(i, j, k + 1));
             }
         }
     }
@@ -303,11 +317,11 @@ public class BlockRedstoneWire extends Block {
     }
 
     public boolean c(IBlockAccess iblockaccess, int i, int j, int k, int l) {
-        return !this.a ? false : this.b(iblockaccess, i, j, k, l);
+        return !this.a.get() ? false : this.b(iblockaccess, i, j, k, l); // Spigot
     }
 
     public boolean b(IBlockAccess iblockaccess, int i, int j, int k, int l) {
-        if (!this.a) {
+        if (!this.a.get()) { // Spigot
             return false;
         } else if (iblockaccess.getData(i, j, k) == 0) {
             return false;
@@ -342,7 +356,7 @@ public class BlockRedstoneWire extends Block {
     }
 
     public boolean isPowerSource() {
-        return this.a;
+        return this.a.get(); // Spigot
     }
 
     public static boolean f(IBlockAccess iblockaccess, int i, int j, int k, int l) {
@@ -5,6 +5,33 @@ import java.util.Random;
 public class BlockSand extends Block {
 
     public static boolean instaFall = false;
+    // Spigot start - the vanilla generators still set the field, but worlds may populate chunks in parallel
+    private static final ThreadLocal<Boolean> populating = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+
+    public static boolean isPopulating() {
+        return populating.get();
+    }
+
+    public static void setPopulating(boolean flag) {
+        populating.set(flag);
+    }
+
+    /**
+     * Gets whether sand should be placed where it lands instead of falling,
+     * as while chunks are populated. World threads ignore the shared
+     * {@link #instaFall} flag, which another world may have set.
+     *
+     * @return whether falling blocks land instantly on this thread
+     */
+    public static boolean isInstaFall() {
+        return populating.get() || instaFall && !org.spigotmc.WorldTicker.isWorldThread();
+    }
+    // Spigot end
 
     public BlockSand(int i, int j) {
         super(i, j, Material.SAND);
@@ -33,7 +60,7 @@ public class BlockSand extends Block {
         if (canFall(world, i, j - 1, k) && j >= 0) {
             byte b0 = 32;
 
-            if (!instaFall && world.d(i - b0, j - b0, k - b0, i + b0, j + b0, k + b0)) {
+            if (!isInstaFall() && world.d(i - b0, j - b0, k - b0, i + b0, j + b0, k + b0)) {
                 if (!world.isStatic) {
                     EntityFallingBlock entityfallingblock = new EntityFallingBlock(world, (double) ((float) i + 0.5F), (double) ((float) j + 0.5F), (double) ((float) k + 0.5F), this.id, world.getData(i, j, k));
 
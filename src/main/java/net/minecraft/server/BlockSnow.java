@@ -14,7 +14,8 @@ public class BlockSnow extends Block {
     public AxisAlignedBB e(World world, int i, int j, int k) {
         int l = world.getData(i, j, k) & 7;
 
-        return l >= 3 ? AxisAlignedBB.a().a((double) i + this.minX, (double) j + this.minY, (double) k + this.minZ, (double) i + this.maxX, (double) ((float) j + 0.5F), (double) k + this.maxZ) : null;
+        double[] bounds = this.getBounds(); // Spigot
+        return l >= 3 ? AxisAlignedBB.a().a((double) i + bounds[0], (double) j + bounds[1], (double) k + bounds[2], (double) i + bounds[3], (double) ((float) j + 0.5F), (double) k + bounds[5]) : null; // Spigot
     }
 
     public boolean c() {
@@ -136,10 +136,10 @@ public class BlockStem extends BlockFlower {
     }
 
     public void updateShape(IBlockAccess iblockaccess, int i, int j, int k) {
-        this.maxY = (double) ((float) (iblockaccess.getData(i, j, k) * 2 + 2) / 16.0F);
+        float maxY = (float) (iblockaccess.getData(i, j, k) * 2 + 2) / 16.0F; // Spigot - set through a() with the other bounds
         float f = 0.125F;
 
-        this.a(0.5F - f, 0.0F, 0.5F - f, 0.5F + f, (float) this.maxY, 0.5F + f);
+        this.a(0.5F - f, 0.0F, 0.5F - f, 0.5F + f, maxY, 0.5F + f); // Spigot
     }
 
     public int d() {
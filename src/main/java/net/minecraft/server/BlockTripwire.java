@@ -132,7 +132,8 @@ public class BlockTripwire extends Block {
         int l = world.getData(i, j, k);
         boolean flag = (l & 1) == 1;
         boolean flag1 = false;
-        List list = world.getEntities((Entity) null, AxisAlignedBB.a().a((double) i + this.minX, (double) j + this.minY, (double) k + this.minZ, (double) i + this.maxX, (double) j + this.maxY, (double) k + this.maxZ));
+        double[] bounds = this.getBounds(); // Spigot
+        List list = world.getEntities((Entity) null, AxisAlignedBB.a().a((double) i + bounds[0], (double) j + bounds[1], (double) k + bounds[2], (double) i + bounds[3], (double) j + bounds[4], (double) k + bounds[5])); // Spigot
 
         if (!list.isEmpty()) {
             Iterator iterator = list.iterator();
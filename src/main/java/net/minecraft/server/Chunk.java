@@ -33,6 +33,10 @@ public class Chunk {
     public boolean m;
     public long n;
     public boolean seenByPlayer;
+    public int modCount; // Spigot - biome changes, see getModCount()
+    public volatile org.bukkit.craftbukkit.OrebfuscatorManager.ChunkCache obfuscatorCache; // Spigot
+    public volatile boolean saveQueued; // Spigot - waiting in the world's autosave queue
+    public int saveQueuedTick; // Spigot
     public int p;
     private int u;
     boolean q;
@@ -174,6 +178,7 @@ public class Chunk {
         }
 
         this.l = true;
+        this.queueSave(); // Spigot
 
         for (j = 0; j < 16; ++j) {
             for (k = 0; k < 16; ++k) {
@@ -246,6 +251,7 @@ public class Chunk {
             }
 
             this.l = true;
+            this.queueSave(); // Spigot
         }
     }
 
@@ -334,6 +340,7 @@ public class Chunk {
             }
 
             this.l = true;
+            this.queueSave(); // Spigot
         }
     }
 
@@ -458,6 +465,7 @@ public class Chunk {
                 }
 
                 this.l = true;
+                this.queueSave(); // Spigot
                 return true;
             }
         }
@@ -475,6 +483,7 @@ public class Chunk {
                 return false;
             } else {
                 this.l = true;
+                this.queueSave(); // Spigot
                 chunksection.b(i, j & 15, k, l);
                 int j1 = chunksection.a(i, j & 15, k);
 
@@ -507,6 +516,7 @@ public class Chunk {
         }
 
         this.l = true;
+        this.queueSave(); // Spigot
         if (enumskyblock == EnumSkyBlock.SKY) {
             if (!this.world.worldProvider.f) {
                 chunksection.c(i, j & 15, k, l);
@@ -541,6 +551,7 @@ public class Chunk {
 
     public void a(Entity entity) {
         this.m = true;
+        this.queueSave(); // Spigot
         int i = MathHelper.floor(entity.locX / 16.0D);
         int j = MathHelper.floor(entity.locZ / 16.0D);
 
@@ -567,6 +578,7 @@ public class Chunk {
         entity.aj = k;
         entity.ak = this.z;
         this.entitySlices[k].add(entity);
+        this.world.entityIndex.add(entity); // Spigot
     }
 
     public void b(Entity entity) {
@@ -582,7 +594,11 @@ public class Chunk {
             i = this.entitySlices.length - 1;
         }
 
-        this.entitySlices[i].remove(entity);
+        // Spigot start
+        if (this.entitySlices[i].remove(entity)) {
+            org.spigotmc.EntityIndex.remove(entity);
+        }
+        // Spigot end
     }
 
     public boolean d(int i, int j, int k) {
@@ -664,6 +680,11 @@ public class Chunk {
         this.world.a(this.tileEntities.values());
 
         for (int i = 0; i < this.entitySlices.length; ++i) {
+            // Spigot start
+            for (int j = 0; j < this.entitySlices[i].size(); ++j) {
+                this.world.entityIndex.add((Entity) this.entitySlices[i].get(j));
+            }
+            // Spigot end
             this.world.a(this.entitySlices[i]);
         }
     }
@@ -683,6 +704,7 @@ public class Chunk {
             java.util.Iterator<Object> iter = this.entitySlices[i].iterator();
             while (iter.hasNext()) {
                 Entity entity = (Entity) iter.next();
+                org.spigotmc.EntityIndex.remove(entity); // Spigot
 
                 // Do not pass along players, as doing so can get them stuck outside of time.
                 // (which for example disables inventory icon updates and prevents block breaking)
@@ -698,7 +720,17 @@ public class Chunk {
 
     public void e() {
         this.l = true;
+        this.queueSave(); // Spigot
+    }
+
+    // Spigot start - hand the chunk to the incremental autosave once it has something to save
+    public void queueSave() {
+        if (org.bukkit.craftbukkit.Spigot.incrementalAutosave && !this.saveQueued && this.world instanceof WorldServer) {
+            this.saveQueued = true;
+            ((WorldServer) this.world).autoSaveQueue.add(this);
+        }
     }
+    // Spigot end
 
     public void a(Entity entity, AxisAlignedBB axisalignedbb, List list) {
         int i = MathHelper.floor((axisalignedbb.b - 2.0D) / 16.0D);
@@ -870,6 +902,7 @@ public class Chunk {
 
             k = biomebase.id;
             this.s[j << 4 | i] = (byte) (k & 255);
+            ++this.modCount; // Spigot
         }
 
         return BiomeBase.biomes[k] == null ? BiomeBase.PLAINS : BiomeBase.biomes[k];
@@ -879,6 +912,26 @@ public class Chunk {
         return this.s;
     }
 
+    // Spigot start
+    /**
+     * Returns a count which increases whenever a block, light value or biome
+     * of this chunk changes, so cached copies of the chunk can be validated.
+     *
+     * @return the modification count
+     */
+    public long getModCount() {
+        long count = this.modCount;
+
+        for (int i = 0; i < this.sections.length; ++i) {
+            if (this.sections[i] != null) {
+                count += this.sections[i].modCount;
+            }
+        }
+
+        return count;
+    }
+    // Spigot end
+
     public void a(byte[] abyte) {
         this.s = abyte;
     }
@@ -25,11 +25,12 @@ public class ChunkProviderServer implements IChunkProvider {
     public LongHashSet unloadQueue = new LongHashSet();
     public Chunk emptyChunk;
     public IChunkProvider chunkProvider; // CraftBukkit
-    private IChunkLoader e;
+    public IChunkLoader e; // Spigot - private -> public
     public boolean forceChunkLoad = false; // true -> false
     public LongObjectHashMap<Chunk> chunks = new LongObjectHashMap<Chunk>();
     public WorldServer world;
-    static private CustomTimingsHandler syncChunkLoadTimer = new CustomTimingsHandler("syncChunkLoad"); // Spigot
+    private final CustomTimingsHandler syncChunkLoadTimer; // Spigot - per world, worlds may tick in parallel
+    private static final Object populationLock = new Object(); // Spigot
     // CraftBukkit end
 
     public ChunkProviderServer(WorldServer worldserver, IChunkLoader ichunkloader, IChunkProvider ichunkprovider) {
@@ -37,6 +38,7 @@ public class ChunkProviderServer implements IChunkProvider {
         this.world = worldserver;
         this.e = ichunkloader;
         this.chunkProvider = ichunkprovider;
+        this.syncChunkLoadTimer = new CustomTimingsHandler(worldserver.worldData.getName() + " - syncChunkLoad"); // Spigot
     }
 
     public boolean isChunkLoaded(int i, int j) {
@@ -102,6 +104,13 @@ public class ChunkProviderServer implements IChunkProvider {
             ChunkIOExecutor.queueChunkLoad(this.world, loader, this, i, j, runnable);
             return null;
         }
+
+        // Spigot start - generate the terrain async as well, population still happens on the main thread
+        if (chunk == null && runnable != null && this.canGenerateAsync()) {
+            ChunkIOExecutor.queueChunkGeneration(this.world, this, i, j, runnable);
+            return null;
+        }
+        // Spigot end
         // CraftBukkit end
 
         if (chunk == null) {
@@ -156,6 +165,13 @@ public class ChunkProviderServer implements IChunkProvider {
         return chunk;
     }
 
+    // Spigot start
+    public boolean canGenerateAsync() {
+        // Plugin generators are not assumed to be thread safe
+        return org.bukkit.craftbukkit.Spigot.asyncChunkGeneration && this.chunkProvider instanceof org.bukkit.craftbukkit.generator.NormalChunkGenerator;
+    }
+    // Spigot end
+
     public Chunk getOrCreateChunk(int i, int j) {
         // CraftBukkit start
         Chunk chunk = (Chunk) this.chunks.get(LongHash.toLong(i, j));
@@ -227,7 +243,13 @@ public class ChunkProviderServer implements IChunkProvider {
         if (!chunk.done) {
             chunk.done = true;
             if (this.chunkProvider != null) {
+                // Spigot start - the biome decorators are shared by every world, populate one chunk at a time
+                synchronized (populationLock) {
+                boolean populating = BlockSand.isPopulating();
+                BlockSand.setPopulating(true);
+                try {
                 this.chunkProvider.getChunkAt(ichunkprovider, i, j);
+                // Spigot end
 
                 // CraftBukkit start
                 BlockSand.instaFall = true;
@@ -244,6 +266,12 @@ public class ChunkProviderServer implements IChunkProvider {
                     }
                 }
                 BlockSand.instaFall = false;
+                // Spigot start
+                } finally {
+                    BlockSand.setPopulating(populating);
+                }
+                }
+                // Spigot end
                 this.world.getServer().getPluginManager().callEvent(new org.bukkit.event.world.ChunkPopulateEvent(chunk.bukkitChunk));
                 // CraftBukkit end
 
@@ -303,6 +331,8 @@ public class ChunkProviderServer implements IChunkProvider {
                     this.saveChunkNOP(chunk);
                     // this.unloadQueue.remove(integer);
                     this.chunks.remove(chunkcoordinates); // CraftBukkit
+                    this.world.compressedChunks.remove(chunk.x, chunk.z); // Spigot
+                    this.world.autoSaveQueue.remove(chunk); // Spigot
                 }
             }
             // CraftBukkit end
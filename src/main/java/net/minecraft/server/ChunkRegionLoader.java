@@ -13,8 +13,13 @@ import java.util.Set;
 
 public class ChunkRegionLoader implements IAsyncChunkSaver, IChunkLoader {
 
-    private java.util.LinkedHashMap<ChunkCoordIntPair, PendingChunkToSave> pendingSaves = new java.util.LinkedHashMap<ChunkCoordIntPair, PendingChunkToSave>(); // Spigot
+    private org.bukkit.craftbukkit.util.LongObjectHashMap<java.util.LinkedHashMap<ChunkCoordIntPair, org.spigotmc.ChunkSaveSnapshot>> pendingSaves = new org.bukkit.craftbukkit.util.LongObjectHashMap<java.util.LinkedHashMap<ChunkCoordIntPair, org.spigotmc.ChunkSaveSnapshot>>(); // Spigot - by region
     private Object c = new Object();
+    // Spigot start
+    private static final int MAX_BATCH = 32;
+    private volatile int compression = org.spigotmc.RegionCompression.ZLIB;
+    private volatile int compressionLevel = java.util.zip.Deflater.DEFAULT_COMPRESSION;
+    // Spigot end
     private final File d;
 
     public ChunkRegionLoader(File file1) {
@@ -27,12 +32,12 @@ public class ChunkRegionLoader implements IAsyncChunkSaver, IChunkLoader {
 
         synchronized (this.c) {
             // Spigot start
-            if (pendingSaves.containsKey(chunkcoordintpair)) {
+            if (this.getPendingSave(chunkcoordintpair) != null) {
                 return true;
             }
         }
         // Spigot end
-        return RegionFileCache.a(this.d, i, j).chunkExists(i & 31, j & 31);
+        return RegionFileCache.chunkExists(this.d, i, j); // Spigot
     }
     // CraftBukkit end
 
@@ -57,9 +62,9 @@ public class ChunkRegionLoader implements IAsyncChunkSaver, IChunkLoader {
 
         synchronized (this.c) {
             // Spigot start
-            PendingChunkToSave pendingchunktosave = pendingSaves.get(chunkcoordintpair);
+            org.spigotmc.ChunkSaveSnapshot pendingchunktosave = this.getPendingSave(chunkcoordintpair);
             if (pendingchunktosave != null) {
-                nbttagcompound = pendingchunktosave.b;
+                nbttagcompound = (NBTTagCompound) pendingchunktosave.toNBT().clone(); // The loaded chunk takes ownership of the arrays
             }
             /*
             if (this.b.contains(chunkcoordintpair)) {
@@ -122,24 +127,35 @@ public class ChunkRegionLoader implements IAsyncChunkSaver, IChunkLoader {
         // CraftBukkit end
 
         try {
-            NBTTagCompound nbttagcompound = new NBTTagCompound();
-            NBTTagCompound nbttagcompound1 = new NBTTagCompound();
-
-            nbttagcompound.set("Level", nbttagcompound1);
-            this.a(chunk, world, nbttagcompound1);
-            this.a(chunk.l(), nbttagcompound);
+            this.queueSave(chunk.l(), new org.spigotmc.ChunkSaveSnapshot(world, chunk)); // Spigot - only copy the chunk here, the NBT is put together when it is written
         } catch (Exception exception) {
             exception.printStackTrace();
         }
     }
 
     protected void a(ChunkCoordIntPair chunkcoordintpair, NBTTagCompound nbttagcompound) {
-        Object object = this.c;
+        this.queueSave(chunkcoordintpair, new org.spigotmc.ChunkSaveSnapshot(chunkcoordintpair.x, chunkcoordintpair.z, nbttagcompound)); // Spigot
+    }
+
+    // Spigot start
+    private org.spigotmc.ChunkSaveSnapshot getPendingSave(ChunkCoordIntPair chunkcoordintpair) {
+        java.util.LinkedHashMap<ChunkCoordIntPair, org.spigotmc.ChunkSaveSnapshot> region = this.pendingSaves.get(org.bukkit.craftbukkit.util.LongHash.toLong(chunkcoordintpair.x >> 5, chunkcoordintpair.z >> 5));
+        return region == null ? null : region.get(chunkcoordintpair);
+    }
+
+    private void queueSave(ChunkCoordIntPair chunkcoordintpair, org.spigotmc.ChunkSaveSnapshot snapshot) {
+        org.spigotmc.RegionWriter.awaitCapacity();
+        final long key = org.bukkit.craftbukkit.util.LongHash.toLong(chunkcoordintpair.x >> 5, chunkcoordintpair.z >> 5);
 
         synchronized (this.c) {
-            // Spigot start
-            if (this.pendingSaves.put(chunkcoordintpair, new PendingChunkToSave(chunkcoordintpair, nbttagcompound)) != null) {
-                return;
+            java.util.LinkedHashMap<ChunkCoordIntPair, org.spigotmc.ChunkSaveSnapshot> region = this.pendingSaves.get(key);
+            boolean schedule = region == null;
+            if (schedule) {
+                region = new java.util.LinkedHashMap<ChunkCoordIntPair, org.spigotmc.ChunkSaveSnapshot>();
+                this.pendingSaves.put(key, region);
+            }
+            if (region.put(chunkcoordintpair, snapshot) == null) {
+                org.spigotmc.RegionWriter.queued(1);
             }
             /*
             if (this.b.contains(chunkcoordintpair)) {
@@ -153,150 +169,241 @@ public class ChunkRegionLoader implements IAsyncChunkSaver, IChunkLoader {
 
             this.a.add(new PendingChunkToSave(chunkcoordintpair, nbttagcompound));
             this.b.add(chunkcoordintpair);
-            */// Spigot end
             FileIOThread.a.a(this);
+            */
+            // The region's writer takes chunks queued while it runs as well
+            if (schedule) {
+                org.spigotmc.RegionWriter.execute(key, new Runnable() {
+                    public void run() {
+                        ChunkRegionLoader.this.writeRegion(key);
+                    }
+                });
+            }
         }
     }
 
-    public boolean c() {
-        PendingChunkToSave pendingchunktosave = null;
-        Object object = this.c;
+    private void writeRegion(long key) {
+        while (true) {
+            java.util.LinkedHashMap<ChunkCoordIntPair, org.spigotmc.ChunkSaveSnapshot> region;
+            List<org.spigotmc.ChunkSaveSnapshot> batch = new ArrayList<org.spigotmc.ChunkSaveSnapshot>();
 
-        synchronized (this.c) {
-            // Spigot start
-            if (this.pendingSaves.isEmpty()) {
-                return false;
-            }
-            pendingchunktosave = this.pendingSaves.values().iterator().next();
-            this.pendingSaves.remove(pendingchunktosave.a);
-            /*
-            if (this.a.isEmpty()) {
-                return false;
-            }
+            synchronized (this.c) {
+                region = this.pendingSaves.get(key);
+                if (region.isEmpty()) {
+                    this.pendingSaves.remove(key);
+                    return;
+                }
 
-            pendingchunktosave = (PendingChunkToSave) this.a.remove(0);
-            this.b.remove(pendingchunktosave.a);
-            */// Spigot end
-        }
+                Iterator<org.spigotmc.ChunkSaveSnapshot> iterator = region.values().iterator();
+                while (iterator.hasNext() && batch.size() < MAX_BATCH) {
+                    batch.add(iterator.next());
+                }
+            }
 
-        if (pendingchunktosave != null) {
+            // Entries stay visible to loadChunk until they are on disk
+            long start = System.nanoTime();
             try {
-                this.a(pendingchunktosave);
-            } catch (Exception exception) {
-                exception.printStackTrace();
+                this.write(batch);
+            } catch (Throwable throwable) {
+                throwable.printStackTrace();
             }
-        }
 
-        return true;
+            int written = 0;
+            synchronized (this.c) {
+                for (org.spigotmc.ChunkSaveSnapshot pending : batch) {
+                    ChunkCoordIntPair chunkcoordintpair = new ChunkCoordIntPair(pending.x, pending.z);
+                    // Saved again since, the newer snapshot is written next
+                    if (region.get(chunkcoordintpair) == pending) {
+                        region.remove(chunkcoordintpair);
+                        ++written;
+                    }
+                }
+            }
+            org.spigotmc.RegionWriter.written(written, System.nanoTime() - start);
+        }
     }
+    // Spigot end
 
-    public void a(PendingChunkToSave pendingchunktosave) throws java.io.IOException { // CraftBukkit - public -> private, added throws
-        DataOutputStream dataoutputstream = RegionFileCache.d(this.d, pendingchunktosave.a.x, pendingchunktosave.a.z);
-
-        NBTCompressedStreamTools.a(pendingchunktosave.b, (DataOutput) dataoutputstream);
-        dataoutputstream.close();
+    public boolean c() {
+        return false; // Spigot - chunks are written by the region writer, nothing is queued on the file IO thread
     }
 
-    public void b(World world, Chunk chunk) {}
-
-    public void a() {}
-
-    public void b() {}
+    // Spigot start
+    private void write(List<org.spigotmc.ChunkSaveSnapshot> batch) throws java.io.IOException {
+        int count = batch.size();
+        int[] localX = new int[count];
+        int[] localZ = new int[count];
+        byte[][] data = new byte[count][];
+        int[] length = new int[count];
+        int type = this.compression;
+        int level = this.compressionLevel;
+
+        for (int i = 0; i < count; ++i) {
+            org.spigotmc.ChunkSaveSnapshot pending = batch.get(i);
+            java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream(65536);
+            DataOutputStream dataoutputstream = new DataOutputStream(bytes);
+
+            NBTCompressedStreamTools.a(pending.toNBT(), (DataOutput) dataoutputstream);
+            dataoutputstream.close();
+            localX[i] = pending.x & 31;
+            localZ[i] = pending.z & 31;
+            data[i] = org.spigotmc.RegionCompression.compress(type, level, bytes.toByteArray(), bytes.size());
+            length[i] = data[i].length;
+        }
 
-    private void a(Chunk chunk, World world, NBTTagCompound nbttagcompound) {
-        nbttagcompound.setInt("xPos", chunk.x);
-        nbttagcompound.setInt("zPos", chunk.z);
-        nbttagcompound.setLong("LastUpdate", world.getTime());
-        nbttagcompound.setIntArray("HeightMap", chunk.heightMap);
-        nbttagcompound.setBoolean("TerrainPopulated", chunk.done);
-        ChunkSection[] achunksection = chunk.i();
-        NBTTagList nbttaglist = new NBTTagList("Sections");
-        boolean flag = !world.worldProvider.f;
-        ChunkSection[] achunksection1 = achunksection;
-        int i = achunksection.length;
+        org.spigotmc.ChunkSaveSnapshot first = batch.get(0);
+        RegionFileCache.write(this.d, first.x, first.z, count, localX, localZ, data, length, type);
+    }
 
-        NBTTagCompound nbttagcompound1;
+    /**
+     * Sets how chunks saved from now on are compressed. Chunks already on
+     * disk are read whichever way they were compressed.
+     *
+     * @param type the {@link org.spigotmc.RegionCompression} type
+     * @param level the deflate level, for zlib
+     */
+    public void setCompression(int type, int level) {
+        this.compression = type;
+        this.compressionLevel = level;
+    }
 
-        for (int j = 0; j < i; ++j) {
-            ChunkSection chunksection = achunksection1[j];
+    public int getCompression() {
+        return this.compression;
+    }
 
-            if (chunksection != null) {
-                nbttagcompound1 = new NBTTagCompound();
-                nbttagcompound1.setByte("Y", (byte) (chunksection.d() >> 4 & 255));
-                nbttagcompound1.setByteArray("Blocks", chunksection.g());
-                if (chunksection.i() != null) {
-                    nbttagcompound1.setByteArray("Add", chunksection.i().getValueArray()); // Spigot
+    /**
+     * Recompresses every chunk on disk which isn't stored with the current
+     * compression, in the background. Each region is converted on the thread
+     * writing it, so a conversion never races a save of the same chunk.
+     *
+     * @return the number of region files being converted
+     */
+    public int convertRegions() {
+        File[] files = new File(this.d, "region").listFiles();
+        java.util.List<int[]> regions = new ArrayList<int[]>();
+        if (files != null) {
+            for (File file : files) {
+                String[] parts = file.getName().split("\\.");
+                if (parts.length == 4 && parts[0].equals("r") && parts[3].equals("mca")) {
+                    try {
+                        regions.add(new int[] { Integer.parseInt(parts[1]), Integer.parseInt(parts[2]) });
+                    } catch (NumberFormatException ex) {
+                        // Not a region file
+                    }
                 }
+            }
+        }
 
-                nbttagcompound1.setByteArray("Data", chunksection.j().getValueArray()); // Spigot
-                nbttagcompound1.setByteArray("BlockLight", chunksection.k().getValueArray()); // Spigot
-                if (flag) {
-                    nbttagcompound1.setByteArray("SkyLight", chunksection.l().getValueArray()); // Spigot
-                } else {
-                    nbttagcompound1.setByteArray("SkyLight", new byte[chunksection.k().getValueArray().length]); // Spigot
+        final java.util.concurrent.atomic.AtomicInteger remaining = new java.util.concurrent.atomic.AtomicInteger(regions.size());
+        final java.util.concurrent.atomic.AtomicInteger converted = new java.util.concurrent.atomic.AtomicInteger();
+        // Each region counts as queued, so saving the world waits for conversions to finish
+        org.spigotmc.RegionWriter.queued(regions.size());
+        for (int[] region : regions) {
+            final int regionX = region[0];
+            final int regionZ = region[1];
+            org.spigotmc.RegionWriter.execute(org.bukkit.craftbukkit.util.LongHash.toLong(regionX, regionZ), new Runnable() {
+                public void run() {
+                    try {
+                        converted.addAndGet(ChunkRegionLoader.this.convertRegion(regionX, regionZ));
+                    } catch (Throwable throwable) {
+                        throwable.printStackTrace();
+                    }
+                    org.spigotmc.RegionWriter.release(1);
+                    if (remaining.decrementAndGet() == 0) {
+                        MinecraftServer.log.info("[Spigot] Converted " + converted.get() + " chunks in " + ChunkRegionLoader.this.d.getPath() + " to " + org.spigotmc.RegionCompression.getName(ChunkRegionLoader.this.compression));
+                    }
                 }
+            });
+        }
+        return regions.size();
+    }
 
-                nbttaglist.add(nbttagcompound1);
+    private int convertRegion(int regionX, int regionZ) throws java.io.IOException {
+        // Evicted part way through, start again with the file open, a few times at most
+        for (int attempt = 0; attempt < 3; ++attempt) {
+            int count = this.convertRegion(RegionFileCache.a(this.d, regionX << 5, regionZ << 5));
+            if (count >= 0) {
+                return count;
             }
         }
+        MinecraftServer.log.warning("[Spigot] Could not convert region " + regionX + ", " + regionZ + " in " + this.d.getPath() + ", it was closed during every attempt");
+        return 0;
+    }
 
-        nbttagcompound.set("Sections", nbttaglist);
-        nbttagcompound.setByteArray("Biomes", chunk.m());
-        chunk.m = false;
-        NBTTagList nbttaglist1 = new NBTTagList();
-
-        Iterator iterator;
-
-        for (i = 0; i < chunk.entitySlices.length; ++i) {
-            iterator = chunk.entitySlices[i].iterator();
-
-            while (iterator.hasNext()) {
-                Entity entity = (Entity) iterator.next();
+    // Returns the number of chunks converted, or -1 if the file was closed before they were written
+    private int convertRegion(RegionFile regionfile) throws java.io.IOException {
+        if (regionfile.isClosed()) {
+            return -1;
+        }
+        int type = this.compression;
+        int level = this.compressionLevel;
+        int[] localX = new int[1024];
+        int[] localZ = new int[1024];
+        byte[][] data = new byte[1024][];
+        int[] length = new int[1024];
+        int count = 0;
+
+        for (int i = 0; i < 32; ++i) {
+            for (int j = 0; j < 32; ++j) {
+                int stored = regionfile.getCompression(i, j);
+                if (stored == 0 || stored == type) {
+                    continue;
+                }
 
-                chunk.m = true;
-                nbttagcompound1 = new NBTTagCompound();
-                if (entity.c(nbttagcompound1)) {
-                    nbttaglist1.add(nbttagcompound1);
+                DataInputStream datainputstream = regionfile.a(i, j);
+                if (datainputstream == null) {
+                    continue;
                 }
+                byte[] abyte = com.google.common.io.ByteStreams.toByteArray(datainputstream);
+                datainputstream.close();
+
+                localX[count] = i;
+                localZ[count] = j;
+                data[count] = org.spigotmc.RegionCompression.compress(type, level, abyte, abyte.length);
+                length[count] = data[count].length;
+                ++count;
             }
         }
 
-        nbttagcompound.set("Entities", nbttaglist1);
-        NBTTagList nbttaglist2 = new NBTTagList();
-
-        iterator = chunk.tileEntities.values().iterator();
+        if (count > 0 && !regionfile.write(count, localX, localZ, data, length, type)) {
+            return -1;
+        }
+        return count;
+    }
 
-        while (iterator.hasNext()) {
-            TileEntity tileentity = (TileEntity) iterator.next();
+    public void setCacheSize(int size) {
+        RegionFileCache.setCapacity(this.d, size);
+    }
 
-            nbttagcompound1 = new NBTTagCompound();
-            tileentity.b(nbttagcompound1);
-            nbttaglist2.add(nbttagcompound1);
+    /**
+     * Opens the region files overlapping an area in the background.
+     *
+     * @param minX the lowest chunk x coordinate
+     * @param minZ the lowest chunk z coordinate
+     * @param maxX the highest chunk x coordinate
+     * @param maxZ the highest chunk z coordinate
+     */
+    public void prefetch(int minX, int minZ, int maxX, int maxZ) {
+        for (int regionX = minX >> 5; regionX <= maxX >> 5; ++regionX) {
+            for (int regionZ = minZ >> 5; regionZ <= maxZ >> 5; ++regionZ) {
+                RegionFileCache.prefetch(this.d, regionX, regionZ);
+            }
         }
+    }
+    // Spigot end
 
-        nbttagcompound.set("TileEntities", nbttaglist2);
-        List list = world.a(chunk, false);
+    public void a(PendingChunkToSave pendingchunktosave) throws java.io.IOException { // CraftBukkit - public -> private, added throws
+        DataOutputStream dataoutputstream = RegionFileCache.d(this.d, pendingchunktosave.a.x, pendingchunktosave.a.z);
 
-        if (list != null) {
-            long k = world.getTime();
-            NBTTagList nbttaglist3 = new NBTTagList();
-            Iterator iterator1 = list.iterator();
+        NBTCompressedStreamTools.a(pendingchunktosave.b, (DataOutput) dataoutputstream);
+        dataoutputstream.close();
+    }
 
-            while (iterator1.hasNext()) {
-                NextTickListEntry nextticklistentry = (NextTickListEntry) iterator1.next();
-                NBTTagCompound nbttagcompound2 = new NBTTagCompound();
+    public void b(World world, Chunk chunk) {}
 
-                nbttagcompound2.setInt("i", nextticklistentry.d);
-                nbttagcompound2.setInt("x", nextticklistentry.a);
-                nbttagcompound2.setInt("y", nextticklistentry.b);
-                nbttagcompound2.setInt("z", nextticklistentry.c);
-                nbttagcompound2.setInt("t", (int) (nextticklistentry.e - k));
-                nbttaglist3.add(nbttagcompound2);
-            }
+    public void a() {}
 
-            nbttagcompound.set("TileTicks", nbttaglist3);
-        }
-    }
+    public void b() {}
 
     private Chunk a(World world, NBTTagCompound nbttagcompound) {
         int i = nbttagcompound.getInt("xPos");
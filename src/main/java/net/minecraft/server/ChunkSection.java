@@ -10,6 +10,7 @@ public class ChunkSection {
     private NibbleArray blockData;
     private NibbleArray blockLight;
     private NibbleArray skyLight;
+    public int modCount; // Spigot - bumped on every change, see Chunk.getModCount()
 
     public ChunkSection(int i, boolean flag) {
         this.yPos = i;
@@ -76,6 +77,7 @@ public class ChunkSection {
         } else if (this.extBlockIds != null) {
             this.extBlockIds.a(i, j, k, 0);
         }
+        ++this.modCount; // Spigot
     }
 
     public int b(int i, int j, int k) {
@@ -84,6 +86,7 @@ public class ChunkSection {
 
     public void b(int i, int j, int k, int l) {
         this.blockData.a(i, j, k, l);
+        ++this.modCount; // Spigot
     }
 
     public boolean a() {
@@ -100,6 +103,7 @@ public class ChunkSection {
 
     public void c(int i, int j, int k, int l) {
         this.skyLight.a(i, j, k, l);
+        ++this.modCount; // Spigot
     }
 
     public int c(int i, int j, int k) {
@@ -108,6 +112,7 @@ public class ChunkSection {
 
     public void d(int i, int j, int k, int l) {
         this.blockLight.a(i, j, k, l);
+        ++this.modCount; // Spigot
     }
 
     public int d(int i, int j, int k) {
@@ -227,6 +232,7 @@ public class ChunkSection {
 
     public void a(byte[] abyte) {
         this.blockIds = validateByteArray(abyte); // Spigot - validate
+        ++this.modCount; // Spigot
     }
 
     public void a(NibbleArray nibblearray) {
@@ -243,18 +249,22 @@ public class ChunkSection {
         }
         // CraftBukkit end
         this.extBlockIds = validateNibbleArray(nibblearray); // Spigot - validate
+        ++this.modCount; // Spigot
     }
 
     public void b(NibbleArray nibblearray) {
         this.blockData = validateNibbleArray(nibblearray); // Spigot - validate
+        ++this.modCount; // Spigot
     }
 
     public void c(NibbleArray nibblearray) {
         this.blockLight = validateNibbleArray(nibblearray); // Spigot - validate
+        ++this.modCount; // Spigot
     }
 
     public void d(NibbleArray nibblearray) {
         this.skyLight = validateNibbleArray(nibblearray); // Spigot - validate
+        ++this.modCount; // Spigot
     }
     
     // Spigot start - validate/correct nibble array
@@ -32,7 +32,7 @@ public class DispenseBehaviorFilledBucket extends DispenseBehaviorItem {
             CraftItemStack craftItem = CraftItemStack.asCraftMirror(itemstack);
 
             BlockDispenseEvent event = new BlockDispenseEvent(block, craftItem.clone(), new org.bukkit.util.Vector(0, 0, 0));
-            if (!BlockDispenser.eventFired) {
+            if (!BlockDispenser.eventFired.get()) { // Spigot
                 world.getServer().getPluginManager().callEvent(event);
             }
 
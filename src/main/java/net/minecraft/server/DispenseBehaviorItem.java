@@ -53,7 +53,7 @@ public class DispenseBehaviorItem implements IDispenseBehavior {
         CraftItemStack craftItem = CraftItemStack.asCraftMirror(itemstack);
 
         BlockDispenseEvent event = new BlockDispenseEvent(block, craftItem.clone(), new org.bukkit.util.Vector(entityitem.motX, entityitem.motY, entityitem.motZ));
-        if (!BlockDispenser.eventFired) {
+        if (!BlockDispenser.eventFired.get()) { // Spigot
             world.getServer().getPluginManager().callEvent(event);
         }
 
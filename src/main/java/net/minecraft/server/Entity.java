@@ -40,7 +40,7 @@ public abstract class Entity {
     }
     // CraftBukkit end
 
-    private static int entityCount = 0;
+    private static final java.util.concurrent.atomic.AtomicInteger entityCount = new java.util.concurrent.atomic.AtomicInteger(); // Spigot - worlds may tick in parallel
     public int id;
     public double l;
     public boolean m;
@@ -116,10 +116,12 @@ public abstract class Entity {
     public final byte activationType = org.bukkit.craftbukkit.Spigot.initializeEntityActivationType(this);
     public final boolean defaultActivationState = org.bukkit.craftbukkit.Spigot.initializeEntityActivationState(this);
     public boolean isActivated = defaultActivationState;
+    public org.spigotmc.EntityIndex.Cell indexCell;
+    public int indexSlot = -1;
     // Spigot end
 
     public Entity(World world) {
-        this.id = entityCount++;
+        this.id = entityCount.getAndIncrement(); // Spigot
         this.l = 1.0D;
         this.m = false;
         this.boundingBox = AxisAlignedBB.a(0.0D, 0.0D, 0.0D, 0.0D, 0.0D, 0.0D);
@@ -242,6 +244,7 @@ public abstract class Entity {
         float f1 = this.length;
 
         this.boundingBox.b(d0 - (double) f, d1 - (double) this.height + (double) this.W, d2 - (double) f, d0 + (double) f, d1 - (double) this.height + (double) this.W + (double) f1, d2 + (double) f);
+        org.spigotmc.EntityIndex.move(this); // Spigot
     }
 
     public void j_() {
@@ -436,6 +439,7 @@ public abstract class Entity {
             this.locX = (this.boundingBox.a + this.boundingBox.d) / 2.0D;
             this.locY = this.boundingBox.b + (double) this.height - (double) this.W;
             this.locZ = (this.boundingBox.c + this.boundingBox.f) / 2.0D;
+            org.spigotmc.EntityIndex.move(this); // Spigot
         } else {
             this.world.methodProfiler.a("move");
             this.W *= 0.4F;
@@ -626,6 +630,7 @@ public abstract class Entity {
             this.locX = (this.boundingBox.a + this.boundingBox.d) / 2.0D;
             this.locY = this.boundingBox.b + (double) this.height - (double) this.W;
             this.locZ = (this.boundingBox.c + this.boundingBox.f) / 2.0D;
+            org.spigotmc.EntityIndex.move(this); // Spigot
             this.positionChanged = d6 != d0 || d8 != d2;
             this.G = d7 != d1;
             this.onGround = d7 != d1 && d7 < 0.0D;
@@ -1753,7 +1758,21 @@ public abstract class Entity {
         this.ar = entity.ar;
     }
 
-    public void b(int i) {
+    public void b(final int i) {
+        // Spigot start - entities may only change worlds once all worlds have finished ticking
+        if (org.spigotmc.WorldTicker.isWorldThread()) {
+            org.spigotmc.WorldTicker.defer(new Runnable() {
+                public void run() {
+                    changeDimension(i);
+                }
+            });
+            return;
+        }
+        this.changeDimension(i);
+    }
+
+    private void changeDimension(int i) {
+        // Spigot end
         if (!this.world.isStatic && !this.dead) {
             this.world.methodProfiler.a("changeDimension");
             MinecraftServer minecraftserver = MinecraftServer.getServer();
@@ -546,7 +546,7 @@ public class EntityEnderDragon extends EntityLiving implements IComplex {
     private void c(int i, int j) {
         byte b0 = 64;
 
-        BlockEnderPortal.a = true;
+        BlockEnderPortal.a.set(Boolean.TRUE); // Spigot
         byte b1 = 4;
 
         // CraftBukkit start - Replace any "this.world" in the following with just "world"!
@@ -606,7 +606,7 @@ public class EntityEnderDragon extends EntityLiving implements IComplex {
         }
         // CraftBukkit end
 
-        BlockEnderPortal.a = false;
+        BlockEnderPortal.a.set(Boolean.FALSE); // Spigot
     }
 
     protected void bk() {}
@@ -27,6 +27,7 @@ public class EntityPlayer extends EntityHuman implements ICrafting {
     public double d;
     public double e;
     public final List chunkCoordIntPairQueue = new LinkedList();
+    private final List<Chunk> chunksAwaitingEntities = new ArrayList<Chunk>(); // Spigot - sent but not yet written by the connection
     public final List removeQueue = new LinkedList();
     private int cl = -99999999;
     private int cm = -99999999;
@@ -49,6 +50,7 @@ public class EntityPlayer extends EntityHuman implements ICrafting {
     public int newTotalExp = 0;
     public boolean keepLevel = false;
     public int lastPing = -1; // Spigot
+    public int viewDistance; // Spigot - chunk radius currently sent to this player
     // CraftBukkit end
 
     public EntityPlayer(MinecraftServer minecraftserver, World world, String s, PlayerInteractManager playerinteractmanager) {
@@ -135,6 +137,20 @@ public class EntityPlayer extends EntityHuman implements ICrafting {
         return 1.62F;
     }
 
+    // Spigot start - tracker entries may be updated from several threads at once
+    public void queueRemove(int id) {
+        synchronized (this.removeQueue) {
+            this.removeQueue.add(Integer.valueOf(id));
+        }
+    }
+
+    public void unqueueRemove(int id) {
+        synchronized (this.removeQueue) {
+            this.removeQueue.remove(Integer.valueOf(id));
+        }
+    }
+    // Spigot end
+
     public void j_() {
         this.playerInteractManager.a();
         --this.invulnerableTicks;
@@ -154,12 +170,13 @@ public class EntityPlayer extends EntityHuman implements ICrafting {
             this.playerConnection.sendPacket(new Packet29DestroyEntity(aint));
         }
 
-        if (!this.chunkCoordIntPairQueue.isEmpty()) {
+        this.spawnChunkEntities(); // Spigot
+        if (!this.chunkCoordIntPairQueue.isEmpty() && this.playerConnection.lowPriorityCount() == 0) { // Spigot - wait until the chunks already sent are on their way
             ArrayList arraylist = new ArrayList();
             Iterator iterator1 = this.chunkCoordIntPairQueue.iterator();
             ArrayList arraylist1 = new ArrayList();
 
-            while (iterator1.hasNext() && arraylist.size() < 5) {
+            while (iterator1.hasNext() && arraylist.size() < org.bukkit.craftbukkit.Spigot.chunksPerTick) { // Spigot - configurable send rate
                 ChunkCoordIntPair chunkcoordintpair = (ChunkCoordIntPair) iterator1.next();
 
                 iterator1.remove();
@@ -171,7 +188,18 @@ public class EntityPlayer extends EntityHuman implements ICrafting {
             }
 
             if (!arraylist.isEmpty()) {
-                this.playerConnection.sendPacket(new Packet56MapChunkBulk(arraylist));
+                // Spigot start - send each chunk on its own so players share one compression of it
+                if (org.spigotmc.ChunkCompressionCache.isEnabled()) {
+                    for (int i = 0; i < arraylist.size(); ++i) {
+                        this.playerConnection.sendPacket(this.world.compressedChunks.getPacket((Chunk) arraylist.get(i)));
+                    }
+                } else {
+                    // Bulk packets are kept to five chunks each
+                    for (int i = 0; i < arraylist.size(); i += 5) {
+                        this.playerConnection.sendPacket(new Packet56MapChunkBulk(arraylist.subList(i, Math.min(i + 5, arraylist.size()))));
+                    }
+                }
+                // Spigot end
 
                 Iterator iterator2 = arraylist1.iterator();
 
@@ -181,16 +209,45 @@ public class EntityPlayer extends EntityHuman implements ICrafting {
                     this.b(tileentity);
                 }
 
-                iterator2 = arraylist.iterator();
-
-                while (iterator2.hasNext()) {
-                    Chunk chunk = (Chunk) iterator2.next();
+                // Spigot start - the connection may hold the chunks back, spawn their entities once they are written
+                this.chunksAwaitingEntities.addAll(arraylist);
+                this.spawnChunkEntities();
+                // Spigot end
+            }
+        }
+    }
 
-                    this.p().getTracker().a(this, chunk);
-                }
+    // Spigot start
+    /**
+     * Gets whether a chunk was sent to this player but is still held back
+     * by the connection, so entities in it must not be spawned yet.
+     *
+     * @param x the chunk x coordinate
+     * @param z the chunk z coordinate
+     * @return whether the chunk is waiting to be written
+     */
+    public boolean isChunkAwaitingEntities(int x, int z) {
+        for (int i = 0; i < this.chunksAwaitingEntities.size(); ++i) {
+            Chunk chunk = this.chunksAwaitingEntities.get(i);
+            if (chunk.x == x && chunk.z == z) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private void spawnChunkEntities() {
+        if (this.chunksAwaitingEntities.isEmpty() || this.playerConnection.lowPriorityCount() != 0) {
+            return;
+        }
+
+        Chunk[] chunks = this.chunksAwaitingEntities.toArray(new Chunk[this.chunksAwaitingEntities.size()]);
+        this.chunksAwaitingEntities.clear();
+        for (Chunk chunk : chunks) {
+            this.p().getTracker().a(this, chunk);
+        }
     }
+    // Spigot end
 
     public void g() {
         super.j_();
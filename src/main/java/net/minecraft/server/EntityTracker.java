@@ -3,6 +3,7 @@ package net.minecraft.server;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 public class EntityTracker {
@@ -129,6 +130,12 @@ public class EntityTracker {
 
     // CraftBukkit - synchronized
     public synchronized void updatePlayers() {
+        // Spigot start
+        if (org.spigotmc.TrackerPool.isEnabled() && this.b.size() >= org.bukkit.craftbukkit.Spigot.trackerParallelThreshold) {
+            this.updatePlayersParallel();
+            return;
+        }
+        // Spigot end
         ArrayList arraylist = new ArrayList();
         Iterator iterator = this.b.iterator();
 
@@ -155,6 +162,63 @@ public class EntityTracker {
         }
     }
 
+    // Spigot start
+    /**
+     * Updates every entry on the tracker pool. Entries only touch their own
+     * state while running, packets are queued per connection and flushed
+     * afterwards, and anything which calls into plugins or shared map data is
+     * left for the main thread.
+     */
+    private void updatePlayersParallel() {
+        EntityTrackerEntry[] entries = (EntityTrackerEntry[]) this.b.toArray(new EntityTrackerEntry[this.b.size()]);
+        final List players = this.world.players;
+
+        try {
+            org.spigotmc.TrackerPool.run(entries, new org.spigotmc.TrackerPool.Job<EntityTrackerEntry>() {
+                public void run(EntityTrackerEntry entitytrackerentry) {
+                    if (!(entitytrackerentry.tracker instanceof EntityItemFrame)) {
+                        entitytrackerentry.track(players);
+                    }
+                }
+            });
+
+            final ArrayList<EntityPlayer> moved = new ArrayList<EntityPlayer>();
+            for (int i = 0; i < entries.length; ++i) {
+                EntityTrackerEntry entitytrackerentry = entries[i];
+
+                if (entitytrackerentry.tracker instanceof EntityItemFrame) {
+                    entitytrackerentry.track(players);
+                } else if (entitytrackerentry.tracker instanceof EntityPlayer) {
+                    entitytrackerentry.updateVelocity();
+                }
+
+                if (entitytrackerentry.n && entitytrackerentry.tracker instanceof EntityPlayer) {
+                    moved.add((EntityPlayer) entitytrackerentry.tracker);
+                }
+            }
+
+            if (!moved.isEmpty()) {
+                org.spigotmc.TrackerPool.run(entries, new org.spigotmc.TrackerPool.Job<EntityTrackerEntry>() {
+                    public void run(EntityTrackerEntry entitytrackerentry) {
+                        for (int i = 0; i < moved.size(); ++i) {
+                            EntityPlayer entityplayer = moved.get(i);
+
+                            if (entitytrackerentry.tracker != entityplayer) {
+                                entitytrackerentry.updatePlayer(entityplayer);
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            List online = this.world.getMinecraftServer().getPlayerList().players;
+            for (int i = 0; i < online.size(); ++i) {
+                ((EntityPlayer) online.get(i)).playerConnection.flushTrackerQueue();
+            }
+        }
+    }
+    // Spigot end
+
     // CraftBukkit - synchronized
     public synchronized void a(Entity entity, Packet packet) {
         EntityTrackerEntry entitytrackerentry = (EntityTrackerEntry) this.trackedEntities.get(entity.id);
@@ -222,6 +222,14 @@ public class EntityTrackerEntry {
             this.tracker.am = false;
         }
 
+        // Spigot - the velocity event for players is called from the main thread once parallel tracking is done
+        if (this.tracker.velocityChanged && !(this.tracker instanceof EntityPlayer && org.spigotmc.TrackerPool.isTrackerThread())) {
+            this.updateVelocity();
+        }
+    }
+
+    // Spigot start
+    public void updateVelocity() {
         if (this.tracker.velocityChanged) {
             // CraftBukkit start - create PlayerVelocity event
             boolean cancelled = false;
@@ -248,6 +256,7 @@ public class EntityTrackerEntry {
             this.tracker.velocityChanged = false;
         }
     }
+    // Spigot end
 
     public void broadcast(Packet packet) {
         Iterator iterator = this.trackedPlayers.iterator();
@@ -272,13 +281,13 @@ public class EntityTrackerEntry {
         while (iterator.hasNext()) {
             EntityPlayer entityplayer = (EntityPlayer) iterator.next();
 
-            entityplayer.removeQueue.add(Integer.valueOf(this.tracker.id));
+            entityplayer.queueRemove(this.tracker.id); // Spigot
         }
     }
 
     public void a(EntityPlayer entityplayer) {
         if (this.trackedPlayers.contains(entityplayer)) {
-            entityplayer.removeQueue.add(Integer.valueOf(this.tracker.id));
+            entityplayer.queueRemove(this.tracker.id); // Spigot
             this.trackedPlayers.remove(entityplayer);
         }
     }
@@ -298,7 +307,7 @@ public class EntityTrackerEntry {
                         }
                     }
 
-                    entityplayer.removeQueue.remove(Integer.valueOf(this.tracker.id));
+                    entityplayer.unqueueRemove(this.tracker.id); // Spigot
                     // CraftBukkit end
 
                     this.trackedPlayers.add(entityplayer);
@@ -368,7 +377,7 @@ public class EntityTrackerEntry {
             } else if (this.trackedPlayers.contains(entityplayer)) {
                 this.trackedPlayers.remove(entityplayer);
                 this.playersToUpdate.remove(entityplayer); // Spigot
-                entityplayer.removeQueue.add(Integer.valueOf(this.tracker.id));
+                entityplayer.queueRemove(this.tracker.id); // Spigot
             }
         }
     }
@@ -496,7 +505,7 @@ public class EntityTrackerEntry {
     public void clear(EntityPlayer entityplayer) {
         if (this.trackedPlayers.contains(entityplayer)) {
             this.trackedPlayers.remove(entityplayer);
-            entityplayer.removeQueue.add(Integer.valueOf(this.tracker.id));
+            entityplayer.queueRemove(this.tracker.id); // Spigot
         }
     }
 }
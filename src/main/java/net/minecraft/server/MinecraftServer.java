@@ -85,11 +85,13 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
     public final Thread primaryThread;
     public java.util.Queue<Runnable> processQueue = new java.util.concurrent.ConcurrentLinkedQueue<Runnable>();
     public int autosavePeriod;
+    private boolean autosaveQueued; // Spigot - loaded chunks were queued for the incremental autosave
     // CraftBukkit end
     // Spigot start
     private static final int TPS = 20;
     private static final int TICK_TIME = 1000000000 / TPS;
     public static double currentTPS = 0;
+    public static long tickDeadline; // Spigot - nano time the current tick should be finished by
     private static long catchupTime = 0;
     // Spigot end
 
@@ -339,6 +341,15 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
                     }
 
                     worldserver.save(true, (IProgressUpdate) null);
+                    // Spigot start - queue every world before waiting for the writes
+                }
+            }
+
+            for (int j = 0; j < this.worlds.size(); ++j) {
+                WorldServer worldserver = this.worlds.get(j);
+
+                if (worldserver != null) {
+                    // Spigot end
                     worldserver.saveLevel();
 
                     WorldSaveEvent event = new WorldSaveEvent(worldserver.getWorld());
@@ -349,6 +360,52 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
         }
     }
 
+    // Spigot start
+    /**
+     * Saves a slice of the autosave every tick. Each player and each world's
+     * level data is saved on its own tick of the period, and chunks which
+     * have waited a full period are saved until the tick's budget runs out.
+     */
+    private void saveIncrementally() throws ExceptionWorldConflict {
+        if (!this.autosaveQueued) {
+            // Chunks changed before the queue was switched on were never queued
+            for (int j = 0; j < this.worlds.size(); ++j) {
+                Iterator iterator = this.worlds.get(j).chunkProviderServer.chunks.values().iterator();
+
+                while (iterator.hasNext()) {
+                    Chunk chunk = (Chunk) iterator.next();
+
+                    if (chunk.a(true)) {
+                        chunk.queueSave();
+                    }
+                }
+            }
+            this.autosaveQueued = true;
+        }
+
+        int period = this.autosavePeriod;
+        this.t.savePlayers(this.ticks, period);
+
+        long deadline = System.nanoTime() + org.bukkit.craftbukkit.Spigot.autosaveBudget * 1000000L;
+        int count = this.worlds.size();
+        for (int j = 0; j < count; ++j) {
+            WorldServer worldserver = this.worlds.get(j);
+
+            if (!worldserver.chunkProvider.canSave()) {
+                continue;
+            }
+
+            worldserver.autoSaveQueue.save(period, deadline);
+            if (this.ticks % period == j * period / count) {
+                worldserver.a();
+
+                WorldSaveEvent event = new WorldSaveEvent(worldserver.getWorld());
+                this.server.getPluginManager().callEvent(event);
+            }
+        }
+    }
+    // Spigot end
+
     public void stop() throws ExceptionWorldConflict { // CraftBukkit - added throws
         if (!this.O) {
             log.info("Stopping server");
@@ -417,7 +474,9 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
                     currentTPS = (currentTPS * 0.95) + (1E9 / (curTime - lastTick) * 0.05);
                     lastTick = curTime;
                     MinecraftServer.currentTick++;
+                    tickDeadline = curTime + TICK_TIME;
                     this.q();
+                    org.spigotmc.DynamicViewDistance.tick(this, System.nanoTime() - curTime);
                     org.spigotmc.WatchdogThread.tick();
                 }
                 // Spigot end
@@ -447,6 +506,7 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
         } finally {
             try {
                 org.spigotmc.WatchdogThread.doStop();
+                org.spigotmc.WorldTicker.doStop(); // Spigot
                 this.stop();
                 this.isStopped = true;
             } catch (Throwable throwable1) {
@@ -484,10 +544,23 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
 
         this.methodProfiler.a("root");
         this.r();
+        // Spigot start - spread the autosave over the whole period
+        if (this.autosavePeriod > 0 && org.bukkit.craftbukkit.Spigot.incrementalAutosave) {
+            this.methodProfiler.a("save");
+            this.saveIncrementally();
+            this.methodProfiler.b();
+        } else
+        // Spigot end
         if ((this.autosavePeriod > 0) && ((this.ticks % this.autosavePeriod) == 0)) { // CraftBukkit
             this.methodProfiler.a("save");
             this.t.savePlayers();
             this.saveChunks(true);
+            // Spigot start - everything was just saved
+            for (int j = 0; j < this.worlds.size(); ++j) {
+                this.worlds.get(j).autoSaveQueue.clear();
+            }
+            this.autosaveQueued = false;
+            // Spigot end
             this.methodProfiler.b();
         }
 
@@ -538,6 +611,19 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
 
         int i;
 
+        // Spigot start - tick worlds in parallel, then run trackers once every world has caught up
+        if (org.spigotmc.WorldTicker.isEnabled() && this.worlds.size() > 1) {
+            this.methodProfiler.a("parallel");
+            org.spigotmc.WorldTicker.tickWorlds(this, this.worlds);
+            this.methodProfiler.c("tracker");
+
+            for (i = 0; i < this.worlds.size(); ++i) {
+                this.worlds.get(i).getTracker().updatePlayers();
+            }
+
+            this.methodProfiler.b();
+        } else {
+        // Spigot end
         for (i = 0; i < this.worlds.size(); ++i) {
             long j = System.nanoTime();
 
@@ -545,38 +631,7 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
                 WorldServer worldserver = this.worlds.get(i);
 
                 this.methodProfiler.a(worldserver.getWorldData().getName());
-                this.methodProfiler.a("pools");
-                worldserver.getVec3DPool().a();
-                this.methodProfiler.b();
-                /* Drop global time updates
-                if (this.ticks % 20 == 0) {
-                    this.methodProfiler.a("timeSync");
-                    this.t.a(new Packet4UpdateTime(worldserver.getTime(), worldserver.getDayTime()), worldserver.worldProvider.dimension);
-                    this.methodProfiler.b();
-                }
-                // CraftBukkit end */
-
-                this.methodProfiler.a("tick");
-
-                CrashReport crashreport;
-
-                try {
-                    worldserver.doTick();
-                } catch (Throwable throwable) {
-                    crashreport = CrashReport.a(throwable, "Exception ticking world");
-                    worldserver.a(crashreport);
-                    throw new ReportedException(crashreport);
-                }
-
-                try {
-                    worldserver.tickEntities();
-                } catch (Throwable throwable1) {
-                    crashreport = CrashReport.a(throwable1, "Exception ticking world entities");
-                    worldserver.a(crashreport);
-                    throw new ReportedException(crashreport);
-                }
-
-                this.methodProfiler.b();
+                this.tickWorld(worldserver); // Spigot - moved to tickWorld
                 this.methodProfiler.a("tracker");
                 worldserver.getTracker().updatePlayers();
                 this.methodProfiler.b();
@@ -585,6 +640,7 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
 
             // this.k[i][this.ticks % 100] = System.nanoTime() - j; // CraftBukkit
         }
+        } // Spigot
 
         this.methodProfiler.c("connection");
         this.ae().b();
@@ -599,6 +655,48 @@ public abstract class MinecraftServer implements ICommandListener, Runnable, IMo
         this.methodProfiler.b();
     }
 
+    // Spigot start - split out of r() so worlds may also be ticked by the WorldTicker
+    public void tickWorld(WorldServer worldserver) {
+        worldserver.timings.worldTick.startTiming();
+        if (org.spigotmc.WorldTicker.isWorldThread()) {
+            AxisAlignedBB.a().a(); // AABB pools are per thread, the main thread's is reset in q()
+        }
+        this.methodProfiler.a("pools");
+        worldserver.getVec3DPool().a();
+        this.methodProfiler.b();
+        /* Drop global time updates
+        if (this.ticks % 20 == 0) {
+            this.methodProfiler.a("timeSync");
+            this.t.a(new Packet4UpdateTime(worldserver.getTime(), worldserver.getDayTime()), worldserver.worldProvider.dimension);
+            this.methodProfiler.b();
+        }
+        // CraftBukkit end */
+
+        this.methodProfiler.a("tick");
+
+        CrashReport crashreport;
+
+        try {
+            worldserver.doTick();
+        } catch (Throwable throwable) {
+            crashreport = CrashReport.a(throwable, "Exception ticking world");
+            worldserver.a(crashreport);
+            throw new ReportedException(crashreport);
+        }
+
+        try {
+            worldserver.tickEntities();
+        } catch (Throwable throwable1) {
+            crashreport = CrashReport.a(throwable1, "Exception ticking world entities");
+            worldserver.a(crashreport);
+            throw new ReportedException(crashreport);
+        }
+
+        this.methodProfiler.b();
+        worldserver.timings.worldTick.stopTiming();
+    }
+    // Spigot end
+
     public boolean getAllowNether() {
         return true;
     }
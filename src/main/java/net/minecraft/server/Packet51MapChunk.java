@@ -18,6 +18,15 @@ public class Packet51MapChunk extends Packet {
     public boolean e;
     private int size;
     private static byte[] buildBuffer = new byte[196864];
+    // Spigot start - chunk maps may be built by several world threads at once
+    private static final ThreadLocal<byte[]> localBuildBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[196864];
+        }
+    };
+    // Spigot end
+    private org.spigotmc.ChunkCompressionCache.Entry cached; // Spigot
     private static final byte[] unloadSequence = new byte[]{0x78, (byte) 0x9C, 0x63, 0x64, 0x1C, (byte) 0xD9, 0x00, 0x00, (byte) 0x81, (byte) 0x80, 0x01, 0x01}; // Spigot
 
     public Packet51MapChunk() {
@@ -42,22 +51,68 @@ public class Packet51MapChunk extends Packet {
         this.b = chunk.z;
         this.e = flag;
         ChunkMap chunkmap = a(chunk, flag, i);
-        Deflater deflater = new Deflater(4);
 
         this.d = chunkmap.c;
         this.c = chunkmap.b;
-        org.bukkit.craftbukkit.OrebfuscatorManager.obfuscateSync(chunk.x, chunk.z, i, chunkmap.a, chunk.world); // Spigot (Orebfuscator)
+        org.bukkit.craftbukkit.OrebfuscatorManager.obfuscateSync(chunk, chunk.getModCount(), chunkmap.b, chunkmap.a); // Spigot (Orebfuscator)
 
-        try {
-            this.inflatedBuffer = chunkmap.a;
-            deflater.setInput(chunkmap.a, 0, chunkmap.a.length);
-            deflater.finish();
-            this.buffer = new byte[chunkmap.a.length];
-            this.size = deflater.deflate(this.buffer);
-        } finally {
-            deflater.end();
+        this.inflatedBuffer = chunkmap.a; // Spigot - compressed when first sent, see compress()
+    }
+
+    // Spigot start
+    public Packet51MapChunk(org.spigotmc.ChunkCompressionCache.Entry entry) {
+        this.lowPriority = true;
+        this.a = entry.x;
+        this.b = entry.z;
+        this.e = true;
+        this.c = entry.primaryMask;
+        this.d = entry.addMask;
+        this.cached = entry;
+    }
+
+    /**
+     * Compresses the chunk on the first thread to send it. The same packet is
+     * usually sent to every player watching the chunk, so the compressed data
+     * is kept and shared by every connection.
+     */
+    public synchronized void compress() {
+        if (this.buffer != null) {
+            return;
+        }
+
+        if (this.cached != null) {
+            this.buffer = this.cached.getBuffer();
+            this.size = this.cached.getSize();
+            this.cached = null;
+            return;
         }
+
+        Deflater deflater = Packet56MapChunkBulk.localDeflater.get();
+        deflater.reset();
+        deflater.setInput(this.inflatedBuffer, 0, this.inflatedBuffer.length);
+        deflater.finish();
+        byte[] abyte = new byte[this.inflatedBuffer.length + 100];
+        this.size = deflater.deflate(abyte);
+        this.buffer = abyte;
+        this.inflatedBuffer = null;
+    }
+
+    /**
+     * Writes this packet straight into a Netty buffer.
+     *
+     * @param out the buffer to write to
+     */
+    public void write(io.netty.buffer.ByteBuf out) {
+        this.compress();
+        out.writeInt(this.a);
+        out.writeInt(this.b);
+        out.writeBoolean(this.e);
+        out.writeShort((short) (this.c & '\uffff'));
+        out.writeShort((short) (this.d & '\uffff'));
+        out.writeInt(this.size);
+        out.writeBytes(this.buffer, 0, this.size);
     }
+    // Spigot end
 
     public void a(DataInputStream datainputstream) throws IOException { // CraftBukkit - throws IOException
         this.a = datainputstream.readInt();
@@ -99,6 +154,7 @@ public class Packet51MapChunk extends Packet {
     }
 
     public void a(DataOutputStream dataoutputstream) throws IOException { // CraftBukkit - throws IOException
+        this.compress(); // Spigot
         dataoutputstream.writeInt(this.a);
         dataoutputstream.writeInt(this.b);
         dataoutputstream.writeBoolean(this.e);
@@ -121,7 +177,7 @@ public class Packet51MapChunk extends Packet {
         ChunkSection[] achunksection = chunk.i();
         int k = 0;
         ChunkMap chunkmap = new ChunkMap();
-        byte[] abyte = buildBuffer;
+        byte[] abyte = localBuildBuffer.get(); // Spigot
 
         if (flag) {
             chunk.seenByPlayer = true;
@@ -28,7 +28,11 @@ public class Packet56MapChunkBulk extends Packet {
         }
     };
     // CraftBukkit end
-    private World world; // Spigot (Orebfuscator) Keep track of world
+    // Spigot start (Orebfuscator) - keep track of the chunks and the version of them sent
+    private Chunk[] chunks;
+    private long[] modCounts;
+    // Spigot end
+    private boolean obfuscated; // Spigot
 
     public Packet56MapChunkBulk() {}
 
@@ -40,6 +44,8 @@ public class Packet56MapChunkBulk extends Packet {
         this.a = new int[i];
         this.b = new int[i];
         this.inflatedBuffers = new byte[i][];
+        this.chunks = new Chunk[i]; // Spigot (Orebfuscator)
+        this.modCounts = new long[i]; // Spigot (Orebfuscator)
         this.h = !list.isEmpty() && !((Chunk) list.get(0)).world.worldProvider.f;
         int j = 0;
 
@@ -47,7 +53,10 @@ public class Packet56MapChunkBulk extends Packet {
             Chunk chunk = (Chunk) list.get(k);
             ChunkMap chunkmap = Packet51MapChunk.a(chunk, true, '\uffff');
 
-            world = chunk.world; // Spigot (Orebfuscator)
+            // Spigot start (Orebfuscator)
+            this.chunks[k] = chunk;
+            this.modCounts[k] = chunk.getModCount();
+            // Spigot end
             /* Spigot (Orebfuscator) - Don't use the build buffer yet. Copy to it more efficiently once the chunk is obfuscated
             // Moved to compress()
             if (buildBuffer.length < j + chunkmap.a.length) {
@@ -86,29 +95,81 @@ public class Packet56MapChunkBulk extends Packet {
             return;
         }
 
-        // Spigot (Orebfuscator) start - Obfuscate chunks
+        // Spigot start - deflate the chunks one after another rather than copying them into one build buffer first
+        int finalBufferSize = this.obfuscate();
+        Deflater deflater = localDeflater.get();
+        deflater.reset();
+
+        this.buffer = new byte[finalBufferSize + 100];
+        this.size = 0;
+        for (int i = 0; i < this.inflatedBuffers.length; i++) {
+            deflater.setInput(this.inflatedBuffers[i]);
+            while (!deflater.needsInput()) {
+                this.size += deflater.deflate(this.buffer, this.size, this.buffer.length - this.size);
+                if (this.size == this.buffer.length) {
+                    this.buffer = java.util.Arrays.copyOf(this.buffer, this.buffer.length * 2);
+                }
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            this.size += deflater.deflate(this.buffer, this.size, this.buffer.length - this.size);
+            if (this.size == this.buffer.length) {
+                this.buffer = java.util.Arrays.copyOf(this.buffer, this.buffer.length * 2);
+            }
+        }
+        this.inflatedBuffers = null;
+        // Spigot end
+    }
+
+    // Spigot start
+    private int obfuscate() {
         int finalBufferSize = 0;
         for (int i = 0; i < a.length; i++) {
-            org.bukkit.craftbukkit.OrebfuscatorManager.obfuscate(c[i], d[i], a[i], inflatedBuffers[i], world);
+            if (!this.obfuscated) {
+                org.bukkit.craftbukkit.OrebfuscatorManager.obfuscate(chunks[i], modCounts[i], a[i], inflatedBuffers[i]);
+            }
             finalBufferSize += inflatedBuffers[i].length;
         }
+        this.obfuscated = true;
+        this.chunks = null;
+        return finalBufferSize;
+    }
 
-        // Now it's time to efficiently copy the chunk to the build buffer
-        buildBuffer = new byte[finalBufferSize];
-        int bufferLocation = 0;
-        for (int i = 0; i < a.length; i++) {
-            System.arraycopy(inflatedBuffers[i], 0, buildBuffer, bufferLocation, inflatedBuffers[i].length);
-            bufferLocation += inflatedBuffers[i].length;
+    /**
+     * Writes this packet straight into a Netty buffer, compressing each chunk
+     * into it without an intermediate array.
+     *
+     * @param out the buffer to write to
+     */
+    public void write(io.netty.buffer.ByteBuf out) {
+        out.writeShort(this.c.length);
+        int sizeIndex = out.writerIndex();
+        out.writeInt(0);
+        out.writeBoolean(this.h);
+
+        if (this.buffer != null) {
+            out.writeBytes(this.buffer, 0, this.size);
+        } else {
+            this.obfuscate();
+            int start = out.writerIndex();
+            org.spigotmc.netty.ChunkDeflater deflater = org.spigotmc.netty.ChunkDeflater.get();
+            for (int i = 0; i < this.inflatedBuffers.length; i++) {
+                deflater.write(this.inflatedBuffers[i], out);
+            }
+            deflater.finish(out);
+            this.size = out.writerIndex() - start;
         }
-        // Spigot (Orebfuscator) end
-        Deflater deflater = localDeflater.get();
-        deflater.reset();
-        deflater.setInput(this.buildBuffer);
-        deflater.finish();
+        out.setInt(sizeIndex, this.size);
 
-        this.buffer = new byte[this.buildBuffer.length + 100];
-        this.size = deflater.deflate(this.buffer);
+        for (int i = 0; i < this.c.length; ++i) {
+            out.writeInt(this.c[i]);
+            out.writeInt(this.d[i]);
+            out.writeShort((short) (this.a[i] & '\uffff'));
+            out.writeShort((short) (this.b[i] & '\uffff'));
+        }
     }
+    // Spigot end
     // CraftBukkit end
 
     public void a(DataInputStream datainputstream) throws IOException { // CraftBukkit - throws IOException
@@ -7,7 +7,6 @@ import java.util.List;
 import java.util.Collections;
 import java.util.Queue;
 import java.util.Iterator;
-import java.util.LinkedList;
 // CraftBukkit end
 
 public class PlayerChunkMap {
@@ -19,6 +18,38 @@ public class PlayerChunkMap {
     private final int e;
     private final int[][] f = new int[][] { { 1, 0}, { 0, 1}, { -1, 0}, { 0, -1}};
     private boolean wasNotEmpty; // CraftBukkit
+    private int viewDistance; // Spigot - radius sent to players, shrinks below e under load
+    private static final int PREFETCH_DISTANCE = 8; // Spigot - chunks beyond the view to open region files for
+    // Spigot start - chunk offsets within the largest view distance, nearest first
+    private static final int[] spiralX;
+    private static final int[] spiralZ;
+    private static final int[] spiralEnd = new int[16];
+
+    static {
+        List<ChunkCoordIntPair> offsets = new ArrayList<ChunkCoordIntPair>();
+        for (int x = -15; x <= 15; ++x) {
+            for (int z = -15; z <= 15; ++z) {
+                offsets.add(new ChunkCoordIntPair(x, z));
+            }
+        }
+        Collections.sort(offsets, new ChunkCoordComparator(0, 0));
+
+        spiralX = new int[offsets.size()];
+        spiralZ = new int[offsets.size()];
+        for (int i = 0; i < offsets.size(); ++i) {
+            ChunkCoordIntPair offset = offsets.get(i);
+            spiralX[i] = offset.x;
+            spiralZ[i] = offset.z;
+            // Offsets are sorted by distance, a square of radius r lies within a distance of r * sqrt(2)
+            int distance = offset.x * offset.x + offset.z * offset.z;
+            for (int r = 0; r < spiralEnd.length; ++r) {
+                if (distance <= 2 * r * r) {
+                    spiralEnd[r] = i + 1;
+                }
+            }
+        }
+    }
+    // Spigot end
 
     public PlayerChunkMap(WorldServer worldserver, int i) {
         if (i > 15) {
@@ -27,6 +58,7 @@ public class PlayerChunkMap {
             throw new IllegalArgumentException("Too small view radius!");
         } else {
             this.e = i;
+            this.viewDistance = i; // Spigot
             this.world = worldserver;
         }
     }
@@ -100,74 +132,26 @@ public class PlayerChunkMap {
         entityplayer.d = entityplayer.locX;
         entityplayer.e = entityplayer.locZ;
 
-        // CraftBukkit start - load nearby chunks first
-        List<ChunkCoordIntPair> chunkList = new LinkedList<ChunkCoordIntPair>();
-        for (int k = i - this.e; k <= i + this.e; ++k) {
-            for (int l = j - this.e; l <= j + this.e; ++l) {
-                chunkList.add(new ChunkCoordIntPair(k, l));
+        // Spigot start - load nearby chunks first, walking the precomputed spiral
+        int radius = entityplayer.viewDistance = this.viewDistance;
+        for (int k = 0; k < spiralEnd[radius]; ++k) {
+            if (spiralX[k] >= -radius && spiralX[k] <= radius && spiralZ[k] >= -radius && spiralZ[k] <= radius) {
+                this.a(i + spiralX[k], j + spiralZ[k], true).a(entityplayer);
             }
         }
-
-        Collections.sort(chunkList, new ChunkCoordComparator(entityplayer));
-        for (ChunkCoordIntPair pair : chunkList) {
-            this.a(pair.x, pair.z, true).a(entityplayer);
-        }
-        // CraftBukkit end
+        // Spigot end
 
         this.managedPlayers.add(entityplayer);
-        this.b(entityplayer);
-    }
-
-    public void b(EntityPlayer entityplayer) {
-        ArrayList arraylist = new ArrayList(entityplayer.chunkCoordIntPairQueue);
-        int i = 0;
-        int j = this.e;
-        int k = (int) entityplayer.locX >> 4;
-        int l = (int) entityplayer.locZ >> 4;
-        int i1 = 0;
-        int j1 = 0;
-        ChunkCoordIntPair chunkcoordintpair = PlayerChunk.a(this.a(k, l, true));
-
-        entityplayer.chunkCoordIntPairQueue.clear();
-        if (arraylist.contains(chunkcoordintpair)) {
-            entityplayer.chunkCoordIntPairQueue.add(chunkcoordintpair);
-        }
-
-        int k1;
-
-        for (k1 = 1; k1 <= j * 2; ++k1) {
-            for (int l1 = 0; l1 < 2; ++l1) {
-                int[] aint = this.f[i++ % 4];
-
-                for (int i2 = 0; i2 < k1; ++i2) {
-                    i1 += aint[0];
-                    j1 += aint[1];
-                    chunkcoordintpair = PlayerChunk.a(this.a(k + i1, l + j1, true));
-                    if (arraylist.contains(chunkcoordintpair)) {
-                        entityplayer.chunkCoordIntPairQueue.add(chunkcoordintpair);
-                    }
-                }
-            }
-        }
-
-        i %= 4;
-
-        for (k1 = 0; k1 < j * 2; ++k1) {
-            i1 += this.f[i][0];
-            j1 += this.f[i][1];
-            chunkcoordintpair = PlayerChunk.a(this.a(k + i1, l + j1, true));
-            if (arraylist.contains(chunkcoordintpair)) {
-                entityplayer.chunkCoordIntPairQueue.add(chunkcoordintpair);
-            }
-        }
+        // this.b(entityplayer); // Spigot - already queued nearest first
     }
 
     public void removePlayer(EntityPlayer entityplayer) {
         int i = (int) entityplayer.d >> 4;
         int j = (int) entityplayer.e >> 4;
+        int radius = entityplayer.viewDistance; // Spigot
 
-        for (int k = i - this.e; k <= i + this.e; ++k) {
-            for (int l = j - this.e; l <= j + this.e; ++l) {
+        for (int k = i - radius; k <= i + radius; ++k) { // Spigot
+            for (int l = j - radius; l <= j + radius; ++l) { // Spigot
                 PlayerChunk playerchunk = this.a(k, l, false);
 
                 if (playerchunk != null) {
@@ -196,50 +180,123 @@ public class PlayerChunkMap {
         if (d2 >= 64.0D) {
             int k = (int) entityplayer.d >> 4;
             int l = (int) entityplayer.e >> 4;
-            int i1 = this.e;
+            int i1 = entityplayer.viewDistance; // Spigot
             int j1 = i - k;
             int k1 = j - l;
-            List<ChunkCoordIntPair> chunksToLoad = new LinkedList<ChunkCoordIntPair>(); // CraftBukkit
 
             if (j1 != 0 || k1 != 0) {
-                for (int l1 = i - i1; l1 <= i + i1; ++l1) {
-                    for (int i2 = j - i1; i2 <= j + i1; ++i2) {
-                        if (!this.a(l1, i2, k, l, i1)) {
-                            chunksToLoad.add(new ChunkCoordIntPair(l1, i2)); // CraftBukkit
-                        }
-
-                        if (!this.a(l1 - j1, i2 - k1, i, j, i1)) {
-                            PlayerChunk playerchunk = this.a(l1 - j1, i2 - k1, false);
-
-                            if (playerchunk != null) {
-                                playerchunk.b(entityplayer);
-                            }
-                        }
+                // Spigot start - only visit the strips entering and leaving the view
+                for (int l1 = k - i1; l1 <= k + i1; ++l1) {
+                    if (l1 < i - i1 || l1 > i + i1) {
+                        // The whole column left the view
+                        this.removePlayer(entityplayer, l1, l - i1, l + i1);
+                    } else {
+                        this.removePlayer(entityplayer, l1, l - i1, Math.min(l + i1, j - i1 - 1));
+                        this.removePlayer(entityplayer, l1, Math.max(l - i1, j + i1 + 1), l + i1);
                     }
                 }
 
-                this.b(entityplayer);
                 entityplayer.d = entityplayer.locX;
                 entityplayer.e = entityplayer.locZ;
 
-                // CraftBukkit start - send nearest chunks first
-                Collections.sort(chunksToLoad, new ChunkCoordComparator(entityplayer));
-                for (ChunkCoordIntPair pair : chunksToLoad) {
-                    this.a(pair.x, pair.z, true).a(entityplayer);
+                // Chunks still waiting to be sent were queued for the old position
+                boolean resort = !entityplayer.chunkCoordIntPairQueue.isEmpty();
+                for (int l1 = 0; l1 < spiralEnd[i1]; ++l1) {
+                    int i2 = i + spiralX[l1];
+                    int j2 = j + spiralZ[l1];
+                    if (this.a(i2, j2, i, j, i1) && !this.a(i2, j2, k, l, i1)) {
+                        this.a(i2, j2, true).a(entityplayer);
+                    }
                 }
 
-                if (i1 > 1 || i1 < -1 || j1 > 1 || j1 < -1) {
+                if (resort) {
                     Collections.sort(entityplayer.chunkCoordIntPairQueue, new ChunkCoordComparator(entityplayer));
                 }
-                // CraftBukkit end
+
+                // Open the region files the player is heading into before their chunks are loaded
+                IChunkLoader ichunkloader = this.world.chunkProviderServer.e;
+                if (ichunkloader instanceof ChunkRegionLoader) {
+                    ((ChunkRegionLoader) ichunkloader).prefetch(i - i1 - (j1 < 0 ? PREFETCH_DISTANCE : 0), j - i1 - (k1 < 0 ? PREFETCH_DISTANCE : 0),
+                            i + i1 + (j1 > 0 ? PREFETCH_DISTANCE : 0), j + i1 + (k1 > 0 ? PREFETCH_DISTANCE : 0));
+                }
+                // Spigot end
             }
         }
     }
 
+    // Spigot start
+    public int getViewDistance() {
+        return this.viewDistance;
+    }
+
+    /**
+     * Changes the radius sent to the players of this world, between the
+     * smallest radius allowed and the one the world was created with. Players
+     * lose the chunks outside of a smaller radius straight away, while a
+     * larger radius is only handed out one ring at a time to players who have
+     * received all of their queued chunks.
+     *
+     * @param distance the new view distance in chunks
+     */
+    public void setViewDistance(int distance) {
+        this.viewDistance = Math.max(3, Math.min(distance, this.e));
+
+        for (Object object : this.managedPlayers) {
+            EntityPlayer entityplayer = (EntityPlayer) object;
+
+            if (entityplayer.viewDistance > this.viewDistance) {
+                this.updateViewDistance(entityplayer, this.viewDistance);
+            } else if (entityplayer.viewDistance < this.viewDistance && entityplayer.chunkCoordIntPairQueue.isEmpty()) {
+                this.updateViewDistance(entityplayer, entityplayer.viewDistance + 1);
+            }
+        }
+    }
+
+    private void updateViewDistance(EntityPlayer entityplayer, int distance) {
+        int old = entityplayer.viewDistance;
+        int i = (int) entityplayer.d >> 4;
+        int j = (int) entityplayer.e >> 4;
+
+        entityplayer.viewDistance = distance;
+        if (distance < old) {
+            for (int k = i - old; k <= i + old; ++k) {
+                if (k < i - distance || k > i + distance) {
+                    this.removePlayer(entityplayer, k, j - old, j + old);
+                } else {
+                    this.removePlayer(entityplayer, k, j - old, j - distance - 1);
+                    this.removePlayer(entityplayer, k, j + distance + 1, j + old);
+                }
+            }
+        } else {
+            boolean resort = !entityplayer.chunkCoordIntPairQueue.isEmpty();
+            for (int k = 0; k < spiralEnd[distance]; ++k) {
+                int ring = Math.max(Math.abs(spiralX[k]), Math.abs(spiralZ[k]));
+                if (ring > old && ring <= distance) {
+                    this.a(i + spiralX[k], j + spiralZ[k], true).a(entityplayer);
+                }
+            }
+
+            if (resort) {
+                Collections.sort(entityplayer.chunkCoordIntPairQueue, new ChunkCoordComparator(entityplayer));
+            }
+        }
+    }
+
+    private void removePlayer(EntityPlayer entityplayer, int x, int fromZ, int toZ) {
+        for (int z = fromZ; z <= toZ; ++z) {
+            PlayerChunk playerchunk = this.a(x, z, false);
+
+            if (playerchunk != null) {
+                playerchunk.b(entityplayer);
+            }
+        }
+    }
+    // Spigot end
+
     public boolean a(EntityPlayer entityplayer, int i, int j) {
         PlayerChunk playerchunk = this.a(i, j, false);
 
-        return playerchunk == null ? false : PlayerChunk.b(playerchunk).contains(entityplayer) && !entityplayer.chunkCoordIntPairQueue.contains(PlayerChunk.a(playerchunk));
+        return playerchunk == null ? false : PlayerChunk.b(playerchunk).contains(entityplayer) && !entityplayer.chunkCoordIntPairQueue.contains(PlayerChunk.a(playerchunk)) && !entityplayer.isChunkAwaitingEntities(i, j); // Spigot
     }
 
     public static int getFurthestViewableBlock(int i) {
@@ -268,6 +325,13 @@ public class PlayerChunkMap {
             z = (int) entityplayer.locZ >> 4;
         }
 
+        // Spigot start
+        public ChunkCoordComparator(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+        // Spigot end
+
         public int compare(ChunkCoordIntPair a, ChunkCoordIntPair b) {
             if (a.equals(b)) {
                 return 0;
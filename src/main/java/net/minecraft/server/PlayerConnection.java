@@ -107,6 +107,7 @@ public class PlayerConnection extends Connection {
     }
     private final static HashSet<Integer> invalidItems = new HashSet<Integer>(java.util.Arrays.asList(8, 9, 10, 11, 26, 34, 36, 43, 51, 52, 55, 59, 60, 62, 63, 64, 68, 71, 74, 75, 83, 90, 92, 93, 94, 95, 104, 105, 115, 117, 118, 119, 125, 127, 132, 137, 140, 141, 142, 144)); // TODO: Check after every update.
     // CraftBukkit end
+    private final java.util.Queue<Packet> trackerQueue = new java.util.concurrent.ConcurrentLinkedQueue<Packet>(); // Spigot
 
     public void d() {
         this.h = false;
@@ -735,6 +736,13 @@ public class PlayerConnection extends Connection {
     }
 
     public void sendPacket(Packet packet) {
+        // Spigot start - hold packets from tracker threads until the main thread flushes them
+        if (packet != null && org.spigotmc.TrackerPool.isTrackerThread()) {
+            this.trackerQueue.add(packet);
+            return;
+        }
+        // Spigot end
+
         if (packet instanceof Packet3Chat) {
             Packet3Chat packet3chat = (Packet3Chat) packet;
             int i = this.player.getChatFlags();
@@ -768,6 +776,15 @@ public class PlayerConnection extends Connection {
         this.networkManager.queue(packet);
     }
 
+    // Spigot start
+    public void flushTrackerQueue() {
+        Packet packet;
+        while ((packet = this.trackerQueue.poll()) != null) {
+            this.sendPacket(packet);
+        }
+    }
+    // Spigot end
+
     public void a(Packet16BlockItemSwitch packet16blockitemswitch) {
         // CraftBukkit start
         if (this.player.dead) return;
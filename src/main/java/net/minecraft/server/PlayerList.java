@@ -325,7 +325,18 @@ public abstract class PlayerList {
         return this.moveToWorld(entityplayer, i, flag, null, true);
     }
 
-    public EntityPlayer moveToWorld(EntityPlayer entityplayer, int i, boolean flag, Location location, boolean avoidSuffocation) {
+    public EntityPlayer moveToWorld(final EntityPlayer entityplayer, final int i, final boolean flag, Location location, final boolean avoidSuffocation) {
+        // Spigot start - players may only change worlds once all worlds have finished ticking
+        if (org.spigotmc.WorldTicker.isWorldThread()) {
+            final Location target = location;
+            org.spigotmc.WorldTicker.defer(new Runnable() {
+                public void run() {
+                    moveToWorld(entityplayer, i, flag, target, avoidSuffocation);
+                }
+            });
+            return entityplayer;
+        }
+        // Spigot end
         // CraftBukkit end
         entityplayer.p().getTracker().untrackPlayer(entityplayer);
         // entityplayer.p().getTracker().untrackEntity(entityplayer); // CraftBukkit
@@ -423,7 +434,17 @@ public abstract class PlayerList {
     }
 
     // CraftBukkit start - Replaced the standard handling of portals with a more customised method.
-    public void changeDimension(EntityPlayer entityplayer, int i, TeleportCause cause) {
+    public void changeDimension(final EntityPlayer entityplayer, final int i, final TeleportCause cause) {
+        // Spigot start - portals are handled once all worlds have finished ticking
+        if (org.spigotmc.WorldTicker.isWorldThread()) {
+            org.spigotmc.WorldTicker.defer(new Runnable() {
+                public void run() {
+                    changeDimension(entityplayer, i, cause);
+                }
+            });
+            return;
+        }
+        // Spigot end
         WorldServer exitWorld = null;
         if (entityplayer.dimension < CraftWorld.CUSTOM_DIMENSION_OFFSET) { // plugins must specify exit from custom Bukkit worlds
             // only target existing worlds (compensate for allow-nether/allow-end as false)
@@ -850,6 +871,20 @@ public abstract class PlayerList {
         }
     }
 
+    // Spigot start - save the players falling on this tick of the autosave period, each is saved once a period
+    public void savePlayers(int tick, int period) {
+        int slot = tick % period;
+
+        for (int i = 0; i < this.players.size(); ++i) {
+            EntityPlayer entityplayer = (EntityPlayer) this.players.get(i);
+
+            if (entityplayer.id % period == slot) {
+                this.b(entityplayer);
+            }
+        }
+    }
+    // Spigot end
+
     public void addWhitelist(String s) {
         this.whitelist.add(s);
     }
@@ -4,22 +4,38 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.ArrayList;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
+
+// Spigot start
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.spigotmc.RegionCompression;
+// Spigot end
 
 public class RegionFile {
 
-    private static final byte[] a = new byte[4096];
+    // Spigot start - header and sectors are read and written with positional channel I/O
+    private static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SIZE = 8192;
     private final File b;
     private RandomAccessFile c;
+    private FileChannel channel;
     private final int[] d = new int[1024];
     private final int[] e = new int[1024];
-    private ArrayList f;
+    private final BitSet freeSectors = new BitSet();
+    private int sectorCount;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+    // Spigot end
     private int g;
     private long h = 0L;
 
@@ -33,67 +49,57 @@ public class RegionFile {
             }
 
             this.c = new RandomAccessFile(file1, "rw");
+            this.channel = this.c.getChannel();
             int i;
 
             if (this.c.length() < 4096L) {
-                for (i = 0; i < 1024; ++i) {
-                    this.c.writeInt(0);
-                }
-
-                for (i = 0; i < 1024; ++i) {
-                    this.c.writeInt(0);
-                }
-
+                this.channel.write(ByteBuffer.allocate(HEADER_SIZE), 0L); // Spigot
                 this.g += 8192;
             }
 
             if ((this.c.length() & 4095L) != 0L) {
-                for (i = 0; (long) i < (this.c.length() & 4095L); ++i) {
-                    this.c.write(0);
-                }
+                // Spigot - pad the end of the file out to a whole sector
+                this.channel.write(ByteBuffer.allocate((int) (SECTOR_SIZE - (this.c.length() & 4095L))), this.c.length());
             }
 
             i = (int) this.c.length() / 4096;
-            this.f = new ArrayList(i);
-
-            int j;
-
-            for (j = 0; j < i; ++j) {
-                this.f.add(Boolean.valueOf(true));
+            // Spigot start
+            this.sectorCount = i;
+            this.freeSectors.set(2, i);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            // A file cut short in its second sector reads as zero timestamps
+            while (header.hasRemaining() && this.channel.read(header, header.position()) >= 0) {
             }
 
-            this.f.set(0, Boolean.valueOf(false));
-            this.f.set(1, Boolean.valueOf(false));
-            this.c.seek(0L);
-
+            int j;
             int k;
 
             for (j = 0; j < 1024; ++j) {
-                k = this.c.readInt();
+                k = header.getInt(j * 4);
                 this.d[j] = k;
-                if (k != 0 && (k >> 8) + (k & 255) <= this.f.size()) {
-                    for (int l = 0; l < (k & 255); ++l) {
-                        this.f.set((k >> 8) + l, Boolean.valueOf(false));
-                    }
+                if (k != 0 && (k >> 8) + (k & 255) <= this.sectorCount) {
+                    this.freeSectors.clear(k >> 8, (k >> 8) + (k & 255));
                 }
             }
 
             for (j = 0; j < 1024; ++j) {
-                k = this.c.readInt();
+                k = header.getInt(4096 + j * 4);
                 this.e[j] = k;
             }
+            // Spigot end
         } catch (IOException ioexception) {
             ioexception.printStackTrace();
         }
     }
 
     // CraftBukkit start - this is a copy (sort of) of the method below it, make sure they stay in sync
-    public synchronized boolean chunkExists(int i, int j) {
+    public boolean chunkExists(int i, int j) { // Spigot - no longer synchronized, see lock
         if (this.d(i, j)) {
             return false;
         } else {
+            this.lock.readLock().lock(); // Spigot
             try {
-                int k = this.e(i, j);
+                int k = this.closed ? 0 : this.e(i, j); // Spigot
 
                 if (k == 0) {
                     return false;
@@ -101,24 +107,29 @@ public class RegionFile {
                     int l = k >> 8;
                     int i1 = k & 255;
 
-                    if (l + i1 > this.f.size()) {
+                    if (l + i1 > this.sectorCount) {
                         return false;
                     }
 
-                    this.c.seek((long) (l * 4096));
-                    int j1 = this.c.readInt();
+                    // Spigot start
+                    ByteBuffer chunkHeader = ByteBuffer.allocate(5);
+                    this.readFully(chunkHeader, (long) l * SECTOR_SIZE);
+                    int j1 = chunkHeader.getInt(0);
+                    // Spigot end
 
                     if (j1 > 4096 * i1 || j1 <= 0) {
                         return false;
                     }
 
-                    byte b0 = this.c.readByte();
-                    if (b0 == 1 || b0 == 2) {
+                    byte b0 = chunkHeader.get(4); // Spigot
+                    if (RegionCompression.isSupported(b0)) { // Spigot
                         return true;
                     }
                 }
             } catch (IOException ioexception) {
                 return false;
+            } finally {
+                this.lock.readLock().unlock(); // Spigot
             }
         }
 
@@ -126,12 +137,48 @@ public class RegionFile {
     }
     // CraftBukkit end
 
-    public synchronized DataInputStream a(int i, int j) {
+    // Spigot start
+    /**
+     * Gets the compression a chunk is stored with.
+     *
+     * @param i the region relative x coordinate
+     * @param j the region relative z coordinate
+     * @return the {@link RegionCompression} type, or 0 if the chunk isn't stored
+     */
+    public int getCompression(int i, int j) {
+        if (this.d(i, j)) {
+            return 0;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            int k = this.closed ? 0 : this.e(i, j);
+            if (k == 0 || (k >> 8) + (k & 255) > this.sectorCount) {
+                return 0;
+            }
+
+            ByteBuffer chunkHeader = ByteBuffer.allocate(5);
+            this.readFully(chunkHeader, (long) (k >> 8) * SECTOR_SIZE);
+            return chunkHeader.getInt(0) > 0 ? chunkHeader.get(4) : 0;
+        } catch (IOException ioexception) {
+            return 0;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+    // Spigot end
+
+    public DataInputStream a(int i, int j) { // Spigot - no longer synchronized, reads of different chunks may run concurrently
         if (this.d(i, j)) {
             return null;
         } else {
+            byte b0;
+            byte[] abyte;
+
+            // Spigot start - only hold the lock for the read itself, decompress afterwards
+            this.lock.readLock().lock();
             try {
-                int k = this.e(i, j);
+                int k = this.closed ? 0 : this.e(i, j);
 
                 if (k == 0) {
                     return null;
@@ -139,37 +186,42 @@ public class RegionFile {
                     int l = k >> 8;
                     int i1 = k & 255;
 
-                    if (l + i1 > this.f.size()) {
+                    if (l + i1 > this.sectorCount) {
                         return null;
                     } else {
-                        this.c.seek((long) (l * 4096));
-                        int j1 = this.c.readInt();
+                        ByteBuffer chunkHeader = ByteBuffer.allocate(5);
+                        this.readFully(chunkHeader, (long) l * SECTOR_SIZE);
+                        int j1 = chunkHeader.getInt(0);
 
                         if (j1 > 4096 * i1) {
                             return null;
                         } else if (j1 <= 0) {
                             return null;
                         } else {
-                            byte b0 = this.c.readByte();
-                            byte[] abyte;
-
-                            if (b0 == 1) {
-                                abyte = new byte[j1 - 1];
-                                this.c.read(abyte);
-                                return new DataInputStream(new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(abyte))));
-                            } else if (b0 == 2) {
-                                abyte = new byte[j1 - 1];
-                                this.c.read(abyte);
-                                return new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(abyte))));
-                            } else {
-                                return null;
-                            }
+                            b0 = chunkHeader.get(4);
+                            abyte = new byte[j1 - 1];
+                            this.readFully(ByteBuffer.wrap(abyte), (long) l * SECTOR_SIZE + 5L);
                         }
                     }
                 }
             } catch (IOException ioexception) {
                 return null;
+            } finally {
+                this.lock.readLock().unlock();
             }
+
+            try {
+                if (b0 == RegionCompression.GZIP) {
+                    return new DataInputStream(new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(abyte))));
+                } else if (b0 == RegionCompression.ZLIB || b0 == RegionCompression.LZ4) {
+                    return new DataInputStream(new ByteArrayInputStream(RegionCompression.decompress(b0, abyte)));
+                } else {
+                    return null;
+                }
+            } catch (IOException ioexception) {
+                return null;
+            }
+            // Spigot end
         }
     }
 
@@ -177,86 +229,162 @@ public class RegionFile {
         return this.d(i, j) ? null : new DataOutputStream(new DeflaterOutputStream(new ChunkBuffer(this, i, j)));
     }
 
-    protected synchronized void a(int i, int j, byte[] abyte, int k) {
-        try {
-            int l = this.e(i, j);
-            int i1 = l >> 8;
-            int j1 = l & 255;
-            int k1 = (k + 5) / 4096 + 1;
+    protected void a(int i, int j, byte[] abyte, int k) {
+        this.write(1, new int[] { i }, new int[] { j }, new byte[][] { abyte }, new int[] { k }, RegionCompression.ZLIB); // Spigot
+    }
 
-            if (k1 >= 256) {
-                return;
+    // Spigot start
+    /**
+     * Writes a batch of already compressed chunks. Sectors are allocated for
+     * every chunk first, after which each run of adjacent sectors is written
+     * with a single positional write.
+     *
+     * @param count the number of chunks in the batch
+     * @param localX the region relative x coordinate of each chunk
+     * @param localZ the region relative z coordinate of each chunk
+     * @param data the compressed data of each chunk
+     * @param length the number of valid bytes in each data array
+     * @param type the {@link RegionCompression} type the data is compressed with
+     * @return false if nothing was written as the file had been closed
+     */
+    public boolean write(int count, int[] localX, int[] localZ, byte[][] data, int[] length, int type) {
+        int[] start = new int[count];
+        int[] sectors = new int[count];
+        int timestamp = (int) (System.currentTimeMillis() / 1000L);
+
+        this.lock.writeLock().lock();
+        try {
+            if (this.closed) {
+                return false;
             }
 
-            if (i1 != 0 && j1 == k1) {
-                this.a(i1, abyte, k);
-            } else {
-                int l1;
-
-                for (l1 = 0; l1 < j1; ++l1) {
-                    this.f.set(i1 + l1, Boolean.valueOf(true));
+            for (int n = 0; n < count; ++n) {
+                start[n] = -1;
+                if (this.d(localX[n], localZ[n])) {
+                    continue;
                 }
 
-                l1 = this.f.indexOf(Boolean.valueOf(true));
-                int i2 = 0;
-                int j2;
-
-                if (l1 != -1) {
-                    for (j2 = l1; j2 < this.f.size(); ++j2) {
-                        if (i2 != 0) {
-                            if (((Boolean) this.f.get(j2)).booleanValue()) {
-                                ++i2;
-                            } else {
-                                i2 = 0;
-                            }
-                        } else if (((Boolean) this.f.get(j2)).booleanValue()) {
-                            l1 = j2;
-                            i2 = 1;
-                        }
+                int l = this.e(localX[n], localZ[n]);
+                int i1 = l >> 8;
+                int j1 = l & 255;
+                int k1 = (length[n] + 5) / 4096 + 1;
 
-                        if (i2 >= k1) {
-                            break;
-                        }
+                if (k1 >= 256) {
+                    continue;
+                }
+
+                if (i1 == 0 || j1 != k1) {
+                    if (i1 != 0) {
+                        this.freeSectors.set(i1, i1 + j1);
                     }
+
+                    i1 = this.allocate(k1);
+                    this.a(localX[n], localZ[n], i1 << 8 | k1);
                 }
 
-                if (i2 >= k1) {
-                    i1 = l1;
-                    this.a(i, j, l1 << 8 | k1);
+                start[n] = i1;
+                sectors[n] = k1;
+            }
 
-                    for (j2 = 0; j2 < k1; ++j2) {
-                        this.f.set(i1 + j2, Boolean.valueOf(false));
-                    }
+            Integer[] order = new Integer[count];
+            for (int n = 0; n < count; ++n) {
+                order[n] = n;
+            }
+            final int[] sortStart = start;
+            Arrays.sort(order, new java.util.Comparator<Integer>() {
+                public int compare(Integer o1, Integer o2) {
+                    return sortStart[o1] < sortStart[o2] ? -1 : (sortStart[o1] == sortStart[o2] ? 0 : 1);
+                }
+            });
+
+            int run = 0;
+            while (run < count) {
+                int first = order[run];
+                if (start[first] < 0) {
+                    ++run;
+                    continue;
+                }
 
-                    this.a(i1, abyte, k);
-                } else {
-                    this.c.seek(this.c.length());
-                    i1 = this.f.size();
+                int end = run + 1;
+                int next = start[first] + sectors[first];
+                while (end < count && start[order[end]] == next) {
+                    next += sectors[order[end]];
+                    ++end;
+                }
 
-                    for (j2 = 0; j2 < k1; ++j2) {
-                        this.c.write(a);
-                        this.f.add(Boolean.valueOf(false));
-                    }
+                ByteBuffer[] buffers = new ByteBuffer[(end - run) * 3];
+                int index = 0;
+                for (int n = run; n < end; ++n) {
+                    int idx = order[n];
+                    ByteBuffer chunkHeader = ByteBuffer.allocate(5);
+                    chunkHeader.putInt(0, length[idx] + 1);
+                    chunkHeader.put(4, (byte) type);
+                    buffers[index++] = chunkHeader;
+                    buffers[index++] = ByteBuffer.wrap(data[idx], 0, length[idx]);
+                    buffers[index++] = ByteBuffer.allocate(sectors[idx] * SECTOR_SIZE - length[idx] - 5);
+                }
 
-                    this.g += 4096 * k1;
-                    this.a(i1, abyte, k);
-                    this.a(i, j, i1 << 8 | k1);
+                this.channel.position((long) start[first] * SECTOR_SIZE);
+                long remaining = (long) (next - start[first]) * SECTOR_SIZE;
+                while (remaining > 0) {
+                    remaining -= this.channel.write(buffers);
                 }
+
+                this.g += (next - start[first]) * SECTOR_SIZE;
+                run = end;
             }
 
-            this.b(i, j, (int) (System.currentTimeMillis() / 1000L));
+            for (int n = 0; n < count; ++n) {
+                if (start[n] >= 0) {
+                    this.b(localX[n], localZ[n], timestamp);
+                }
+            }
         } catch (IOException ioexception) {
             ioexception.printStackTrace();
+        } finally {
+            this.lock.writeLock().unlock();
         }
+        return true;
     }
 
-    private void a(int i, byte[] abyte, int j) throws IOException { // CraftBukkit - added throws
-        this.c.seek((long) (i * 4096));
-        this.c.writeInt(j + 1);
-        this.c.writeByte(2);
-        this.c.write(abyte, 0, j);
+    /**
+     * Checks whether the file was closed, after which reads find nothing and
+     * writes fail, and the file has to be opened again through the cache.
+     *
+     * @return true if the file is closed
+     */
+    public boolean isClosed() {
+        return this.closed;
     }
 
+    private int allocate(int count) {
+        int run = 0;
+        for (int i = this.freeSectors.nextSetBit(0); i >= 0; i = this.freeSectors.nextSetBit(i + 1)) {
+            run = this.freeSectors.nextClearBit(i) - i;
+            if (run >= count) {
+                this.freeSectors.clear(i, i + count);
+                return i;
+            }
+            i += run - 1;
+        }
+
+        // Nothing large enough, append to the end of the file
+        int i = this.sectorCount;
+        this.sectorCount += count;
+        return i;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+    // Spigot end
+
     private boolean d(int i, int j) {
         return i < 0 || i >= 32 || j < 0 || j >= 32;
     }
@@ -271,19 +399,38 @@ public class RegionFile {
 
     private void a(int i, int j, int k) throws IOException { // CraftBukkit - added throws
         this.d[i + j * 32] = k;
-        this.c.seek((long) ((i + j * 32) * 4));
-        this.c.writeInt(k);
+        this.writeHeader((i + j * 32) * 4, k); // Spigot
     }
 
     private void b(int i, int j, int k) throws IOException { // CraftBukkit - added throws
         this.e[i + j * 32] = k;
-        this.c.seek((long) (4096 + (i + j * 32) * 4));
-        this.c.writeInt(k);
+        this.writeHeader(4096 + (i + j * 32) * 4, k); // Spigot
+    }
+
+    // Spigot start
+    private void writeHeader(int offset, int k) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(0, k);
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, offset + buffer.position());
+        }
     }
+    // Spigot end
 
     public void c() throws IOException { // CraftBukkit - added throws
         if (this.c != null) {
-            this.c.close();
+            // Spigot start
+            this.lock.writeLock().lock();
+            try {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                this.c.close();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            // Spigot end
         }
     }
 }
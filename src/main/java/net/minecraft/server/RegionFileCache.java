@@ -0,0 +1,316 @@
+package net.minecraft.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Spigot start
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+// Spigot end
+
+public class RegionFileCache {
+
+    // Spigot start - one LRU cache per world, instead of a shared map emptied whenever it fills
+    private static final int DEFAULT_CAPACITY = 128;
+    private static final Map<File, Map<File, RegionFile>> a = new HashMap<File, Map<File, RegionFile>>();
+    private static final Map<File, Integer> capacities = new HashMap<File, Integer>();
+    // Evicted files which may still be in use, they have to be closed before the file is opened again
+    private static final Map<File, RegionFile> closing = new HashMap<File, RegionFile>();
+    private static final Set<File> prefetching = new HashSet<File>();
+    // Files being opened outside of the lock, anyone else wanting them waits for the first opener
+    private static final Set<File> opening = new HashSet<File>();
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("Region File Cache Thread").setDaemon(true).build());
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong prefetches = new AtomicLong();
+    private static int open;
+
+    /**
+     * Sets how many region files of a world are kept open.
+     *
+     * @param file1 the world folder, as passed to the cache
+     * @param capacity the number of open files
+     */
+    public static synchronized void setCapacity(File file1, int capacity) {
+        capacities.put(file1, Math.max(1, capacity));
+    }
+
+    private static Map<File, RegionFile> getCache(final File file1) {
+        Map<File, RegionFile> cache = a.get(file1);
+        if (cache == null) {
+            cache = new LinkedHashMap<File, RegionFile>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<File, RegionFile> eldest) {
+                    Integer capacity = capacities.get(file1);
+                    if (this.size() <= (capacity == null ? DEFAULT_CAPACITY : capacity)) {
+                        return false;
+                    }
+                    evict(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+            };
+            a.put(file1, cache);
+        }
+        return cache;
+    }
+
+    // Closing waits for reads and writes still using the file, which is left to the cache thread
+    private static void evict(final File file, final RegionFile regionfile) {
+        evictions.incrementAndGet();
+        --open;
+        closing.put(file, regionfile);
+        executor.execute(new Runnable() {
+            public void run() {
+                close(file, regionfile);
+            }
+        });
+    }
+
+    private static void close(File file, RegionFile regionfile) {
+        try {
+            regionfile.c();
+        } catch (IOException ioexception) {
+            ioexception.printStackTrace();
+        }
+        synchronized (RegionFileCache.class) {
+            if (closing.get(file) == regionfile) {
+                closing.remove(file);
+            }
+        }
+    }
+    // Spigot end
+
+    public static RegionFile a(File file1, int i, int j) { // Spigot - no longer synchronized, files are opened outside of the lock
+        File file2 = new File(file1, "region");
+        File file3 = new File(file2, "r." + (i >> 5) + "." + (j >> 5) + ".mca");
+        // Spigot start
+        RegionFile evicted;
+
+        synchronized (RegionFileCache.class) {
+            RegionFile regionfile = awaitOpen(file1, file3);
+
+            if (regionfile != null) {
+                hits.incrementAndGet();
+                return regionfile;
+            }
+            misses.incrementAndGet();
+            evicted = claim(file3);
+        }
+        // Spigot end
+
+        if (!file2.exists()) {
+            file2.mkdirs();
+        }
+
+        return open(file1, file3, evicted); // Spigot
+    }
+
+    // Spigot start
+    // Returns the cached file, waiting while another thread is opening it, or null if the caller has to open it
+    private static RegionFile awaitOpen(File file1, File file3) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                RegionFile regionfile = getCache(file1).get(file3);
+                if (regionfile != null || !opening.contains(file3)) {
+                    return regionfile;
+                }
+
+                try {
+                    RegionFileCache.class.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Marks the file as being opened, must be followed by open, returns the evicted handle it has to close first
+    private static RegionFile claim(File file3) {
+        opening.add(file3);
+        return closing.remove(file3);
+    }
+
+    private static RegionFile open(File file1, File file3, RegionFile evicted) {
+        RegionFile regionfile = null;
+
+        try {
+            // Waits for anything still using an evicted handle, so the header is read after its last write
+            if (evicted != null) {
+                try {
+                    evicted.c();
+                } catch (IOException ioexception) {
+                    ioexception.printStackTrace();
+                }
+            }
+
+            regionfile = new RegionFile(file3);
+        } finally {
+            synchronized (RegionFileCache.class) {
+                opening.remove(file3);
+                if (regionfile != null) {
+                    ++open;
+                    getCache(file1).put(file3, regionfile);
+                }
+                RegionFileCache.class.notifyAll();
+            }
+        }
+        return regionfile;
+    }
+    // Spigot end
+
+    public static void a() { // Spigot - no longer synchronized, files are closed outside of the lock
+        // Spigot start
+        List<File> files = new ArrayList<File>();
+        List<RegionFile> regionfiles = new ArrayList<RegionFile>();
+
+        synchronized (RegionFileCache.class) {
+            Iterator<Map<File, RegionFile>> iterator = a.values().iterator();
+
+            while (iterator.hasNext()) {
+                for (Map.Entry<File, RegionFile> entry : iterator.next().entrySet()) {
+                    files.add(entry.getKey());
+                    regionfiles.add(entry.getValue());
+                    closing.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            a.clear();
+            open = 0;
+            // Prefetches still queued would open files again
+            prefetching.clear();
+        }
+
+        for (int i = 0; i < files.size(); ++i) {
+            close(files.get(i), regionfiles.get(i));
+        }
+
+        // Wait for evicted files too, the cache thread closes them in order
+        try {
+            executor.submit(new Runnable() {
+                public void run() {}
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            ex.printStackTrace();
+        }
+        // Spigot end
+    }
+
+    public static DataInputStream c(File file1, int i, int j) {
+        // Spigot start - open the file again if it was evicted before the read
+        while (true) {
+            RegionFile regionfile = a(file1, i, j);
+            DataInputStream datainputstream = regionfile.a(i & 31, j & 31);
+
+            if (datainputstream != null || !regionfile.isClosed()) {
+                return datainputstream;
+            }
+        }
+        // Spigot end
+    }
+
+    public static DataOutputStream d(File file1, int i, int j) {
+        RegionFile regionfile = a(file1, i, j);
+
+        return regionfile.b(i & 31, j & 31);
+    }
+
+    // Spigot start
+    public static boolean chunkExists(File file1, int i, int j) {
+        while (true) {
+            RegionFile regionfile = a(file1, i, j);
+            boolean exists = regionfile.chunkExists(i & 31, j & 31);
+
+            if (exists || !regionfile.isClosed()) {
+                return exists;
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of chunks from one region, see
+     * {@link RegionFile#write(int, int[], int[], byte[][], int[], int)}.
+     */
+    public static void write(File file1, int i, int j, int count, int[] localX, int[] localZ, byte[][] data, int[] length, int type) {
+        while (!a(file1, i, j).write(count, localX, localZ, data, length, type)) {
+            // Evicted before the write, open it again
+        }
+    }
+
+    /**
+     * Opens a region file on the cache thread, if it exists and isn't open
+     * already, so the first chunk loaded from it doesn't wait for its header.
+     *
+     * @param file1 the world folder
+     * @param regionX the region x coordinate
+     * @param regionZ the region z coordinate
+     */
+    public static void prefetch(final File file1, int regionX, int regionZ) {
+        final File file3 = new File(new File(file1, "region"), "r." + regionX + "." + regionZ + ".mca");
+
+        synchronized (RegionFileCache.class) {
+            Map<File, RegionFile> cache = a.get(file1);
+            if (cache != null && cache.containsKey(file3) || !prefetching.add(file3)) {
+                return;
+            }
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                boolean exists = file3.exists();
+                RegionFile evicted;
+
+                synchronized (RegionFileCache.class) {
+                    if (!prefetching.remove(file3) || !exists || getCache(file1).containsKey(file3) || opening.contains(file3)) {
+                        return;
+                    }
+                    prefetches.incrementAndGet();
+                    evicted = claim(file3);
+                }
+
+                open(file1, file3, evicted);
+            }
+        });
+    }
+
+    public static synchronized int getOpenFiles() {
+        return open;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    public static long getPrefetches() {
+        return prefetches.get();
+    }
+    // Spigot end
+}
@@ -14,7 +14,14 @@ import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
 
 public final class SpawnerCreature {
 
-    private static LongObjectHashMap<Boolean> b = new LongObjectHashMap<Boolean>(); // CraftBukkit - HashMap -> LongObjectHashMap
+    // Spigot start - one map per thread, worlds may spawn mobs in parallel
+    private static final ThreadLocal<LongObjectHashMap<Boolean>> b = new ThreadLocal<LongObjectHashMap<Boolean>>() {
+        @Override
+        protected LongObjectHashMap<Boolean> initialValue() {
+            return new LongObjectHashMap<Boolean>(); // CraftBukkit - HashMap -> LongObjectHashMap
+        }
+    };
+    // Spigot end
     protected static final Class[] a = new Class[] { EntitySpider.class, EntityZombie.class, EntitySkeleton.class};
     private static byte spawnRadius = 0; // Spigot
 
@@ -30,7 +37,7 @@ public final class SpawnerCreature {
     // Spigot start - get entity count only from chunks being processed in b
     public static final int getEntityCount(WorldServer server, Class oClass) {
         int i = 0;
-        for (Long coord : b.keySet()) {
+        for (Long coord : b.get().keySet()) {
             int x = LongHash.msw(coord);
             int z = LongHash.lsw(coord);
             if (!server.chunkProviderServer.unloadQueue.contains(x,z) && server.isChunkLoaded(x, z)) {
@@ -51,6 +58,7 @@ public final class SpawnerCreature {
         if (!flag && !flag1) {
             return 0;
         } else {
+            LongObjectHashMap<Boolean> b = SpawnerCreature.b.get(); // Spigot
             b.clear();
 
             int i;
@@ -116,6 +116,9 @@ public abstract class World implements IBlockAccess {
     private byte chunkTickRadius;
 
     public WorldTimingsHandler timings; // Spigot
+    public final org.spigotmc.EntityIndex entityIndex = new org.spigotmc.EntityIndex(); // Spigot
+    public final org.spigotmc.ActivationGrid activationGrid = new org.spigotmc.ActivationGrid(); // Spigot
+    public final org.spigotmc.ChunkCompressionCache compressedChunks = new org.spigotmc.ChunkCompressionCache(org.bukkit.craftbukkit.Spigot.chunkCompressionCacheSize); // Spigot
     public CraftWorld getWorld() {
         return this.world;
     }
@@ -162,6 +165,11 @@ public abstract class World implements IBlockAccess {
         }
 
         this.worldProvider.a(this);
+        // Spigot start - the biome generator is shared with other threads
+        if ((org.bukkit.craftbukkit.Spigot.asyncChunkGeneration || org.bukkit.craftbukkit.Spigot.parallelWorldTicking) && this.worldProvider.d.getClass() == WorldChunkManager.class) {
+            this.worldProvider.d = new org.spigotmc.SynchronizedWorldChunkManager(this.worldProvider.d);
+        }
+        // Spigot end
         this.chunkProvider = this.j();
         if (!this.worldData.isInitialized()) {
             try {
@@ -2416,47 +2424,51 @@ public abstract class World implements IBlockAccess {
         return null;
     }
 
-    public List getEntities(Entity entity, AxisAlignedBB axisalignedbb) {
-    	// Spigot start
+    public List getEntities(final Entity entity, final AxisAlignedBB axisalignedbb) {
+        // Spigot start - search the entity index rather than the slices of every chunk in range
         // this.O.clear();
-        ArrayList<?> entities = new ArrayList();
-        // Spigot end
-        int i = MathHelper.floor((axisalignedbb.a - 2.0D) / 16.0D);
-        int j = MathHelper.floor((axisalignedbb.d + 2.0D) / 16.0D);
-        int k = MathHelper.floor((axisalignedbb.c - 2.0D) / 16.0D);
-        int l = MathHelper.floor((axisalignedbb.f + 2.0D) / 16.0D);
-
-        for (int i1 = i; i1 <= j; ++i1) {
-            for (int j1 = k; j1 <= l; ++j1) {
-                if (this.isChunkLoaded(i1, j1)) {
-                    this.getChunkAt(i1, j1).a(entity, axisalignedbb, entities); // Spigot
+        final ArrayList entities = new ArrayList();
+
+        this.entityIndex.query(axisalignedbb, new org.spigotmc.EntityIndex.Visitor() {
+            public void visit(Entity entity1) {
+                if (entity1 != entity) {
+                    entities.add(entity1);
+                    Entity[] aentity = entity1.ao();
+
+                    if (aentity != null) {
+                        for (int i = 0; i < aentity.length; ++i) {
+                            entity1 = aentity[i];
+                            if (entity1 != entity && entity1.boundingBox.a(axisalignedbb)) {
+                                entities.add(entity1);
+                            }
+                        }
+                    }
                 }
             }
-        }
+        });
 
-        return entities; // Spigot
+        return entities;
+        // Spigot end
     }
 
     public List a(Class oclass, AxisAlignedBB axisalignedbb) {
         return this.a(oclass, axisalignedbb, (IEntitySelector) null);
     }
 
-    public List a(Class oclass, AxisAlignedBB axisalignedbb, IEntitySelector ientityselector) {
-        int i = MathHelper.floor((axisalignedbb.a - 2.0D) / 16.0D);
-        int j = MathHelper.floor((axisalignedbb.d + 2.0D) / 16.0D);
-        int k = MathHelper.floor((axisalignedbb.c - 2.0D) / 16.0D);
-        int l = MathHelper.floor((axisalignedbb.f + 2.0D) / 16.0D);
-        ArrayList arraylist = new ArrayList();
+    public List a(final Class oclass, AxisAlignedBB axisalignedbb, final IEntitySelector ientityselector) {
+        // Spigot start - search the entity index rather than the slices of every chunk in range
+        final ArrayList arraylist = new ArrayList();
 
-        for (int i1 = i; i1 <= j; ++i1) {
-            for (int j1 = k; j1 <= l; ++j1) {
-                if (this.isChunkLoaded(i1, j1)) {
-                    this.getChunkAt(i1, j1).a(oclass, axisalignedbb, arraylist, ientityselector);
+        this.entityIndex.query(axisalignedbb, new org.spigotmc.EntityIndex.Visitor() {
+            public void visit(Entity entity) {
+                if (oclass.isAssignableFrom(entity.getClass()) && (ientityselector == null || ientityselector.a(entity))) {
+                    arraylist.add(entity);
                 }
             }
-        }
+        });
 
         return arraylist;
+        // Spigot end
     }
 
     public Entity a(Class oclass, AxisAlignedBB axisalignedbb, Entity entity) {
@@ -27,8 +27,7 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
     private final MinecraftServer server;
     public EntityTracker tracker; // CraftBukkit - private final -> public
     private final PlayerChunkMap manager;
-    private LongObjectHashMap<Set<NextTickListEntry>> L; // CraftBukkit - change to something chunk friendly
-    private TreeSet M;
+    private org.spigotmc.NextTickWheel L; // Spigot - timing wheel instead of a chunk map and tree set
     public ChunkProviderServer chunkProviderServer;
     public boolean savingDisabled;
     private boolean N;
@@ -38,6 +37,8 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
     private int R = 0;
     private static final StructurePieceTreasure[] S = new StructurePieceTreasure[] { new StructurePieceTreasure(Item.STICK.id, 0, 1, 3, 10), new StructurePieceTreasure(Block.WOOD.id, 0, 1, 3, 10), new StructurePieceTreasure(Block.LOG.id, 0, 1, 3, 10), new StructurePieceTreasure(Item.STONE_AXE.id, 0, 1, 1, 3), new StructurePieceTreasure(Item.WOOD_AXE.id, 0, 1, 1, 5), new StructurePieceTreasure(Item.STONE_PICKAXE.id, 0, 1, 1, 3), new StructurePieceTreasure(Item.WOOD_PICKAXE.id, 0, 1, 1, 5), new StructurePieceTreasure(Item.APPLE.id, 0, 2, 3, 5), new StructurePieceTreasure(Item.BREAD.id, 0, 2, 3, 3)};
     private IntHashMap entitiesById;
+    private final org.spigotmc.RandomTickScanner randomTickScanner = new org.spigotmc.RandomTickScanner(); // Spigot
+    public org.spigotmc.AutoSaveQueue autoSaveQueue; // Spigot
 
     // CraftBukkit start
     public final int dimension;
@@ -55,12 +56,14 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
         }
 
         if (this.L == null) {
-            this.L = new LongObjectHashMap<Set<NextTickListEntry>>(); // CraftBukkit
+            this.L = new org.spigotmc.NextTickWheel(); // Spigot
         }
 
-        if (this.M == null) {
-            this.M = new TreeSet();
+        // Spigot start - chunks may be queued while the world is still being constructed
+        if (this.autoSaveQueue == null) {
+            this.autoSaveQueue = new org.spigotmc.AutoSaveQueue(this);
         }
+        // Spigot end
 
         this.P = new org.bukkit.craftbukkit.CraftTravelAgent(this); // CraftBukkit
     }
@@ -175,7 +178,9 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
         this.worldData.setTime(this.worldData.getTime() + 1L);
         this.worldData.setDayTime(this.worldData.getDayTime() + 1L);
         this.methodProfiler.c("tickPending");
+        timings.tickNextTick.startTiming(); // Spigot
         this.a(false);
+        timings.tickNextTick.stopTiming(); // Spigot
         this.methodProfiler.c("tickTiles");
         this.g();
         this.methodProfiler.c("chunkMap");
@@ -287,6 +292,7 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
 
         // CraftBukkit start
         // Spigot start
+        boolean scan = org.spigotmc.RandomTickScanner.isEnabled() && this.chunkTickList.size() >= org.spigotmc.RandomTickScanner.PARALLEL_THRESHOLD;
         for (TLongShortIterator iter = chunkTickList.iterator(); iter.hasNext();) {
             iter.advance();
             long chunkCoord = iter.key();
@@ -377,6 +383,21 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
             this.methodProfiler.c("tickTiles");
             ChunkSection[] achunksection = chunk.i();
 
+            // Spigot start - queue the chunk with the draws it would use, positions are picked off the main thread
+            if (scan) {
+                int mask = 0;
+                for (k1 = 0; k1 < achunksection.length; ++k1) {
+                    if (achunksection[k1] != null && achunksection[k1].b()) {
+                        mask |= 1 << k1;
+                    }
+                }
+                this.randomTickScanner.add(chunk, this.k, mask, players);
+                this.k = org.spigotmc.RandomTickScanner.skip(this.k, mask);
+                this.methodProfiler.b();
+                continue;
+            }
+            // Spigot end
+
             j1 = achunksection.length;
 
             for (k1 = 0; k1 < j1; ++k1) {
@@ -412,6 +433,41 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
 
             this.methodProfiler.b();
         }
+
+        // Spigot start - tick the scanned positions in chunk order
+        if (scan) {
+            this.methodProfiler.a("tickTiles");
+            try {
+                this.randomTickScanner.scan();
+
+                for (int n = 0; n < this.randomTickScanner.size(); ++n) {
+                    Chunk chunk = this.randomTickScanner.getChunk(n);
+                    ChunkSection[] achunksection = chunk.i();
+                    int k = chunk.x * 16;
+                    int l = chunk.z * 16;
+
+                    //grow fast if no players are in this chunk
+                    this.growthOdds = this.randomTickScanner.getPlayers(n) < 1 ? modifiedOdds : 100;
+                    for (int m = 0; m < this.randomTickScanner.getCandidateCount(n); ++m) {
+                        int position = this.randomTickScanner.getCandidate(n, m);
+                        ChunkSection chunksection = achunksection[position >> 12];
+                        int k2 = position & 15;
+                        int l2 = position >> 4 & 15;
+                        int i3 = position >> 8 & 15;
+
+                        // An earlier tick may have changed the block
+                        Block block = chunksection == null ? null : Block.byId[chunksection.a(k2, i3, l2)];
+                        if (block != null && block.isTicking()) {
+                            block.b(this, k2 + k, i3 + chunksection.d(), l2 + l, this.random);
+                        }
+                    }
+                }
+            } finally {
+                this.randomTickScanner.clear();
+            }
+            this.methodProfiler.b();
+        }
+        // Spigot end
     }
 
     public void a(int i, int j, int k, int l, int i1) {
@@ -419,16 +475,16 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
     }
 
     public void a(int i, int j, int k, int l, int i1, int j1) {
-        NextTickListEntry nextticklistentry = new NextTickListEntry(i, j, k, l);
+        // NextTickListEntry nextticklistentry = new NextTickListEntry(i, j, k, l); // Spigot - scheduled without an entry
         byte b0 = 8;
 
         if (this.d && l > 0) {
             if (Block.byId[l].l()) {
-                if (this.d(nextticklistentry.a - b0, nextticklistentry.b - b0, nextticklistentry.c - b0, nextticklistentry.a + b0, nextticklistentry.b + b0, nextticklistentry.c + b0)) {
-                    int k1 = this.getTypeId(nextticklistentry.a, nextticklistentry.b, nextticklistentry.c);
+                if (this.d(i - b0, j - b0, k - b0, i + b0, j + b0, k + b0)) { // Spigot
+                    int k1 = this.getTypeId(i, j, k); // Spigot
 
-                    if (k1 == nextticklistentry.d && k1 > 0) {
-                        Block.byId[k1].b(this, nextticklistentry.a, nextticklistentry.b, nextticklistentry.c, this.random);
+                    if (k1 == l && k1 > 0) { // Spigot
+                        Block.byId[k1].b(this, i, j, k, this.random); // Spigot
                     }
                 }
 
@@ -439,31 +495,18 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
         }
 
         if (this.d(i - b0, j - b0, k - b0, i + b0, j + b0, k + b0)) {
+            // Spigot start
             if (l > 0) {
-                nextticklistentry.a((long) i1 + this.worldData.getTime());
-                nextticklistentry.a(j1);
+                this.L.add(i, j, k, l, (long) i1 + this.worldData.getTime(), j1);
+            } else {
+                this.L.add(i, j, k, l, 0L, 0);
             }
-
-            // if (!this.L.contains(nextticklistentry)) {
-                // this.L.add(nextticklistentry);
-                // this.M.add(nextticklistentry);
-            // }
-            addNextTickIfNeeded(nextticklistentry); // CraftBukkit
+            // Spigot end
         }
     }
 
     public void b(int i, int j, int k, int l, int i1) {
-        NextTickListEntry nextticklistentry = new NextTickListEntry(i, j, k, l);
-
-        if (l > 0) {
-            nextticklistentry.a((long) i1 + this.worldData.getTime());
-        }
-
-        //if (!this.L.contains(nextticklistentry)) {
-        //    this.L.add(nextticklistentry);
-        //    this.M.add(nextticklistentry);
-        //}
-        addNextTickIfNeeded(nextticklistentry); // CraftBukkit
+        this.L.add(i, j, k, l, l > 0 ? (long) i1 + this.worldData.getTime() : 0L, 0); // Spigot
     }
 
     public void tickEntities() {
@@ -483,11 +526,12 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
     }
 
     public boolean a(boolean flag) {
-        int i = this.M.size();
+        int i = this.L.size(); // Spigot
 
         //if (i != this.L.size()) { // Spigot
         //    throw new IllegalStateException("TickNextTick list out of synch"); // Spigot
         //} else { // Spigot
+            /* Spigot start - run against a share of the time left in the tick instead
             if (i > 1000) {
                 // CraftBukkit start - if the server has too much to process over time, try to alleviate that
                 if (i > 20 * 1000) {
@@ -497,27 +541,36 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
                 }
                 // CraftBukkit end
             }
+            */
+            long now = System.nanoTime();
+            long deadline = now + Math.max(0L, MinecraftServer.tickDeadline - now) / 100L * org.bukkit.craftbukkit.Spigot.blockTickBudget;
+            int j = 0;
 
-            for (int j = 0; j < i; ++j) {
-                NextTickListEntry nextticklistentry = (NextTickListEntry) this.M.first();
+            for (; j < i; ++j) {
+                // Ticks left over stay due and run first next tick
+                if (j >= org.bukkit.craftbukkit.Spigot.minBlockTicks && (j & 63) == 0 && System.nanoTime() >= deadline) {
+                    timings.blockTicksDeferred += this.L.countDue(this.worldData.getTime());
+                    break;
+                }
 
-                if (!flag && nextticklistentry.e > this.worldData.getTime()) {
+                // Take the next due tick from the wheel
+                if (!this.L.poll(this.worldData.getTime(), flag)) {
                     break;
                 }
 
-                // Spigot start
-                //this.M.remove(nextticklistentry);
-                //this.L.remove(nextticklistentry);
-                this.removeNextTickIfNeeded(nextticklistentry);
+                int x = this.L.x;
+                int y = this.L.y;
+                int z = this.L.z;
+                int type = this.L.type;
                 // Spigot end
                 byte b0 = 8;
 
-                if (this.d(nextticklistentry.a - b0, nextticklistentry.b - b0, nextticklistentry.c - b0, nextticklistentry.a + b0, nextticklistentry.b + b0, nextticklistentry.c + b0)) {
-                    int k = this.getTypeId(nextticklistentry.a, nextticklistentry.b, nextticklistentry.c);
+                if (this.d(x - b0, y - b0, z - b0, x + b0, y + b0, z + b0)) { // Spigot
+                    int k = this.getTypeId(x, y, z); // Spigot
 
-                    if (k == nextticklistentry.d && k > 0) {
+                    if (k == type && k > 0) { // Spigot
                         try {
-                            Block.byId[k].b(this, nextticklistentry.a, nextticklistentry.b, nextticklistentry.c, this.random);
+                            Block.byId[k].b(this, x, y, z, this.random); // Spigot
                         } catch (Throwable throwable) {
                             CrashReport crashreport = CrashReport.a(throwable, "Exception while ticking a block");
                             CrashReportSystemDetails crashreportsystemdetails = crashreport.a("Block being ticked");
@@ -525,24 +578,28 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
                             int l;
 
                             try {
-                                l = this.getData(nextticklistentry.a, nextticklistentry.b, nextticklistentry.c);
+                                l = this.getData(x, y, z); // Spigot
                             } catch (Throwable throwable1) {
                                 l = -1;
                             }
 
-                            CrashReportSystemDetails.a(crashreportsystemdetails, nextticklistentry.a, nextticklistentry.b, nextticklistentry.c, k, l);
+                            CrashReportSystemDetails.a(crashreportsystemdetails, x, y, z, k, l); // Spigot
                             throw new ReportedException(crashreport);
                         }
                     }
                 }
             }
 
-            return !this.M.isEmpty();
+            // Spigot start
+            timings.blockTicksRun += j;
+            timings.blockTickBacklog = this.L.size();
+            return this.L.size() > 0;
+            // Spigot end
         // } // Spigot
     }
 
     public List a(Chunk chunk, boolean flag) {
-        return this.getNextTickEntriesForChunk(chunk, flag); // Spigot
+        return this.L.getEntries(chunk.x, chunk.z, flag); // Spigot
         /* Spigot start
         ArrayList arraylist = null;
         ChunkCoordIntPair chunkcoordintpair = chunk.l();
@@ -594,6 +651,12 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
 
     protected IChunkProvider j() {
         IChunkLoader ichunkloader = this.dataManager.createChunkLoader(this.worldProvider);
+        // Spigot start
+        if (ichunkloader instanceof ChunkRegionLoader) {
+            ((ChunkRegionLoader) ichunkloader).setCompression(org.spigotmc.RegionCompression.getType(this.getWorld().regionCompression), this.getWorld().regionCompressionLevel);
+            ((ChunkRegionLoader) ichunkloader).setCacheSize(this.getWorld().regionFileCacheSize);
+        }
+        // Spigot end
 
         // CraftBukkit start
         org.bukkit.craftbukkit.generator.InternalChunkGenerator gen;
@@ -652,12 +715,14 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
         }
 
         if (this.L == null) {
-            this.L = new LongObjectHashMap<Set<NextTickListEntry>>();
+            this.L = new org.spigotmc.NextTickWheel(); // Spigot
         }
 
-        if (this.M == null) {
-            this.M = new TreeSet();
+        // Spigot start - chunks may be queued while the world is still being constructed
+        if (this.autoSaveQueue == null) {
+            this.autoSaveQueue = new org.spigotmc.AutoSaveQueue(this);
         }
+        // Spigot end
 
         this.b(worldsettings);
         super.a(worldsettings);
@@ -892,6 +957,7 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
     }
 
     public void saveLevel() {
+        org.spigotmc.RegionWriter.waitForWrites(); // Spigot - the data manager closes the region files
         this.dataManager.a();
     }
 
@@ -925,48 +991,4 @@ public class WorldServer extends World implements org.bukkit.BlockChangeDelegate
     public PortalTravelAgent s() {
         return this.P;
     }
-
-    // Spigot start
-    private void addNextTickIfNeeded(NextTickListEntry ent) {
-        long coord = LongHash.toLong(ent.a >> 4, ent.c >> 4);
-        Set<NextTickListEntry> chunkset = L.get(coord);
-        if (chunkset == null) {
-            chunkset = new HashSet<NextTickListEntry>();
-            L.put(coord, chunkset);
-        } else if (chunkset.contains(ent)) {
-            return;
-        }
-        chunkset.add(ent);
-        M.add(ent);
-    }
-
-    private void removeNextTickIfNeeded(NextTickListEntry ent) {
-        long coord = LongHash.toLong(ent.a >> 4, ent.c >> 4);
-        Set<NextTickListEntry> chunkset = L.get(coord);
-        if (chunkset == null) {
-            return;
-        }
-        if (chunkset.remove(ent)) {
-            M.remove(ent);
-            if (chunkset.isEmpty()) {
-                L.remove(coord);
-            }
-        }
-    }
-
-    private List<NextTickListEntry> getNextTickEntriesForChunk(Chunk chunk, boolean remove) {
-        long coord = LongHash.toLong(chunk.x, chunk.z);
-        Set<NextTickListEntry> chunkset = L.get(coord);
-        if (chunkset == null) {
-            return null;
-        }
-        List<NextTickListEntry> list = new ArrayList<NextTickListEntry>(chunkset);
-        if (remove) {
-            L.remove(coord);
-            M.removeAll(list);
-            chunkset.clear();
-        }
-        return list;
-    }
-    // Spigot end
 }
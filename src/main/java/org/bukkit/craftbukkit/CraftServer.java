@@ -693,6 +693,12 @@ public final class CraftServer implements Server {
             throw new IllegalArgumentException("Creator may not be null");
         }
 
+        // Spigot start
+        if (org.spigotmc.WorldTicker.isWorldThread()) {
+            throw new IllegalStateException("Cannot create a world whilst worlds are ticking in parallel!");
+        }
+        // Spigot end
+
         String name = creator.name();
         ChunkGenerator generator = creator.generator();
         File folder = new File(getWorldContainer(), name);
@@ -789,6 +795,12 @@ public final class CraftServer implements Server {
             return false;
         }
 
+        // Spigot start
+        if (org.spigotmc.WorldTicker.isWorldThread()) {
+            throw new IllegalStateException("Cannot unload a world whilst worlds are ticking in parallel!");
+        }
+        // Spigot end
+
         WorldServer handle = ((CraftWorld) world).getHandle();
 
         if (!(console.worlds.contains(handle))) {
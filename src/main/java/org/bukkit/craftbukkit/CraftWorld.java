@@ -104,6 +104,10 @@ public class CraftWorld implements World {
         animalEntityActivationRange = configuration.getInt("world-settings.default.entity-activation-range-animals", animalEntityActivationRange);
         monsterEntityActivationRange = configuration.getInt("world-settings.default.entity-activation-range-monsters", monsterEntityActivationRange);
 
+        regionCompression = configuration.getString("world-settings.default.region-compression", regionCompression);
+        regionCompressionLevel = configuration.getInt("world-settings.default.region-compression-level", regionCompressionLevel);
+        regionFileCacheSize = configuration.getInt("world-settings.default.region-file-cache-size", regionFileCacheSize);
+
         //override defaults with world specific, if they exist
         growthPerTick = configuration.getInt("world-settings." + name + ".growth-chunks-per-tick", growthPerTick);
         itemMergeRadius = configuration.getDouble("world-settings." + name + ".item-merge-radius", itemMergeRadius);
@@ -129,6 +133,15 @@ public class CraftWorld implements World {
         animalEntityActivationRange = configuration.getInt("world-settings." + name + ".entity-activation-range-animals", animalEntityActivationRange);
         monsterEntityActivationRange = configuration.getInt("world-settings." + name + ".entity-activation-range-monsters", monsterEntityActivationRange);
 
+        regionCompression = configuration.getString("world-settings." + name + ".region-compression", regionCompression);
+        regionCompressionLevel = configuration.getInt("world-settings." + name + ".region-compression-level", regionCompressionLevel);
+        if (org.spigotmc.RegionCompression.getType(regionCompression) < 0) {
+            server.getLogger().warning("Unknown region compression " + regionCompression + ", using zlib");
+            regionCompression = "zlib";
+        }
+        regionCompressionLevel = Math.max(-1, Math.min(9, regionCompressionLevel));
+        regionFileCacheSize = Math.max(1, configuration.getInt("world-settings." + name + ".region-file-cache-size", regionFileCacheSize));
+
         server.getLogger().info("-------------- Spigot ----------------");
         server.getLogger().info("-------- World Settings For [" + name + "] --------");
         server.getLogger().info("Growth Per Chunk: " + growthPerTick);
@@ -147,6 +160,8 @@ public class CraftWorld implements World {
         server.getLogger().info("View distance: " + viewDistance);
         server.getLogger().info("Oreobfuscator: " + obfuscated);
         server.getLogger().info("Entity Activation Range: An " + animalEntityActivationRange + " / Mo " + monsterEntityActivationRange + " / Mi " + miscEntityActivationRange);
+        server.getLogger().info("Region Compression: " + regionCompression + (regionCompression.equalsIgnoreCase("zlib") ? " level " + regionCompressionLevel : ""));
+        server.getLogger().info("Region File Cache Size: " + regionFileCacheSize);
         server.getLogger().info("-------------------------------------------------");
         // Spigot end
     }
@@ -171,6 +186,9 @@ public class CraftWorld implements World {
     public int miscEntityActivationRange = 0;
     public int animalEntityActivationRange = 0;
     public int monsterEntityActivationRange = 0;
+    public String regionCompression = "zlib";
+    public int regionCompressionLevel = -1;
+    public int regionFileCacheSize = 128;
     // Spigot end
 
     public Block getBlockAt(int x, int y, int z) {
@@ -282,6 +300,7 @@ public class CraftWorld implements World {
 
         world.chunkProviderServer.unloadQueue.remove(x, z);
         world.chunkProviderServer.chunks.remove(LongHash.toLong(x, z));
+        world.autoSaveQueue.remove(chunk); // Spigot
 
         return true;
     }
@@ -617,6 +636,7 @@ public class CraftWorld implements World {
             if (chunk != null) {
                 byte[] biomevals = chunk.m();
                 biomevals[((z & 0xF) << 4) | (x & 0xF)] = (byte)bb.id;
+                ++chunk.modCount; // Spigot
             }
         }
     }
@@ -1,19 +1,34 @@
 package org.bukkit.craftbukkit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import net.minecraft.server.Block;
+import net.minecraft.server.Chunk;
+import net.minecraft.server.ChunkSection;
 import net.minecraft.server.World;
+import net.minecraft.server.WorldServer;
+import org.bukkit.craftbukkit.util.LongHash;
 import org.bukkit.event.CustomTimingsHandler;
 
 public class OrebfuscatorManager {
 
     // Used to keep track of which blocks to obfuscate
     private static final boolean[] obfuscateBlocks = new boolean[Short.MAX_VALUE];
-    private static Byte[] ores;
+    // Blocks which can be seen through, a hidden block must not touch any of these
+    private static final boolean[] transparentBlocks = new boolean[4096];
+    private static byte[] ores;
     private static final CustomTimingsHandler obfuscate = new CustomTimingsHandler("xray - obfuscate");
     private static final CustomTimingsHandler update = new CustomTimingsHandler("xray - update");
-    private static int ITERATOR = 0;
+    // Sections are obfuscated against a map of the transparent blocks in and around them, 18 blocks wide
+    private static final int MAP_WIDTH = 18;
+    private static final int MAP_LAYER = MAP_WIDTH * MAP_WIDTH;
+    private static final ThreadLocal<Context> localContext = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
 
     // Default blocks
     static {
@@ -37,7 +52,66 @@ public class OrebfuscatorManager {
                 }
             }
         }
-        ores = blocks.toArray(new Byte[blocks.size()]);
+        ores = new byte[blocks.size()];
+        for (int i = 0; i < ores.length; i++) {
+            ores[i] = blocks.get(i);
+        }
+
+        for (int i = 0; i < transparentBlocks.length; i++) {
+            transparentBlocks[i] = !Block.i(i);
+        }
+    }
+
+    /**
+     * Scratch space of one obfuscating thread.
+     */
+    private static class Context {
+
+        final long[] transparent = new long[(MAP_LAYER * MAP_WIDTH + 63) >> 6];
+        final int[] sectionOffsets = new int[16];
+        final Chunk[] neighbours = new Chunk[4];
+        final short[] positions = new short[4096];
+        final byte[] ids = new byte[4096];
+    }
+
+    /**
+     * The blocks replaced in the sections of one version of a chunk. Only the
+     * changed positions are kept, so sections without anything to hide cost
+     * next to nothing.
+     */
+    public static final class ChunkCache {
+
+        private static final short[] NO_POSITIONS = new short[0];
+        private static final byte[] NO_IDS = new byte[0];
+        final long modCount;
+        final long neighbours;
+        final int engineMode;
+        private final short[][] positions = new short[16][];
+        private final byte[][] ids = new byte[16][];
+
+        ChunkCache(long modCount, long neighbours, int engineMode) {
+            this.modCount = modCount;
+            this.neighbours = neighbours;
+            this.engineMode = engineMode;
+        }
+
+        synchronized boolean apply(int section, byte[] buffer, int offset) {
+            short[] changed = this.positions[section];
+            if (changed == null) {
+                return false;
+            }
+
+            byte[] replacements = this.ids[section];
+            for (int i = 0; i < changed.length; i++) {
+                buffer[offset + changed[i]] = replacements[i];
+            }
+            return true;
+        }
+
+        synchronized void put(int section, short[] positions, byte[] ids, int count) {
+            this.positions[section] = count == 0 ? NO_POSITIONS : Arrays.copyOf(positions, count);
+            this.ids[section] = count == 0 ? NO_IDS : Arrays.copyOf(ids, count);
+        }
     }
 
     public static void updateNearbyBlocks(World world, int x, int y, int z) {
@@ -46,51 +120,224 @@ public class OrebfuscatorManager {
         update.stopTiming();
     }
 
+    public static void obfuscateSync(Chunk chunk, long modCount, int bitmask, byte[] buffer) {
+        obfuscate.startTiming();
+        obfuscate(chunk, modCount, bitmask, buffer);
+        obfuscate.stopTiming();
+    }
+
     public static void obfuscateSync(int chunkX, int chunkY, int bitmask, byte[] buffer, World world) {
         obfuscate.startTiming();
         obfuscate(chunkX, chunkY, bitmask, buffer, world);
         obfuscate.stopTiming();
     }
 
+    /**
+     * Obfuscates the block ids of a chunk packet buffer. Safe to call from any
+     * thread, the result is cached on the chunk until it or one of its
+     * neighbours changes.
+     *
+     * @param chunk the chunk the buffer was built from
+     * @param modCount the modification count of the chunk when the buffer was built
+     * @param bitmask the sections contained in the buffer
+     * @param buffer the uncompressed chunk data
+     */
+    public static void obfuscate(Chunk chunk, long modCount, int bitmask, byte[] buffer) {
+        obfuscate(chunk.world, chunk.x, chunk.z, chunk, modCount, bitmask, buffer);
+    }
+
     public static void obfuscate(int chunkX, int chunkY, int bitmask, byte[] buffer, World world) {
-        if (world.getServer().orebfuscatorEnabled && world.getWorld().obfuscated) {
-            int initialRadius = 1;
-            int index = 0;
-            int startX = chunkX << 4;
-            int startZ = chunkY << 4;
+        // Without knowing which version of the chunk the buffer holds, it can't be cached
+        obfuscate(world, chunkX, chunkY, getLoadedChunk(world, chunkX, chunkY), -1, bitmask, buffer);
+    }
+
+    private static void obfuscate(World world, int chunkX, int chunkZ, Chunk chunk, long modCount, int bitmask, byte[] buffer) {
+        if (!world.getServer().orebfuscatorEnabled || !world.getWorld().obfuscated) {
+            return;
+        }
+
+        int engineMode = world.getServer().orebfuscatorEngineMode;
+        Context context = localContext.get();
+        Chunk[] neighbours = context.neighbours;
+        neighbours[0] = getLoadedChunk(world, chunkX - 1, chunkZ);
+        neighbours[1] = getLoadedChunk(world, chunkX + 1, chunkZ);
+        neighbours[2] = getLoadedChunk(world, chunkX, chunkZ - 1);
+        neighbours[3] = getLoadedChunk(world, chunkX, chunkZ + 1);
+
+        ChunkCache cache = null;
+        if (chunk != null && modCount >= 0) {
+            long stamp = 1;
+            for (Chunk neighbour : neighbours) {
+                stamp = stamp * 31 + (neighbour == null ? -1 : neighbour.getModCount());
+            }
+
+            cache = chunk.obfuscatorCache;
+            if (cache == null || cache.modCount != modCount || cache.neighbours != stamp || cache.engineMode != engineMode) {
+                cache = new ChunkCache(modCount, stamp, engineMode);
+                chunk.obfuscatorCache = cache;
+            }
+        }
+
+        int[] sectionOffsets = context.sectionOffsets;
+        int offset = 0;
+        for (int i = 0; i < 16; i++) {
+            // If the bitmask indicates this chunk is sent...
+            if ((bitmask & 1 << i) != 0 && offset + 4096 <= buffer.length) {
+                sectionOffsets[i] = offset;
+                offset += 4096;
+            } else {
+                sectionOffsets[i] = -1;
+            }
+        }
+
+        try {
             for (int i = 0; i < 16; i++) {
-                // If the bitmask indicates this chunk is sent...
-                if ((bitmask & 1 << i) != 0) {
-                    for (int y = 0; y < 16; y++) {
-                        for (int z = 0; z < 16; z++) {
-                            for (int x = 0; x < 16; x++) {
-                                byte data = buffer[index];
-                                // Check if the block should be obfuscated for the default engine modes
-                                if (obfuscateBlocks[data & 0xFF]) {
-                                    if (initialRadius == 0 || !areAjacentBlocksTransparent(world, startX + x, (i << 4) + y, startZ + z, initialRadius)) {
-                                        if (world.getServer().orebfuscatorEngineMode == 2) {
-                                            // Replace with random ore.
-                                            if (ITERATOR >= ores.length) {
-                                                ITERATOR = 0;
-                                            }
-                                            buffer[index] = (byte) (int) ores[ITERATOR++];
-                                        } else {
-                                            if (world.getServer().orebfuscatorEngineMode == 1) {
-                                                // Replace with stone
-                                                buffer[index] = (byte) Block.STONE.id;
-                                            }
-                                        }
-                                    }
-                                }
-                                if (++index >= buffer.length) {
-                                    return;
-                                }
-                            }
-                        }
+                if (sectionOffsets[i] >= 0 && (cache == null || !cache.apply(i, buffer, sectionOffsets[i]))) {
+                    int count = obfuscateSection(context, chunkX, chunkZ, chunk, i, buffer, engineMode);
+                    if (cache != null) {
+                        cache.put(i, context.positions, context.ids, count);
+                    }
+                }
+            }
+        } finally {
+            Arrays.fill(neighbours, null);
+        }
+    }
+
+    private static int obfuscateSection(Context context, int chunkX, int chunkZ, Chunk chunk, int section, byte[] buffer, int engineMode) {
+        long[] transparent = context.transparent;
+        int offset = context.sectionOffsets[section];
+        fillTransparency(context, chunk, section, buffer);
+
+        int startX = chunkX << 4;
+        int startY = section << 4;
+        int startZ = chunkZ << 4;
+        int count = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    int index = y << 8 | z << 4 | x;
+                    int data = buffer[offset + index] & 0xFF;
+                    // Check if the block should be obfuscated for the default engine modes
+                    if (!obfuscateBlocks[data]) {
+                        continue;
+                    }
+
+                    int p = ((y + 1) * MAP_WIDTH + z + 1) * MAP_WIDTH + x + 1;
+                    if (isSet(transparent, p) || isSet(transparent, p - 1) || isSet(transparent, p + 1)
+                            || isSet(transparent, p - MAP_WIDTH) || isSet(transparent, p + MAP_WIDTH)
+                            || isSet(transparent, p - MAP_LAYER) || isSet(transparent, p + MAP_LAYER)) {
+                        continue;
+                    }
+
+                    byte replacement;
+                    if (engineMode == 2) {
+                        // Replace with random ore, picked by position so every copy of the chunk agrees
+                        int hash = (startX + x) * 73856093 ^ (startY + y) * 19349663 ^ (startZ + z) * 83492791;
+                        replacement = ores[(hash & Integer.MAX_VALUE) % ores.length];
+                    } else {
+                        // Replace with stone
+                        replacement = (byte) Block.STONE.id;
+                    }
+
+                    if (replacement != buffer[offset + index]) {
+                        buffer[offset + index] = replacement;
+                        context.positions[count] = (short) index;
+                        context.ids[count] = replacement;
+                        count++;
                     }
                 }
             }
         }
+        return count;
+    }
+
+    /**
+     * Maps the transparent blocks of the section and the faces around it. The
+     * section's own blocks are read from the packet buffer, so they match the
+     * data being sent, anything not in the buffer comes from the loaded
+     * chunks. Blocks outside of the world or in unloaded chunks count as
+     * solid.
+     */
+    private static void fillTransparency(Context context, Chunk chunk, int section, byte[] buffer) {
+        long[] transparent = context.transparent;
+        int[] sectionOffsets = context.sectionOffsets;
+        Chunk[] neighbours = context.neighbours;
+        Arrays.fill(transparent, 0);
+
+        for (int my = 0; my < MAP_WIDTH; my++) {
+            int y = (section << 4) + my - 1;
+            if (y <= 0 || y >= 256) {
+                continue;
+            }
+
+            int sectionOffset = sectionOffsets[y >> 4];
+            int ly = y & 15;
+            ChunkSection chunkSection = chunk == null ? null : chunk.i()[y >> 4];
+            for (int z = 0; z < 16; z++) {
+                int p = (my * MAP_WIDTH + z + 1) * MAP_WIDTH + 1;
+                for (int x = 0; x < 16; x++) {
+                    int id;
+                    if (sectionOffset >= 0) {
+                        id = buffer[sectionOffset + (ly << 8 | z << 4 | x)] & 0xFF;
+                    } else if (chunk != null) {
+                        id = chunkSection == null ? 0 : chunkSection.a(x, ly, z);
+                    } else {
+                        continue;
+                    }
+
+                    if (transparentBlocks[id]) {
+                        set(transparent, p + x);
+                    }
+                }
+            }
+
+            // Only the faces of the neighbouring chunks touch the section
+            if (my == 0 || my == MAP_WIDTH - 1) {
+                continue;
+            }
+            for (int i = 0; i < 16; i++) {
+                if (isTransparent(neighbours[0], 15, y, i)) {
+                    set(transparent, (my * MAP_WIDTH + i + 1) * MAP_WIDTH);
+                }
+                if (isTransparent(neighbours[1], 0, y, i)) {
+                    set(transparent, (my * MAP_WIDTH + i + 1) * MAP_WIDTH + MAP_WIDTH - 1);
+                }
+                if (isTransparent(neighbours[2], i, y, 15)) {
+                    set(transparent, my * MAP_LAYER + i + 1);
+                }
+                if (isTransparent(neighbours[3], i, y, 0)) {
+                    set(transparent, (my * MAP_WIDTH + MAP_WIDTH - 1) * MAP_WIDTH + i + 1);
+                }
+            }
+        }
+    }
+
+    private static boolean isTransparent(Chunk chunk, int x, int y, int z) {
+        if (chunk == null) {
+            return false;
+        }
+        ChunkSection section = chunk.i()[y >> 4];
+        return section == null || transparentBlocks[section.a(x, y & 15, z)];
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >> 6] & 1L << index) != 0;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >> 6] |= 1L << index;
+    }
+
+    /**
+     * Looks up a chunk without loading it, chunk packets may be obfuscated off
+     * the main thread.
+     */
+    private static Chunk getLoadedChunk(World world, int x, int z) {
+        if (world instanceof WorldServer) {
+            return ((WorldServer) world).chunkProviderServer.chunks.get(LongHash.toLong(x, z));
+        }
+        return world.chunkProvider.isChunkLoaded(x, z) ? world.getChunkAt(x, z) : null;
     }
 
     private static void updateNearbyBlocks(World world, int x, int y, int z, int radius) {
@@ -115,16 +362,4 @@ public class OrebfuscatorManager {
             }
         }
     }
-
-    private static boolean areAjacentBlocksTransparent(World world, int x, int y, int z, int radius) {
-        return y > 0 && y <= world.getHeight()
-                && world.isLoaded(x, y, z)
-                && !Block.i(world.getTypeId(x, y, z))
-                || (radius > 0 && (areAjacentBlocksTransparent(world, x, y + 1, z, radius - 1)
-                || areAjacentBlocksTransparent(world, x, y - 1, z, radius - 1)
-                || areAjacentBlocksTransparent(world, x + 1, y, z, radius - 1)
-                || areAjacentBlocksTransparent(world, x - 1, y, z, radius - 1)
-                || areAjacentBlocksTransparent(world, x, y, z + 1, radius - 1)
-                || areAjacentBlocksTransparent(world, x, y, z - 1, radius - 1)));
-    }
 }
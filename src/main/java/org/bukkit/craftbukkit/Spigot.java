@@ -2,17 +2,26 @@ package org.bukkit.craftbukkit;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.List;
 import net.minecraft.server.*;
 import org.bukkit.command.SimpleCommandMap;
 import org.bukkit.configuration.file.YamlConfiguration;
-import java.util.List;
 import java.util.logging.Level;
 import org.bukkit.Bukkit;
+import org.bukkit.craftbukkit.util.LongHash;
 import org.bukkit.entity.Player;
+import org.spigotmc.ActivationGrid;
+import org.spigotmc.ChunkCompressionCache;
+import org.spigotmc.EntityIndex;
 import org.spigotmc.Metrics;
+import org.spigotmc.ProfilerCommand;
+import org.spigotmc.RandomTickScanner;
+import org.spigotmc.RegionCompressionCommand;
+import org.spigotmc.RegionWriter;
 import org.spigotmc.RestartCommand;
+import org.spigotmc.TrackerPool;
 import org.spigotmc.WatchdogThread;
+import org.spigotmc.WorldTicker;
 
 public class Spigot {
 
@@ -20,10 +29,37 @@ public class Spigot {
     private static Metrics metrics;
     public static boolean netty = true;
     public static int nettyThreads = 3;
+    public static boolean nettyCoalesceWrites = false;
+    public static int nettyFlushThreshold = 65536;
+    public static int chunkLaneBudget = 262144;
+    public static int chunksPerTick = 5;
+    public static boolean dynamicViewDistance = false;
+    public static int minViewDistance = 4;
+    public static int viewDistanceShrinkTime = 45;
+    public static int viewDistanceGrowTime = 30;
+    public static int blockTickBudget = 50;
+    public static int minBlockTicks = 1000;
+    public static boolean asyncPackets = false;
+    public static int asyncPacketThreads = 4;
+    public static int asyncPacketQueueSize = 1024;
+    public static boolean parallelWorldTicking = false;
+    public static int worldTickThreads = 4;
+    public static boolean asyncChunkGeneration = false;
+    public static int chunkCompressionCacheSize = 0;
+    public static int chunkCompressionThreads = 2;
+    public static int entityTrackerThreads = 0;
+    public static int trackerParallelThreshold = 256;
+    public static int randomTickThreads = 0;
+    public static int regionWriterThreads = 2;
+    public static int regionWriterQueueSize = 1024;
+    public static boolean incrementalAutosave = false;
+    public static int autosaveBudget = 2;
 
     public static void initialize(CraftServer server, SimpleCommandMap commandMap, YamlConfiguration configuration) {
         commandMap.register("bukkit", new org.bukkit.craftbukkit.command.TicksPerSecondCommand("tps"));
         commandMap.register("restart", new RestartCommand("restart"));
+        commandMap.register("profiler", new ProfilerCommand("profiler"));
+        commandMap.register("regioncompression", new RegionCompressionCommand("regioncompression"));
 
         server.whitelistMessage = configuration.getString("settings.whitelist-message", server.whitelistMessage);
         server.stopMessage = configuration.getString("settings.stop-message", server.stopMessage);
@@ -57,10 +93,65 @@ public class Spigot {
 
         netty = configuration.getBoolean("settings.use-netty", netty);
         nettyThreads = configuration.getInt("settings.netty-threads", nettyThreads);
+        nettyCoalesceWrites = configuration.getBoolean("settings.netty-coalesce-writes", nettyCoalesceWrites);
+        nettyFlushThreshold = configuration.getInt("settings.netty-flush-threshold", nettyFlushThreshold);
+        chunkLaneBudget = configuration.getInt("settings.chunk-lane-budget", chunkLaneBudget);
+        chunksPerTick = Math.max(1, configuration.getInt("settings.max-chunk-sends-per-tick", chunksPerTick));
+        dynamicViewDistance = configuration.getBoolean("settings.dynamic-view-distance", dynamicViewDistance);
+        minViewDistance = configuration.getInt("settings.dynamic-view-distance-min", minViewDistance);
+        viewDistanceShrinkTime = configuration.getInt("settings.dynamic-view-distance-shrink-ms", viewDistanceShrinkTime);
+        viewDistanceGrowTime = Math.min(viewDistanceShrinkTime, configuration.getInt("settings.dynamic-view-distance-grow-ms", viewDistanceGrowTime));
+        asyncPackets = configuration.getBoolean("settings.async-packets", asyncPackets);
+        asyncPacketThreads = configuration.getInt("settings.async-packet-threads", asyncPacketThreads);
+        asyncPacketQueueSize = configuration.getInt("settings.async-packet-queue-size", asyncPacketQueueSize);
         if (!netty) {
             server.getLogger().severe("[Warning] You have opted not to use Netty, in the future this option may be removed!");
         }
 
+        parallelWorldTicking = configuration.getBoolean("settings.parallel-world-ticking", parallelWorldTicking);
+        worldTickThreads = Math.max(1, configuration.getInt("settings.world-tick-threads", worldTickThreads));
+        if (parallelWorldTicking) {
+            server.getLogger().warning("[Spigot] Parallel world ticking is experimental, plugins which are not thread safe may misbehave!");
+            WorldTicker.doStart(worldTickThreads);
+        } else {
+            WorldTicker.doStop();
+        }
+
+        asyncChunkGeneration = configuration.getBoolean("settings.async-chunk-generation", asyncChunkGeneration);
+
+        blockTickBudget = Math.max(0, Math.min(100, configuration.getInt("settings.block-tick-budget", blockTickBudget)));
+        minBlockTicks = Math.max(0, configuration.getInt("settings.block-tick-minimum", minBlockTicks));
+
+        chunkCompressionCacheSize = configuration.getInt("settings.chunk-compression-cache-size", chunkCompressionCacheSize);
+        chunkCompressionThreads = Math.max(1, configuration.getInt("settings.chunk-compression-threads", chunkCompressionThreads));
+        if (chunkCompressionCacheSize > 0) {
+            ChunkCompressionCache.doStart(chunkCompressionThreads);
+        } else {
+            ChunkCompressionCache.doStop();
+        }
+
+        entityTrackerThreads = configuration.getInt("settings.entity-tracker-threads", entityTrackerThreads);
+        trackerParallelThreshold = configuration.getInt("settings.entity-tracker-parallel-threshold", trackerParallelThreshold);
+        if (entityTrackerThreads > 0) {
+            TrackerPool.doStart(entityTrackerThreads);
+        } else {
+            TrackerPool.doStop();
+        }
+
+        randomTickThreads = configuration.getInt("settings.random-tick-threads", randomTickThreads);
+        if (randomTickThreads > 0) {
+            RandomTickScanner.doStart(randomTickThreads);
+        } else {
+            RandomTickScanner.doStop();
+        }
+
+        regionWriterThreads = Math.max(1, configuration.getInt("settings.region-writer-threads", regionWriterThreads));
+        regionWriterQueueSize = configuration.getInt("settings.region-writer-queue-size", regionWriterQueueSize);
+        RegionWriter.doStart(regionWriterThreads, regionWriterQueueSize);
+
+        incrementalAutosave = configuration.getBoolean("settings.incremental-autosave", incrementalAutosave);
+        autosaveBudget = Math.max(0, configuration.getInt("settings.autosave-budget-ms", autosaveBudget));
+
         if (metrics == null) {
             try {
                 metrics = new Metrics();
@@ -130,6 +221,21 @@ public class Spigot {
         target.f = source.f + z;
     }
 
+    /**
+     * Checks if a bounding box intersects the source box grown by range
+     * horizontally and 256 blocks vertically, without creating a new AABB.
+     *
+     * @param target
+     * @param source
+     * @param range
+     * @return boolean If the boxes intersect.
+     */
+    private static boolean isInRange(AxisAlignedBB target, AxisAlignedBB source, int range) {
+        return target.d > source.a - range && target.a < source.d + range
+                && target.e > source.b - 256 && target.b < source.e + 256
+                && target.f > source.c - range && target.c < source.f + range;
+    }
+
     /**
      * Find what entities are in range of the players in the world and set
      * active if in range.
@@ -145,50 +251,59 @@ public class Spigot {
         world.timings.activationCheck.startTiming();
         int maxRange = Math.max(monsterActivationRange, animalActivationRange);
         maxRange = Math.max(maxRange, miscActivationRange);
+        // The view distance may have been shrunk under load
+        int viewDistance = world instanceof WorldServer ? ((WorldServer) world).getPlayerChunkMap().getViewDistance() : world.getWorld().viewDistance;
         if (miscActivationRange == 0 || animalActivationRange == 0 || monsterActivationRange == 0) {
             // One of them is disabled, set to view-distance
-            maxRange = world.getWorld().viewDistance << 4;
+            maxRange = viewDistance << 4;
         } else {
-            maxRange = Math.min(world.getWorld().viewDistance << 4, maxRange); // Do not tick on edge of unloaded chunks - vanilla behavior.
+            maxRange = Math.min(viewDistance << 4, maxRange); // Do not tick on edge of unloaded chunks - vanilla behavior.
         }
 
-        AxisAlignedBB maxBB = AxisAlignedBB.a(0, 0, 0, 0, 0, 0);
-        AxisAlignedBB miscBB = AxisAlignedBB.a(0, 0, 0, 0, 0, 0);
-        AxisAlignedBB animalBB = AxisAlignedBB.a(0, 0, 0, 0, 0, 0);
-        AxisAlignedBB monsterBB = AxisAlignedBB.a(0, 0, 0, 0, 0, 0);
-
-        for (Entity player : new ArrayList<Entity>(world.players)) {
-            growBB(maxBB, player.boundingBox, maxRange, 256, maxRange);
-            growBB(miscBB, player.boundingBox, miscActivationRange, 256, miscActivationRange);
-            growBB(animalBB, player.boundingBox, animalActivationRange, 256, animalActivationRange);
-            growBB(monsterBB, player.boundingBox, monsterActivationRange, 256, monsterActivationRange);
-
-            final List<Entity> list = world.getEntities(player, maxBB);
-            for (Entity entity : list) {
-                if (!entity.defaultActivationState) {
-                    boolean isInRange = false;
-                    switch (entity.activationType) {
-                        case 1:
-                            if (monsterActivationRange == 0 || monsterBB.a(entity.boundingBox)) {
-                                isInRange = true;
-                            }
-                            break;
-                        case 2:
-                            if (animalActivationRange == 0 || animalBB.a(entity.boundingBox)) {
-                                isInRange = true;
-                            }
-                            break;
-                        case 3:
-                        default:
-                            if (miscActivationRange == 0 || miscBB.a(entity.boundingBox)) {
-                                isInRange = true;
-                            }
-                    }
+        // An entity is checked against the players registered for its chunk, so each entity is visited once per tick
+        final int monsterRange = monsterActivationRange == 0 ? maxRange : Math.min(monsterActivationRange, maxRange);
+        final int animalRange = animalActivationRange == 0 ? maxRange : Math.min(animalActivationRange, maxRange);
+        final int miscRange = miscActivationRange == 0 ? maxRange : Math.min(miscActivationRange, maxRange);
+        final ActivationGrid grid = world.activationGrid;
+        grid.update(world.players, maxRange);
+
+        world.entityIndex.forEach(new EntityIndex.Visitor() {
+            private long lastChunk;
+            private List<Entity> players;
 
-                    entity.isActivated = isInRange;
+            public void visit(Entity entity) {
+                if (entity.defaultActivationState) {
+                    return;
                 }
+
+                int chunkX = MathHelper.floor(entity.locX) >> 4;
+                int chunkZ = MathHelper.floor(entity.locZ) >> 4;
+                long chunk = LongHash.toLong(chunkX, chunkZ);
+                if (this.players == null || chunk != this.lastChunk) {
+                    this.players = grid.getPlayers(chunkX, chunkZ);
+                    this.lastChunk = chunk;
+                }
+
+                int range;
+                switch (entity.activationType) {
+                    case 1:
+                        range = monsterRange;
+                        break;
+                    case 2:
+                        range = animalRange;
+                        break;
+                    case 3:
+                    default:
+                        range = miscRange;
+                }
+
+                boolean isInRange = false;
+                for (int i = 0; i < this.players.size() && !isInRange; ++i) {
+                    isInRange = isInRange(entity.boundingBox, this.players.get(i).boundingBox, range);
+                }
+                entity.isActivated = isInRange;
             }
-        }
+        });
         world.timings.activationCheck.stopTiming();
     }
 
@@ -21,6 +21,12 @@ public class ChunkIOExecutor {
         instance.add(new QueuedChunk(LongHash.toLong(x, z), loader, world, provider), runnable);
     }
 
+    public static void queueChunkGeneration(World world, ChunkProviderServer provider, int x, int z, Runnable runnable) {
+        QueuedChunk queuedChunk = new QueuedChunk(LongHash.toLong(x, z), null, world, provider);
+        queuedChunk.generate = true;
+        instance.add(queuedChunk, runnable);
+    }
+
     public static void adjustPoolSize(int players) {
         int size = Math.max(BASE_THREADS, (int) Math.ceil(players / PLAYERS_PER_THREAD));
         instance.setActiveThreads(size);
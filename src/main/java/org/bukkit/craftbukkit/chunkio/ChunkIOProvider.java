@@ -5,6 +5,7 @@ import net.minecraft.server.ChunkRegionLoader;
 import net.minecraft.server.NBTTagCompound;
 
 import org.bukkit.Server;
+import org.bukkit.craftbukkit.generator.NormalChunkGenerator;
 import org.bukkit.craftbukkit.util.AsynchronousExecutor;
 import org.bukkit.craftbukkit.util.LongHash;
 
@@ -16,12 +17,23 @@ class ChunkIOProvider implements AsynchronousExecutor.CallBackProvider<QueuedChu
     // async stuff
     public Chunk callStage1(QueuedChunk queuedChunk) throws RuntimeException {
         ChunkRegionLoader loader = queuedChunk.loader;
-        Object[] data = loader.loadChunk(queuedChunk.world, LongHash.msw(queuedChunk.coords), LongHash.lsw(queuedChunk.coords));
 
-        if (data != null) {
-            queuedChunk.compound = (NBTTagCompound) data[1];
-            return (Chunk) data[0];
+        if (loader != null) {
+            Object[] data = loader.loadChunk(queuedChunk.world, LongHash.msw(queuedChunk.coords), LongHash.lsw(queuedChunk.coords));
+
+            if (data != null) {
+                queuedChunk.compound = (NBTTagCompound) data[1];
+                return (Chunk) data[0];
+            }
+        }
+
+        // Spigot start - terrain pass only, population needs the neighbouring chunks and is done in stage 2
+        if (queuedChunk.generate) {
+            Chunk chunk = ((NormalChunkGenerator) queuedChunk.provider.chunkProvider).getOrCreateChunkAsync(LongHash.msw(queuedChunk.coords), LongHash.lsw(queuedChunk.coords));
+            queuedChunk.generated = true;
+            return chunk;
         }
+        // Spigot end
 
         return null;
     }
@@ -44,18 +56,23 @@ class ChunkIOProvider implements AsynchronousExecutor.CallBackProvider<QueuedChu
             return;
         }
 
-        queuedChunk.loader.loadEntities(chunk, queuedChunk.compound.getCompound("Level"), queuedChunk.world);
-        chunk.n = queuedChunk.provider.world.getTime();
+        // Spigot start - freshly generated chunks have nothing to restore
+        if (!queuedChunk.generated) {
+            queuedChunk.loader.loadEntities(chunk, queuedChunk.compound.getCompound("Level"), queuedChunk.world);
+            chunk.n = queuedChunk.provider.world.getTime();
+        }
+        // Spigot end
         queuedChunk.provider.chunks.put(queuedChunk.coords, chunk);
         chunk.addEntities();
 
+        // Spigot - also for generated chunks, the main thread's generator has to know their structures to populate them
         if (queuedChunk.provider.chunkProvider != null) {
             queuedChunk.provider.chunkProvider.recreateStructures(x, z);
         }
 
         Server server = queuedChunk.provider.world.getServer();
         if (server != null) {
-            server.getPluginManager().callEvent(new org.bukkit.event.world.ChunkLoadEvent(chunk.bukkitChunk, false));
+            server.getPluginManager().callEvent(new org.bukkit.event.world.ChunkLoadEvent(chunk.bukkitChunk, queuedChunk.generated)); // Spigot
         }
         
         chunk.a(queuedChunk.provider, queuedChunk.provider, x, z);
@@ -11,6 +11,8 @@ class QueuedChunk {
     World world;
     ChunkProviderServer provider;
     NBTTagCompound compound;
+    boolean generate;
+    boolean generated;
 
     public QueuedChunk(long coords, ChunkRegionLoader loader, World world, ChunkProviderServer provider) {
         this.coords = coords;
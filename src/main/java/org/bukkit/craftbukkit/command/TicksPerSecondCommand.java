@@ -1,9 +1,20 @@
 package org.bukkit.craftbukkit.command;
 
+import net.minecraft.server.INetworkManager;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.RegionFileCache;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.craftbukkit.CraftWorld;
+import org.bukkit.craftbukkit.entity.CraftPlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.event.WorldTimingsHandler;
+import org.spigotmc.ChunkCompressionCache;
+import org.spigotmc.RegionWriter;
+import org.spigotmc.netty.NettyNetworkManager;
 
 public class TicksPerSecondCommand extends Command {
 
@@ -30,6 +41,56 @@ public class TicksPerSecondCommand extends Command {
 
         sender.sendMessage(ChatColor.GOLD + "[TPS] " + color + tps);
 
+        int queued = RegionWriter.getQueued();
+        if (queued > 0) {
+            sender.sendMessage(ChatColor.GOLD + "[TPS] " + ChatColor.YELLOW + queued + " chunks waiting to be saved, "
+                    + RegionWriter.getAverageWriteTime() / 100000 / 10.0 + "ms per region write");
+        }
+
+        // Only worth showing once region files are being closed to make room
+        long evictions = RegionFileCache.getEvictions();
+        if (evictions > 0) {
+            long hits = RegionFileCache.getHits();
+            long lookups = hits + RegionFileCache.getMisses();
+            sender.sendMessage(ChatColor.GOLD + "[TPS] " + ChatColor.YELLOW + RegionFileCache.getOpenFiles() + " region files open, "
+                    + (lookups == 0 ? 100 : hits * 1000 / lookups / 10.0) + "% cache hits, " + evictions + " closed to make room, "
+                    + RegionFileCache.getPrefetches() + " opened ahead of players");
+        }
+
+        // How well packets to the players online are batched into each socket write
+        long writes = 0;
+        long flushes = 0;
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            INetworkManager networkManager = ((CraftPlayer) player).getHandle().playerConnection.networkManager;
+            if (networkManager instanceof NettyNetworkManager) {
+                writes += ((NettyNetworkManager) networkManager).getWriteCount();
+                flushes += ((NettyNetworkManager) networkManager).getFlushCount();
+            }
+        }
+        if (flushes > 0) {
+            sender.sendMessage(ChatColor.GOLD + "[TPS] " + ChatColor.YELLOW + writes + " packets sent to online players in " + flushes + " flushes, "
+                    + writes * 10 / flushes / 10.0 + " per flush");
+        }
+
+        for (World world : Bukkit.getWorlds()) {
+            if (ChunkCompressionCache.isEnabled()) {
+                ChunkCompressionCache cache = ((CraftWorld) world).getHandle().compressedChunks;
+                int hits = cache.getHits();
+                int lookups = hits + cache.getMisses();
+                if (lookups > 0) {
+                    sender.sendMessage(ChatColor.GOLD + "[TPS] " + ChatColor.YELLOW + world.getName() + ": " + cache.size() + " compressed chunks cached, "
+                            + hits * 1000L / lookups / 10.0 + "% of chunks sent from the cache");
+                }
+            }
+
+            // Worlds which ran out of time for their scheduled block ticks
+            WorldTimingsHandler timings = ((CraftWorld) world).getHandle().timings;
+            if (timings.blockTicksDeferred > 0) {
+                sender.sendMessage(ChatColor.GOLD + "[TPS] " + ChatColor.YELLOW + world.getName() + ": " + timings.blockTickBacklog + " block ticks scheduled, "
+                        + timings.blockTicksRun + " run and " + timings.blockTicksDeferred + " deferred to a later tick");
+            }
+        }
+
         return true;
     }
 }
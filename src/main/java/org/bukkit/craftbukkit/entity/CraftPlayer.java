@@ -216,11 +216,18 @@ public class CraftPlayer extends CraftHumanEntity implements Player {
         kickPlayer(message, false);
     }
 
-    public void kickPlayer(String message, boolean async){
+    public void kickPlayer(final String message, boolean async){
         if (getHandle().playerConnection == null) return;
-        if (!async && !Bukkit.isPrimaryThread()) throw new IllegalStateException("Cannot kick player from asynchronous thread!"); // Spigot
+        if (!async && !Bukkit.isPrimaryThread() && !org.spigotmc.WorldTicker.isWorldThread()) throw new IllegalStateException("Cannot kick player from asynchronous thread!"); // Spigot
 
-        getHandle().playerConnection.disconnect(message == null ? "" : message);
+        // Disconnecting removes the player from its world, which has to wait for the worlds to finish ticking
+        org.spigotmc.WorldTicker.defer(new Runnable() {
+            public void run() {
+                if (getHandle().playerConnection != null) {
+                    getHandle().playerConnection.disconnect(message == null ? "" : message);
+                }
+            }
+        });
     }
     // Spigot end
 
@@ -16,9 +16,18 @@ import org.bukkit.generator.BlockPopulator;
 
 public class NormalChunkGenerator extends InternalChunkGenerator {
     private final IChunkProvider provider;
+    private final ThreadLocal<IChunkProvider> asyncProviders; // Spigot
 
-    public NormalChunkGenerator(World world, long seed) {
+    public NormalChunkGenerator(final World world, long seed) {
         provider = world.worldProvider.getChunkProvider();
+        // Spigot start - the generators are not thread safe, each thread generating async terrain gets its own
+        asyncProviders = new ThreadLocal<IChunkProvider>() {
+            @Override
+            protected IChunkProvider initialValue() {
+                return world.worldProvider.getChunkProvider();
+            }
+        };
+        // Spigot end
     }
 
     public byte[] generate(org.bukkit.World world, Random random, int x, int z) {
@@ -41,6 +50,18 @@ public class NormalChunkGenerator extends InternalChunkGenerator {
         return provider.getOrCreateChunk(i, i1);
     }
 
+    // Spigot start
+    /**
+     * Runs the terrain pass for a chunk off the main thread. Structures are
+     * planned by a generator of the calling thread, so
+     * {@link #recreateStructures(int, int)} has to be called for the chunk
+     * before it is populated.
+     */
+    public Chunk getOrCreateChunkAsync(int i, int i1) {
+        return asyncProviders.get().getOrCreateChunk(i, i1);
+    }
+    // Spigot end
+
     public Chunk getChunkAt(int i, int i1) {
         return provider.getChunkAt(i, i1);
     }
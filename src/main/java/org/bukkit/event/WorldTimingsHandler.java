@@ -1,6 +1,7 @@
 package org.bukkit.event;
 
 import net.minecraft.server.World;
+import org.spigotmc.PhaseTimingsHandler;
 
 public class WorldTimingsHandler {
     public CustomTimingsHandler mobSpawn;
@@ -9,14 +10,22 @@ public class WorldTimingsHandler {
     public CustomTimingsHandler entityTick;
     public CustomTimingsHandler tileEntityTick;
     public CustomTimingsHandler activationCheck;
+    public CustomTimingsHandler worldTick;
+    public CustomTimingsHandler tickNextTick;
+    // Scheduled block ticks run, cut short by the tick budget and waiting
+    public long blockTicksRun;
+    public long blockTicksDeferred;
+    public int blockTickBacklog;
     public WorldTimingsHandler(World server) {
         String name = server.worldData.getName() +" - ";
 
-        mobSpawn       = new CustomTimingsHandler(name + "mobSpawn");
-        doTickRest     = new CustomTimingsHandler(name + "doTickRest");
-        entityBaseTick = new CustomTimingsHandler(name + "entityBaseTick");
-        entityTick     = new CustomTimingsHandler(name + "entityTick");
-        tileEntityTick = new CustomTimingsHandler(name + "tileEntityTick");
-        activationCheck = new CustomTimingsHandler("** " + name + "activateEntities");
+        mobSpawn       = new PhaseTimingsHandler(name + "mobSpawn");
+        doTickRest     = new PhaseTimingsHandler(name + "doTickRest");
+        entityBaseTick = new PhaseTimingsHandler(name + "entityBaseTick");
+        entityTick     = new PhaseTimingsHandler(name + "entityTick");
+        tileEntityTick = new PhaseTimingsHandler(name + "tileEntityTick");
+        activationCheck = new PhaseTimingsHandler("** " + name + "activateEntities");
+        worldTick      = new PhaseTimingsHandler(name + "worldTick");
+        tickNextTick   = new PhaseTimingsHandler(name + "tickNextTick");
     }
 }
@@ -0,0 +1,124 @@
+package org.spigotmc;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.server.Entity;
+import net.minecraft.server.MathHelper;
+import org.bukkit.craftbukkit.util.LongHash;
+import org.bukkit.craftbukkit.util.LongObjectHashMap;
+
+/**
+ * Maps every chunk to the players close enough to activate something in it.
+ * A player is registered in a square of chunks around the chunk it stands in,
+ * wide enough to cover the activation range from anywhere in that chunk, so
+ * the grid only changes for the chunks around players that crossed a chunk
+ * border, joined or left.
+ */
+public class ActivationGrid {
+
+    private static final List<Entity> NONE = new ArrayList<Entity>(0);
+
+    private final LongObjectHashMap<List<Entity>> chunks = new LongObjectHashMap<List<Entity>>();
+    private final Map<Entity, Registration> registered = new IdentityHashMap<Entity, Registration>();
+    private int radius = -1;
+    private int stamp;
+
+    private static class Registration {
+
+        int chunkX;
+        int chunkZ;
+        int stamp;
+    }
+
+    /**
+     * Brings the grid up to date with the current player positions.
+     *
+     * @param players the players in the world
+     * @param range the largest activation range in blocks
+     */
+    public void update(List<? extends Entity> players, int range) {
+        // Entities are found by position, allow for bounding boxes crossing into the next chunk
+        int r = ((range + 3) >> 4) + 1;
+        if (r != this.radius) {
+            this.chunks.clear();
+            this.registered.clear();
+            this.radius = r;
+        }
+
+        ++this.stamp;
+        for (int i = 0; i < players.size(); ++i) {
+            Entity player = players.get(i);
+            int chunkX = MathHelper.floor(player.locX) >> 4;
+            int chunkZ = MathHelper.floor(player.locZ) >> 4;
+            Registration registration = this.registered.get(player);
+
+            if (registration == null) {
+                registration = new Registration();
+                this.registered.put(player, registration);
+            } else if (registration.chunkX != chunkX || registration.chunkZ != chunkZ) {
+                this.unregister(player, registration);
+            } else {
+                registration.stamp = this.stamp;
+                continue;
+            }
+
+            registration.chunkX = chunkX;
+            registration.chunkZ = chunkZ;
+            registration.stamp = this.stamp;
+            this.register(player, registration);
+        }
+
+        Iterator<Map.Entry<Entity, Registration>> iterator = this.registered.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Entity, Registration> entry = iterator.next();
+            if (entry.getValue().stamp != this.stamp) {
+                this.unregister(entry.getKey(), entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the players which may activate entities in the given chunk.
+     *
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return the nearby players, never null
+     */
+    public List<Entity> getPlayers(int chunkX, int chunkZ) {
+        List<Entity> players = this.chunks.get(LongHash.toLong(chunkX, chunkZ));
+        return players == null ? NONE : players;
+    }
+
+    private void register(Entity player, Registration registration) {
+        for (int x = registration.chunkX - this.radius; x <= registration.chunkX + this.radius; ++x) {
+            for (int z = registration.chunkZ - this.radius; z <= registration.chunkZ + this.radius; ++z) {
+                long key = LongHash.toLong(x, z);
+                List<Entity> players = this.chunks.get(key);
+                if (players == null) {
+                    players = new ArrayList<Entity>(2);
+                    this.chunks.put(key, players);
+                }
+                players.add(player);
+            }
+        }
+    }
+
+    private void unregister(Entity player, Registration registration) {
+        for (int x = registration.chunkX - this.radius; x <= registration.chunkX + this.radius; ++x) {
+            for (int z = registration.chunkZ - this.radius; z <= registration.chunkZ + this.radius; ++z) {
+                long key = LongHash.toLong(x, z);
+                List<Entity> players = this.chunks.get(key);
+                if (players != null) {
+                    players.remove(player);
+                    if (players.isEmpty()) {
+                        this.chunks.remove(key);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.spigotmc;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import net.minecraft.server.Chunk;
+import net.minecraft.server.ChunkProviderServer;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.WorldServer;
+
+/**
+ * The chunks of a world waiting for the incremental autosave. A chunk joins
+ * the queue the first time it is changed, or gains an entity, after its last
+ * save, and is saved once it has waited a full autosave period. Chunks are
+ * queued in order, so only the head of the queue ever needs looking at and a
+ * chunk which keeps changing is still only saved once a period.
+ * <p>
+ * Chunks with entities are queued again after every save, as their entities
+ * keep moving without marking the chunk as changed.
+ */
+public class AutoSaveQueue {
+
+    private final WorldServer world;
+    private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<Chunk>();
+
+    public AutoSaveQueue(WorldServer world) {
+        this.world = world;
+    }
+
+    public int size() {
+        return this.chunks.size();
+    }
+
+    /**
+     * Queues a chunk. May be called from any thread, the chunk must not be
+     * queued already.
+     *
+     * @param chunk the chunk
+     */
+    public void add(Chunk chunk) {
+        chunk.saveQueuedTick = MinecraftServer.currentTick;
+        this.chunks.add(chunk);
+    }
+
+    /**
+     * Saves the chunks which have waited a full period, until the deadline
+     * passes. At least one chunk is saved if any are due, so a world is never
+     * starved by the ones saved before it. Must be called from the main
+     * thread between ticks.
+     *
+     * @param period the autosave period in ticks
+     * @param deadline the {@link System#nanoTime()} to stop at
+     * @return the number of chunks saved
+     */
+    public int save(int period, long deadline) {
+        ChunkProviderServer provider = this.world.chunkProviderServer;
+        int due = MinecraftServer.currentTick - period;
+        int saved = 0;
+        Chunk chunk;
+
+        while ((chunk = this.chunks.peek()) != null && chunk.saveQueuedTick <= due) {
+            if (saved > 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+            this.chunks.poll();
+            chunk.saveQueued = false;
+
+            // Unloading chunks will be saved on the way out
+            if (provider.unloadQueue.contains(chunk.x, chunk.z)) {
+                continue;
+            }
+
+            provider.saveChunkNOP(chunk);
+            if (chunk.a(true)) {
+                provider.saveChunk(chunk);
+                chunk.l = false;
+                ++saved;
+            }
+
+            if (chunk.m) {
+                chunk.queueSave();
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Takes an unloaded chunk out of the queue, so the queue never holds on
+     * to it. Must be called from the main thread.
+     *
+     * @param chunk the chunk
+     */
+    public void remove(Chunk chunk) {
+        if (chunk.saveQueued) {
+            this.chunks.remove(chunk);
+            chunk.saveQueued = false;
+        }
+    }
+
+    /**
+     * Empties the queue, for when chunks are being saved all at once instead.
+     */
+    public void clear() {
+        Chunk chunk;
+        while ((chunk = this.chunks.poll()) != null) {
+            chunk.saveQueued = false;
+        }
+    }
+}
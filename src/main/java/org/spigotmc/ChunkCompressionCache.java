@@ -0,0 +1,189 @@
+package org.spigotmc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import net.minecraft.server.Chunk;
+import net.minecraft.server.ChunkMap;
+import net.minecraft.server.Packet;
+import net.minecraft.server.Packet51MapChunk;
+import net.minecraft.server.Packet56MapChunkBulk;
+import net.minecraft.server.World;
+import org.bukkit.craftbukkit.OrebfuscatorManager;
+import org.bukkit.craftbukkit.util.LongHash;
+
+/**
+ * Per-world cache of compressed full chunk payloads. Entries are keyed by
+ * chunk coordinates and validated against the chunk's modification count, so
+ * every player sent an unchanged chunk shares a single compression of it.
+ * <p>
+ * The chunk is copied on the world thread when first requested, then
+ * obfuscated and deflated on the compression pool. If a connection needs the
+ * data before the pool gets to it, it compresses the entry itself.
+ */
+public class ChunkCompressionCache {
+
+    private static final ThreadLocal<Deflater> localDeflater = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            // Don't use higher compression level, slows things down too much
+            return new Deflater(4);
+        }
+    };
+    private static ExecutorService pool;
+    private final Map<Long, Entry> entries;
+    private int hits;
+    private int misses;
+
+    public ChunkCompressionCache(final int maxSize) {
+        this.entries = new LinkedHashMap<Long, Entry>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static synchronized void doStart(int threads) {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("Chunk Compression Thread - %1$d").setDaemon(true).build());
+        }
+    }
+
+    public static synchronized void doStop() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return pool != null;
+    }
+
+    /**
+     * Creates a full chunk packet for the given chunk, sharing the compressed
+     * payload with every other packet sent for the same version of it. Must be
+     * called from the thread ticking the world.
+     * <p>
+     * A chunk without any sections is sent in a bulk packet of its own
+     * instead, as the client unloads the chunk on a full
+     * {@link Packet51MapChunk} with an empty section mask.
+     *
+     * @param chunk the chunk to send
+     * @return a packet carrying the whole chunk
+     */
+    public Packet getPacket(Chunk chunk) {
+        long key = LongHash.toLong(chunk.x, chunk.z);
+        long modCount = chunk.getModCount();
+        Entry entry = this.entries.get(key);
+
+        if (entry == null || entry.modCount != modCount || entry.chunk.get() != chunk) {
+            ++this.misses;
+            ChunkMap chunkmap = Packet51MapChunk.a(chunk, true, 0xFFFF);
+            if (chunkmap.b == 0) {
+                this.entries.remove(key);
+                return new Packet56MapChunkBulk(Collections.singletonList(chunk));
+            }
+            entry = new Entry(chunk, modCount, chunkmap.a, chunkmap.b, chunkmap.c);
+            this.entries.put(key, entry);
+
+            final Entry submitted = entry;
+            pool.execute(new Runnable() {
+                public void run() {
+                    submitted.compress();
+                }
+            });
+        } else {
+            ++this.hits;
+        }
+
+        return new Packet51MapChunk(entry);
+    }
+
+    public void remove(int x, int z) {
+        this.entries.remove(LongHash.toLong(x, z));
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public int getHits() {
+        return this.hits;
+    }
+
+    public int getMisses() {
+        return this.misses;
+    }
+
+    public static class Entry {
+
+        public final int x;
+        public final int z;
+        public final int primaryMask;
+        public final int addMask;
+        final WeakReference<Chunk> chunk;
+        final long modCount;
+        private final World world;
+        private byte[] inflated;
+        private byte[] buffer;
+        private int size;
+
+        Entry(Chunk chunk, long modCount, byte[] inflated, int primaryMask, int addMask) {
+            this.x = chunk.x;
+            this.z = chunk.z;
+            this.world = chunk.world;
+            this.chunk = new WeakReference<Chunk>(chunk);
+            this.modCount = modCount;
+            this.inflated = inflated;
+            this.primaryMask = primaryMask;
+            this.addMask = addMask;
+        }
+
+        /**
+         * Obfuscates and deflates the chunk, unless another thread already has.
+         */
+        public synchronized void compress() {
+            if (this.buffer != null) {
+                return;
+            }
+
+            Chunk chunk = this.chunk.get();
+            if (chunk != null) {
+                OrebfuscatorManager.obfuscate(chunk, this.modCount, this.primaryMask, this.inflated);
+            } else {
+                OrebfuscatorManager.obfuscate(this.x, this.z, this.primaryMask, this.inflated, this.world);
+            }
+            Deflater deflater = localDeflater.get();
+            deflater.reset();
+            deflater.setInput(this.inflated, 0, this.inflated.length);
+            deflater.finish();
+            byte[] abyte = new byte[this.inflated.length + 100];
+            this.size = deflater.deflate(abyte);
+            this.buffer = abyte;
+            this.inflated = null;
+        }
+
+        /**
+         * Gets the compressed data, compressing it now if required. The
+         * returned array is shared and must not be modified.
+         *
+         * @return the compressed payload
+         */
+        public synchronized byte[] getBuffer() {
+            this.compress();
+            return this.buffer;
+        }
+
+        public synchronized int getSize() {
+            this.compress();
+            return this.size;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.spigotmc;
+
+import java.util.Iterator;
+import java.util.List;
+import net.minecraft.server.Chunk;
+import net.minecraft.server.ChunkSection;
+import net.minecraft.server.Entity;
+import net.minecraft.server.NBTTagCompound;
+import net.minecraft.server.NBTTagList;
+import net.minecraft.server.NextTickListEntry;
+import net.minecraft.server.NibbleArray;
+import net.minecraft.server.TileEntity;
+import net.minecraft.server.World;
+
+/**
+ * The state of a chunk at the time it was saved. Block data is copied rather
+ * than serialized, which is all the main thread has to do, and the chunk's NBT
+ * is put together later by whichever thread writes it. Entities, tile entities
+ * and scheduled ticks can only be read on the main thread and are stored as
+ * NBT straight away.
+ * <p>
+ * A snapshot never changes once taken, so it can be turned into NBT any number
+ * of times from any thread.
+ */
+public class ChunkSaveSnapshot {
+
+    public final int x;
+    public final int z;
+    private final long lastUpdate;
+    private final int[] heightMap;
+    private final boolean populated;
+    private final byte[] sectionY;
+    private final byte[][] blocks;
+    private final byte[][] add;
+    private final byte[][] data;
+    private final byte[][] blockLight;
+    private final byte[][] skyLight;
+    private final byte[] biomes;
+    private final NBTTagList entities;
+    private final NBTTagList tileEntities;
+    private final NBTTagList tileTicks;
+    private final NBTTagCompound tag;
+
+    /**
+     * Captures a chunk. Must be called from the thread owning its world.
+     *
+     * @param world the world the chunk is in
+     * @param chunk the chunk to save
+     */
+    public ChunkSaveSnapshot(World world, Chunk chunk) {
+        this.x = chunk.x;
+        this.z = chunk.z;
+        this.lastUpdate = world.getTime();
+        this.heightMap = chunk.heightMap.clone();
+        this.populated = chunk.done;
+
+        ChunkSection[] achunksection = chunk.i();
+        int count = 0;
+        for (ChunkSection chunksection : achunksection) {
+            if (chunksection != null) {
+                ++count;
+            }
+        }
+
+        boolean sky = !world.worldProvider.f;
+        this.sectionY = new byte[count];
+        this.blocks = new byte[count][];
+        this.add = new byte[count][];
+        this.data = new byte[count][];
+        this.blockLight = new byte[count][];
+        this.skyLight = new byte[count][];
+        int i = 0;
+        for (ChunkSection chunksection : achunksection) {
+            if (chunksection != null) {
+                this.sectionY[i] = (byte) (chunksection.d() >> 4 & 255);
+                this.blocks[i] = chunksection.g().clone();
+                this.add[i] = chunksection.i() == null ? null : copy(chunksection.i());
+                this.data[i] = copy(chunksection.j());
+                this.blockLight[i] = copy(chunksection.k());
+                this.skyLight[i] = sky ? copy(chunksection.l()) : null;
+                ++i;
+            }
+        }
+        this.biomes = chunk.m().clone();
+
+        chunk.m = false;
+        this.entities = new NBTTagList();
+        for (i = 0; i < chunk.entitySlices.length; ++i) {
+            Iterator iterator = chunk.entitySlices[i].iterator();
+
+            while (iterator.hasNext()) {
+                Entity entity = (Entity) iterator.next();
+
+                chunk.m = true;
+                NBTTagCompound nbttagcompound = new NBTTagCompound();
+                if (entity.c(nbttagcompound)) {
+                    this.entities.add(nbttagcompound);
+                }
+            }
+        }
+
+        this.tileEntities = new NBTTagList();
+        Iterator iterator = chunk.tileEntities.values().iterator();
+
+        while (iterator.hasNext()) {
+            TileEntity tileentity = (TileEntity) iterator.next();
+            NBTTagCompound nbttagcompound = new NBTTagCompound();
+
+            tileentity.b(nbttagcompound);
+            this.tileEntities.add(nbttagcompound);
+        }
+
+        List list = world.a(chunk, false);
+        if (list != null) {
+            long time = world.getTime();
+            this.tileTicks = new NBTTagList();
+            iterator = list.iterator();
+
+            while (iterator.hasNext()) {
+                NextTickListEntry nextticklistentry = (NextTickListEntry) iterator.next();
+                NBTTagCompound nbttagcompound = new NBTTagCompound();
+
+                nbttagcompound.setInt("i", nextticklistentry.d);
+                nbttagcompound.setInt("x", nextticklistentry.a);
+                nbttagcompound.setInt("y", nextticklistentry.b);
+                nbttagcompound.setInt("z", nextticklistentry.c);
+                nbttagcompound.setInt("t", (int) (nextticklistentry.e - time));
+                this.tileTicks.add(nbttagcompound);
+            }
+        } else {
+            this.tileTicks = null;
+        }
+        this.tag = null;
+    }
+
+    /**
+     * Wraps chunk NBT which was already put together.
+     *
+     * @param x the chunk x coordinate
+     * @param z the chunk z coordinate
+     * @param nbttagcompound the chunk's root tag
+     */
+    public ChunkSaveSnapshot(int x, int z, NBTTagCompound nbttagcompound) {
+        this.x = x;
+        this.z = z;
+        this.lastUpdate = 0L;
+        this.heightMap = null;
+        this.populated = false;
+        this.sectionY = null;
+        this.blocks = null;
+        this.add = null;
+        this.data = null;
+        this.blockLight = null;
+        this.skyLight = null;
+        this.biomes = null;
+        this.entities = null;
+        this.tileEntities = null;
+        this.tileTicks = null;
+        this.tag = nbttagcompound;
+    }
+
+    /**
+     * Puts together the chunk's NBT, in the layout the chunk loader reads.
+     * Entity, tile entity and tick tags are shared between calls.
+     *
+     * @return the root tag, holding the chunk in "Level"
+     */
+    public NBTTagCompound toNBT() {
+        if (this.tag != null) {
+            return this.tag;
+        }
+
+        NBTTagCompound nbttagcompound = new NBTTagCompound();
+        NBTTagCompound level = new NBTTagCompound();
+        nbttagcompound.set("Level", level);
+
+        level.setInt("xPos", this.x);
+        level.setInt("zPos", this.z);
+        level.setLong("LastUpdate", this.lastUpdate);
+        level.setIntArray("HeightMap", this.heightMap);
+        level.setBoolean("TerrainPopulated", this.populated);
+
+        NBTTagList sections = new NBTTagList("Sections");
+        for (int i = 0; i < this.sectionY.length; ++i) {
+            NBTTagCompound section = new NBTTagCompound();
+            section.setByte("Y", this.sectionY[i]);
+            section.setByteArray("Blocks", this.blocks[i]);
+            if (this.add[i] != null) {
+                section.setByteArray("Add", this.add[i]);
+            }
+
+            section.setByteArray("Data", this.data[i]);
+            section.setByteArray("BlockLight", this.blockLight[i]);
+            section.setByteArray("SkyLight", this.skyLight[i] != null ? this.skyLight[i] : new byte[this.blockLight[i].length]);
+            sections.add(section);
+        }
+
+        level.set("Sections", sections);
+        level.setByteArray("Biomes", this.biomes);
+        level.set("Entities", this.entities);
+        level.set("TileEntities", this.tileEntities);
+        if (this.tileTicks != null) {
+            level.set("TileTicks", this.tileTicks);
+        }
+        return nbttagcompound;
+    }
+
+    // Trivial arrays are shared and never written to
+    private static byte[] copy(NibbleArray nibblearray) {
+        byte[] array = nibblearray.getValueArray();
+        return nibblearray.isTrivialArray() ? array : array.clone();
+    }
+}
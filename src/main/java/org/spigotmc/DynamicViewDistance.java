@@ -0,0 +1,58 @@
+package org.spigotmc;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.PlayerChunkMap;
+import net.minecraft.server.WorldServer;
+import org.bukkit.craftbukkit.Spigot;
+
+/**
+ * Shrinks the view distance of every world by a chunk when the server tick
+ * runs over budget, and grows it back towards the configured view distance
+ * once there is headroom again. Ticks are averaged over a second so a single
+ * slow tick, such as an autosave, doesn't change anything, and the gap between
+ * the two thresholds stops the distance flapping back and forth.
+ * <p>
+ * Entity tracking and activation follow the distance sent to each player, so
+ * they shrink along with it.
+ */
+public class DynamicViewDistance {
+
+    private static final int INTERVAL = 20;
+    private static long tickTotal;
+    private static int ticks;
+
+    /**
+     * Records how long the last tick took, and adjusts the view distance of
+     * each world once every second. Must be called from the main thread
+     * between ticks.
+     *
+     * @param server the server
+     * @param tickTime the duration of the last tick in nanoseconds
+     */
+    public static void tick(MinecraftServer server, long tickTime) {
+        tickTotal += tickTime;
+        if (++ticks < INTERVAL) {
+            return;
+        }
+        long average = tickTotal / ticks;
+        tickTotal = 0;
+        ticks = 0;
+
+        int step;
+        if (!Spigot.dynamicViewDistance || average < Spigot.viewDistanceGrowTime * 1000000L) {
+            step = 1;
+        } else if (average > Spigot.viewDistanceShrinkTime * 1000000L) {
+            step = -1;
+        } else {
+            step = 0;
+        }
+
+        for (WorldServer world : server.worlds) {
+            PlayerChunkMap manager = world.getPlayerChunkMap();
+            int max = world.getWorld().viewDistance;
+            int distance = Math.min(manager.getViewDistance() + step, max);
+            // Players still catching up are grown even when the world's distance stays put
+            manager.setViewDistance(Math.max(distance, Math.min(Spigot.minViewDistance, max)));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.spigotmc;
+
+import net.minecraft.server.AxisAlignedBB;
+import net.minecraft.server.Entity;
+import net.minecraft.server.MathHelper;
+import org.bukkit.craftbukkit.util.LongHash;
+import org.bukkit.craftbukkit.util.LongObjectHashMap;
+
+/**
+ * A per-world spatial hash of every entity stored in a chunk's entity slices.
+ * Entities are bucketed into full height columns of {@link #CELL_SIZE} blocks,
+ * keyed by their packed column coordinates, so a range query only has to look
+ * at the columns it overlaps rather than every slice of every chunk.
+ * <p>
+ * Membership mirrors the chunk slices: entities are added and removed when a
+ * chunk adds or removes them, and their column is updated whenever they move.
+ * The index must only be accessed by the thread ticking its world.
+ */
+public class EntityIndex {
+
+    /**
+     * Width of a column in blocks.
+     */
+    public static final int CELL_SIZE = 8;
+    private static final int CELL_SHIFT = 3;
+    /**
+     * Entities are indexed by position, so like the chunk slice scan this
+     * margin is added to every query to catch bounding boxes which poke out of
+     * their column.
+     */
+    private static final double MARGIN = 2.0D;
+    private static final int MAX_POOLED = 256;
+
+    private final LongObjectHashMap<Cell> cells = new LongObjectHashMap<Cell>();
+    private final Cell[] pool = new Cell[MAX_POOLED];
+    private int pooled;
+    private int size;
+
+    /**
+     * Called for every entity matched by a query. Implementations may be
+     * reused between queries but must not add, remove or move entities while
+     * being visited.
+     */
+    public interface Visitor {
+
+        void visit(Entity entity);
+    }
+
+    public static final class Cell {
+
+        final EntityIndex index;
+        long key;
+        Entity[] entities = new Entity[4];
+        int size;
+
+        Cell(EntityIndex index, long key) {
+            this.index = index;
+            this.key = key;
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int cellCount() {
+        return this.cells.size();
+    }
+
+    public void add(Entity entity) {
+        Cell cell = entity.indexCell;
+        if (cell != null) {
+            if (cell.index == this) {
+                this.update(entity);
+                return;
+            }
+            cell.index.delete(entity);
+        }
+
+        this.insert(entity, key(entity));
+    }
+
+    public static void remove(Entity entity) {
+        Cell cell = entity.indexCell;
+        if (cell != null) {
+            cell.index.delete(entity);
+        }
+    }
+
+    /**
+     * Moves an entity into the column matching its current position, if it is
+     * indexed and has changed column.
+     *
+     * @param entity the entity which moved
+     */
+    public static void move(Entity entity) {
+        Cell cell = entity.indexCell;
+        if (cell != null) {
+            cell.index.update(entity);
+        }
+    }
+
+    /**
+     * Visits every indexed entity whose bounding box intersects the given box.
+     *
+     * @param axisalignedbb the area to search
+     * @param visitor the callback for each match
+     */
+    public void query(AxisAlignedBB axisalignedbb, Visitor visitor) {
+        int minX = MathHelper.floor(axisalignedbb.a - MARGIN) >> CELL_SHIFT;
+        int maxX = MathHelper.floor(axisalignedbb.d + MARGIN) >> CELL_SHIFT;
+        int minZ = MathHelper.floor(axisalignedbb.c - MARGIN) >> CELL_SHIFT;
+        int maxZ = MathHelper.floor(axisalignedbb.f + MARGIN) >> CELL_SHIFT;
+
+        for (int x = minX; x <= maxX; ++x) {
+            for (int z = minZ; z <= maxZ; ++z) {
+                Cell cell = this.cells.get(LongHash.toLong(x, z));
+                if (cell == null) {
+                    continue;
+                }
+
+                Entity[] entities = cell.entities;
+                for (int i = 0; i < cell.size; ++i) {
+                    Entity entity = entities[i];
+                    if (entity.boundingBox.a(axisalignedbb)) {
+                        visitor.visit(entity);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits every indexed entity, column by column.
+     *
+     * @param visitor the callback for each entity
+     */
+    public void forEach(Visitor visitor) {
+        for (Cell cell : this.cells.values()) {
+            Entity[] entities = cell.entities;
+            for (int i = 0; i < cell.size; ++i) {
+                visitor.visit(entities[i]);
+            }
+        }
+    }
+
+    private static long key(Entity entity) {
+        return LongHash.toLong(MathHelper.floor(entity.locX) >> CELL_SHIFT, MathHelper.floor(entity.locZ) >> CELL_SHIFT);
+    }
+
+    private void update(Entity entity) {
+        long key = key(entity);
+        if (entity.indexCell.key != key) {
+            this.delete(entity);
+            this.insert(entity, key);
+        }
+    }
+
+    private void insert(Entity entity, long key) {
+        Cell cell = this.cells.get(key);
+        if (cell == null) {
+            if (this.pooled > 0) {
+                cell = this.pool[--this.pooled];
+                this.pool[this.pooled] = null;
+                cell.key = key;
+            } else {
+                cell = new Cell(this, key);
+            }
+            this.cells.put(key, cell);
+        }
+
+        if (cell.size == cell.entities.length) {
+            Entity[] entities = new Entity[cell.size << 1];
+            System.arraycopy(cell.entities, 0, entities, 0, cell.size);
+            cell.entities = entities;
+        }
+
+        entity.indexCell = cell;
+        entity.indexSlot = cell.size;
+        cell.entities[cell.size++] = entity;
+        ++this.size;
+    }
+
+    private void delete(Entity entity) {
+        Cell cell = entity.indexCell;
+        int slot = entity.indexSlot;
+
+        // Swap the last entity into the hole so removal stays O(1)
+        Entity last = cell.entities[--cell.size];
+        cell.entities[slot] = last;
+        last.indexSlot = slot;
+        cell.entities[cell.size] = null;
+
+        entity.indexCell = null;
+        entity.indexSlot = -1;
+        --this.size;
+
+        if (cell.size == 0) {
+            this.cells.remove(cell.key);
+            if (this.pooled < MAX_POOLED) {
+                this.pool[this.pooled++] = cell;
+            }
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package org.spigotmc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.minecraft.server.NextTickListEntry;
+import org.bukkit.craftbukkit.util.LongHash;
+
+/**
+ * Holds the scheduled block ticks of a world in a timing wheel. Ticks due
+ * within the next {@link #WHEEL_SIZE} world ticks are appended to the slot for
+ * their time, later ones wait in a heap until the wheel reaches them, so
+ * scheduling and running a tick doesn't cost a tree insert and removal.
+ * <p>
+ * Entries are kept in parallel primitive arrays, with their block position
+ * packed into a long, and are indexed both by position, so an equal tick is
+ * only scheduled once, and by chunk, so a chunk's ticks can be taken out when
+ * it is saved or unloaded. Ticks run in the same order as the sorted set this
+ * replaces: by time, then priority, then the order they were scheduled in.
+ * <p>
+ * The wheel must only be accessed by the thread ticking its world.
+ */
+public class NextTickWheel {
+
+    public static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int NONE = -1;
+
+    // Entry storage, free entries are chained through next
+    private long[] positions = new long[256];
+    private int[] types = new int[256];
+    private long[] times = new long[256];
+    private int[] priorities = new int[256];
+    private long[] orders = new long[256];
+    private boolean[] live = new boolean[256];
+    private int[] next = new int[256];
+    private int[] positionNext = new int[256];
+    private int[] chunkPrev = new int[256];
+    private int[] chunkNext = new int[256];
+    private int capacity;
+    private int free = NONE;
+    private long order;
+    private int size;
+
+    private final int[] slotHead = new int[WHEEL_SIZE];
+    private final int[] slotTail = new int[WHEEL_SIZE];
+    private int wheelCount;
+    private long cursor;
+    private int[] heap = new int[64];
+    private int heapSize;
+    // Due ticks in order, ticks scheduled for a time the wheel has passed are inserted here directly
+    private int[] ready = new int[64];
+    private int[] sortBuffer = new int[64];
+    private int readyIndex;
+    private int readyCount;
+
+    private final LongIntMap byPosition = new LongIntMap();
+    private final LongIntMap byChunk = new LongIntMap();
+
+    /**
+     * The block position and type of the last tick returned by
+     * {@link #poll(long, boolean)}.
+     */
+    public int x, y, z, type;
+
+    public NextTickWheel() {
+        Arrays.fill(this.slotHead, NONE);
+        Arrays.fill(this.slotTail, NONE);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Schedules a block tick unless an equal one, at the same position for the
+     * same block type, is already scheduled.
+     *
+     * @return false if the tick was already scheduled
+     */
+    public boolean add(int x, int y, int z, int type, long time, int priority) {
+        long position = pack(x, y, z);
+        if (this.find(position, type) != NONE) {
+            return false;
+        }
+
+        int entry = this.allocate();
+        this.positions[entry] = position;
+        this.types[entry] = type;
+        this.times[entry] = time;
+        this.priorities[entry] = priority;
+        this.orders[entry] = this.order++;
+        this.live[entry] = true;
+
+        this.positionNext[entry] = this.byPosition.get(position);
+        this.byPosition.put(position, entry);
+
+        long chunk = LongHash.toLong(x >> 4, z >> 4);
+        int head = this.byChunk.get(chunk);
+        this.chunkPrev[entry] = NONE;
+        this.chunkNext[entry] = head;
+        if (head != NONE) {
+            this.chunkPrev[head] = entry;
+        }
+        this.byChunk.put(chunk, entry);
+
+        this.schedule(entry);
+        ++this.size;
+        return true;
+    }
+
+    /**
+     * Cancels a scheduled block tick.
+     *
+     * @return false if the tick wasn't scheduled
+     */
+    public boolean remove(int x, int y, int z, int type) {
+        int entry = this.find(pack(x, y, z), type);
+        if (entry == NONE) {
+            return false;
+        }
+        this.unlink(entry);
+        return true;
+    }
+
+    /**
+     * Takes the next tick due at or before the given time, in order, and
+     * stores its position and type in {@link #x}, {@link #y}, {@link #z} and
+     * {@link #type}. Ticks which are due but not taken stay ahead of anything
+     * scheduled later.
+     *
+     * @param time the current world time
+     * @param all whether ticks due after the given time may be taken too
+     * @return false if no tick is due
+     */
+    public boolean poll(long time, boolean all) {
+        long limit = all ? Long.MAX_VALUE : time;
+        while (true) {
+            while (this.readyIndex < this.readyCount) {
+                int entry = this.ready[this.readyIndex];
+                if (!this.live[entry]) {
+                    ++this.readyIndex;
+                    this.release(entry);
+                    continue;
+                }
+                if (this.times[entry] > limit) {
+                    return false;
+                }
+
+                ++this.readyIndex;
+                long position = this.positions[entry];
+                this.x = unpackX(position);
+                this.y = unpackY(position);
+                this.z = unpackZ(position);
+                this.type = this.types[entry];
+                this.unlink(entry);
+                this.release(entry);
+                return true;
+            }
+            this.readyIndex = 0;
+            this.readyCount = 0;
+
+            if (this.wheelCount == 0) {
+                if (this.heapSize == 0) {
+                    return false;
+                }
+                // Skip the empty part of the wheel, never past the current time
+                long first = this.times[this.heap[0]];
+                if (first > this.cursor) {
+                    this.cursor = Math.min(first, limit == Long.MAX_VALUE ? first : limit + 1);
+                    this.migrate();
+                }
+            }
+            if (this.cursor > limit) {
+                return false;
+            }
+            this.drain((int) (this.cursor & WHEEL_MASK));
+            ++this.cursor;
+            this.migrate();
+        }
+    }
+
+    /**
+     * Counts the ticks due at or before the given time which have not been
+     * taken yet.
+     *
+     * @param time the current world time
+     * @return the number of due ticks
+     */
+    public int countDue(long time) {
+        int count = 0;
+        for (int i = this.readyIndex; i < this.readyCount; ++i) {
+            int entry = this.ready[i];
+            if (this.live[entry] && this.times[entry] <= time) {
+                ++count;
+            }
+        }
+        for (long slotTime = this.cursor; slotTime <= time && slotTime - this.cursor < WHEEL_SIZE && this.wheelCount > 0; ++slotTime) {
+            for (int entry = this.slotHead[(int) (slotTime & WHEEL_MASK)]; entry != NONE; entry = this.next[entry]) {
+                if (this.live[entry]) {
+                    ++count;
+                }
+            }
+        }
+        // The wheel may lag behind the world time, when it has just been created or fallen behind
+        for (int i = 0; i < this.heapSize; ++i) {
+            int entry = this.heap[i];
+            if (this.live[entry] && this.times[entry] <= time) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the ticks scheduled within a chunk, as new entries.
+     *
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @param remove whether to cancel the ticks
+     * @return the ticks, or null if the chunk has none
+     */
+    public List<NextTickListEntry> getEntries(int chunkX, int chunkZ, boolean remove) {
+        int entry = this.byChunk.get(LongHash.toLong(chunkX, chunkZ));
+        if (entry == NONE) {
+            return null;
+        }
+
+        List<NextTickListEntry> list = new ArrayList<NextTickListEntry>();
+        while (entry != NONE) {
+            int following = this.chunkNext[entry];
+            long position = this.positions[entry];
+            NextTickListEntry nextticklistentry = new NextTickListEntry(unpackX(position), unpackY(position), unpackZ(position), this.types[entry]);
+            nextticklistentry.a(this.times[entry]);
+            nextticklistentry.a(this.priorities[entry]);
+            list.add(nextticklistentry);
+            if (remove) {
+                this.unlink(entry);
+            }
+            entry = following;
+        }
+        return list;
+    }
+
+    private void schedule(int entry) {
+        long time = this.times[entry];
+        if (time < this.cursor) {
+            this.insertReady(entry);
+            return;
+        }
+        if (time - this.cursor >= WHEEL_SIZE) {
+            this.heapPush(entry);
+            return;
+        }
+
+        // A slot only ever holds ticks for one time
+        int slot = (int) (time & WHEEL_MASK);
+        this.next[entry] = NONE;
+        if (this.slotTail[slot] == NONE) {
+            this.slotHead[slot] = entry;
+        } else {
+            this.next[this.slotTail[slot]] = entry;
+        }
+        this.slotTail[slot] = entry;
+        ++this.wheelCount;
+    }
+
+    private void migrate() {
+        while (this.heapSize > 0 && this.times[this.heap[0]] - this.cursor < WHEEL_SIZE) {
+            int entry = this.heapPop();
+            if (this.live[entry]) {
+                this.schedule(entry);
+            } else {
+                this.release(entry);
+            }
+        }
+    }
+
+    private void drain(int slot) {
+        boolean sorted = true;
+        int previous = NONE;
+        for (int entry = this.slotHead[slot]; entry != NONE; ) {
+            int following = this.next[entry];
+            --this.wheelCount;
+            if (!this.live[entry]) {
+                this.release(entry);
+            } else {
+                if (this.readyCount == this.ready.length) {
+                    this.ready = Arrays.copyOf(this.ready, this.readyCount << 1);
+                }
+                this.ready[this.readyCount++] = entry;
+                if (previous != NONE && this.compare(previous, entry) > 0) {
+                    sorted = false;
+                }
+                previous = entry;
+            }
+            entry = following;
+        }
+        this.slotHead[slot] = NONE;
+        this.slotTail[slot] = NONE;
+
+        // Ticks with a different priority may be out of order
+        if (!sorted) {
+            if (this.sortBuffer.length < this.readyCount) {
+                this.sortBuffer = new int[this.ready.length];
+            }
+            this.sort(0, this.readyCount);
+        }
+    }
+
+    private void insertReady(int entry) {
+        if (this.readyCount == this.ready.length) {
+            this.ready = Arrays.copyOf(this.ready, this.readyCount << 1);
+        }
+        int low = this.readyIndex;
+        int high = this.readyCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.compare(this.ready[middle], entry) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        System.arraycopy(this.ready, low, this.ready, low + 1, this.readyCount - low);
+        this.ready[low] = entry;
+        ++this.readyCount;
+    }
+
+    // Merge sort of part of the ready list, the entries are nearly sorted already
+    private void sort(int from, int to) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; ++i) {
+                int entry = this.ready[i];
+                int j = i;
+                while (j > from && this.compare(this.ready[j - 1], entry) > 0) {
+                    this.ready[j] = this.ready[j - 1];
+                    --j;
+                }
+                this.ready[j] = entry;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        this.sort(from, middle);
+        this.sort(middle, to);
+        if (this.compare(this.ready[middle - 1], this.ready[middle]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(this.ready, from, this.sortBuffer, from, middle - from);
+        int i = from;
+        int j = middle;
+        int k = from;
+        while (i < middle && j < to) {
+            this.ready[k++] = this.compare(this.sortBuffer[i], this.ready[j]) <= 0 ? this.sortBuffer[i++] : this.ready[j++];
+        }
+        while (i < middle) {
+            this.ready[k++] = this.sortBuffer[i++];
+        }
+    }
+
+    private int compare(int a, int b) {
+        if (this.times[a] != this.times[b]) {
+            return this.times[a] < this.times[b] ? -1 : 1;
+        }
+        if (this.priorities[a] != this.priorities[b]) {
+            return this.priorities[a] < this.priorities[b] ? -1 : 1;
+        }
+        return this.orders[a] < this.orders[b] ? -1 : this.orders[a] > this.orders[b] ? 1 : 0;
+    }
+
+    private int find(long position, int type) {
+        for (int entry = this.byPosition.get(position); entry != NONE; entry = this.positionNext[entry]) {
+            if (this.types[entry] == type) {
+                return entry;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Removes a live entry from the indexes. Its storage is released once it
+     * leaves the wheel, heap or ready list holding it.
+     */
+    private void unlink(int entry) {
+        long position = this.positions[entry];
+        int head = this.byPosition.get(position);
+        if (head == entry) {
+            if (this.positionNext[entry] == NONE) {
+                this.byPosition.remove(position);
+            } else {
+                this.byPosition.put(position, this.positionNext[entry]);
+            }
+        } else {
+            int previous = head;
+            while (this.positionNext[previous] != entry) {
+                previous = this.positionNext[previous];
+            }
+            this.positionNext[previous] = this.positionNext[entry];
+        }
+
+        int prev = this.chunkPrev[entry];
+        int following = this.chunkNext[entry];
+        if (following != NONE) {
+            this.chunkPrev[following] = prev;
+        }
+        if (prev != NONE) {
+            this.chunkNext[prev] = following;
+        } else {
+            long chunk = LongHash.toLong(unpackX(position) >> 4, unpackZ(position) >> 4);
+            if (following == NONE) {
+                this.byChunk.remove(chunk);
+            } else {
+                this.byChunk.put(chunk, following);
+            }
+        }
+
+        this.live[entry] = false;
+        --this.size;
+    }
+
+    private int allocate() {
+        if (this.free == NONE) {
+            if (this.capacity == this.positions.length) {
+                int length = this.capacity << 1;
+                this.positions = Arrays.copyOf(this.positions, length);
+                this.types = Arrays.copyOf(this.types, length);
+                this.times = Arrays.copyOf(this.times, length);
+                this.priorities = Arrays.copyOf(this.priorities, length);
+                this.orders = Arrays.copyOf(this.orders, length);
+                this.live = Arrays.copyOf(this.live, length);
+                this.next = Arrays.copyOf(this.next, length);
+                this.positionNext = Arrays.copyOf(this.positionNext, length);
+                this.chunkPrev = Arrays.copyOf(this.chunkPrev, length);
+                this.chunkNext = Arrays.copyOf(this.chunkNext, length);
+            }
+            return this.capacity++;
+        }
+        int entry = this.free;
+        this.free = this.next[entry];
+        return entry;
+    }
+
+    private void release(int entry) {
+        this.next[entry] = this.free;
+        this.free = entry;
+    }
+
+    private void heapPush(int entry) {
+        if (this.heapSize == this.heap.length) {
+            this.heap = Arrays.copyOf(this.heap, this.heapSize << 1);
+        }
+        int i = this.heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (this.compare(this.heap[parent], entry) <= 0) {
+                break;
+            }
+            this.heap[i] = this.heap[parent];
+            i = parent;
+        }
+        this.heap[i] = entry;
+    }
+
+    private int heapPop() {
+        int top = this.heap[0];
+        int entry = this.heap[--this.heapSize];
+        int i = 0;
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= this.heapSize) {
+                break;
+            }
+            if (child + 1 < this.heapSize && this.compare(this.heap[child + 1], this.heap[child]) < 0) {
+                ++child;
+            }
+            if (this.compare(entry, this.heap[child]) <= 0) {
+                break;
+            }
+            this.heap[i] = this.heap[child];
+            i = child;
+        }
+        this.heap[i] = entry;
+        return top;
+    }
+
+    // x and z take 26 bits each and y the low 12
+    private static long pack(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) z & 0x3FFFFFFL) << 12 | (long) (y & 0xFFF);
+    }
+
+    private static int unpackX(long position) {
+        return (int) (position >> 38);
+    }
+
+    private static int unpackY(long position) {
+        return (int) (position & 0xFFF);
+    }
+
+    private static int unpackZ(long position) {
+        return (int) (position << 26 >> 38);
+    }
+
+    /**
+     * Open addressing map from long keys to entry indexes.
+     */
+    private static final class LongIntMap {
+
+        private long[] keys = new long[64];
+        private int[] values = new int[64];
+        private boolean[] used = new boolean[64];
+        private int size;
+
+        int get(long key) {
+            int mask = this.keys.length - 1;
+            for (int i = hash(key) & mask; this.used[i]; i = (i + 1) & mask) {
+                if (this.keys[i] == key) {
+                    return this.values[i];
+                }
+            }
+            return NONE;
+        }
+
+        void put(long key, int value) {
+            int mask = this.keys.length - 1;
+            int i = hash(key) & mask;
+            for (; this.used[i]; i = (i + 1) & mask) {
+                if (this.keys[i] == key) {
+                    this.values[i] = value;
+                    return;
+                }
+            }
+            this.keys[i] = key;
+            this.values[i] = value;
+            this.used[i] = true;
+            if (++this.size > this.keys.length >> 1) {
+                this.resize();
+            }
+        }
+
+        void remove(long key) {
+            int mask = this.keys.length - 1;
+            int i = hash(key) & mask;
+            while (this.used[i] && this.keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (!this.used[i]) {
+                return;
+            }
+
+            // Shift later entries of the run back so lookups don't stop early
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (!this.used[j]) {
+                    break;
+                }
+                int home = hash(this.keys[j]) & mask;
+                if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                    this.keys[i] = this.keys[j];
+                    this.values[i] = this.values[j];
+                    i = j;
+                }
+            }
+            this.used[i] = false;
+            --this.size;
+        }
+
+        private void resize() {
+            long[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            boolean[] oldUsed = this.used;
+            this.keys = new long[oldKeys.length << 1];
+            this.values = new int[oldKeys.length << 1];
+            this.used = new boolean[oldKeys.length << 1];
+            this.size = 0;
+            for (int i = 0; i < oldKeys.length; ++i) {
+                if (oldUsed[i]) {
+                    this.put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
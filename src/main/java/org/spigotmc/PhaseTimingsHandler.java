@@ -0,0 +1,31 @@
+package org.spigotmc;
+
+import org.bukkit.event.CustomTimingsHandler;
+
+/**
+ * Timings handler which also tells the sampling profiler which phase of the
+ * tick the thread is in, so samples can be attributed to it.
+ */
+public class PhaseTimingsHandler extends CustomTimingsHandler {
+
+    private final String name;
+    private String previous;
+
+    public PhaseTimingsHandler(String name) {
+        super(name);
+        this.name = name;
+    }
+
+    @Override
+    public void startTiming() {
+        previous = SamplingProfiler.enterPhase(name);
+        super.startTiming();
+    }
+
+    @Override
+    public void stopTiming() {
+        super.stopTiming();
+        SamplingProfiler.exitPhase(previous);
+        previous = null;
+    }
+}
@@ -0,0 +1,100 @@
+package org.spigotmc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import net.minecraft.server.MinecraftServer;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+
+public class ProfilerCommand extends Command {
+
+    private static final int DEFAULT_INTERVAL = 10;
+
+    public ProfilerCommand(String name) {
+        super(name);
+        this.description = "Samples the server and world threads to find the source of lag";
+        this.usageMessage = "/profiler <start [interval]|stop|report|dump>";
+        this.setPermission("bukkit.command.profiler");
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String currentAlias, String[] args) {
+        if (!testPermission(sender)) return true;
+
+        if (args.length < 1) {
+            sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            return false;
+        }
+
+        if ("start".equalsIgnoreCase(args[0])) {
+            int interval = DEFAULT_INTERVAL;
+            if (args.length > 1) {
+                try {
+                    interval = Integer.parseInt(args[1]);
+                } catch (NumberFormatException ex) {
+                    sender.sendMessage(ChatColor.RED + "Invalid interval: " + args[1]);
+                    return true;
+                }
+            }
+            if (SamplingProfiler.doStart(MinecraftServer.getServer().primaryThread, interval)) {
+                sender.sendMessage("Profiler started, sampling every " + Math.max(1, interval) + "ms");
+            } else {
+                sender.sendMessage(ChatColor.RED + "The profiler is already running");
+            }
+        } else if ("stop".equalsIgnoreCase(args[0])) {
+            SamplingProfiler profiler = SamplingProfiler.doStop();
+            if (profiler == null) {
+                sender.sendMessage(ChatColor.RED + "The profiler is not running");
+            } else {
+                sender.sendMessage("Profiler stopped after " + profiler.getSamples() + " samples");
+            }
+        } else if ("report".equalsIgnoreCase(args[0])) {
+            SamplingProfiler profiler = SamplingProfiler.getLatest();
+            if (profiler == null) {
+                sender.sendMessage(ChatColor.RED + "Nothing has been profiled yet");
+                return true;
+            }
+
+            int samples = profiler.getSamples();
+            sender.sendMessage(ChatColor.GOLD + "[Profiler] " + samples + " samples over " + profiler.getDuration() / 1000 + "s");
+            report(sender, "Phases", profiler, "phases", samples);
+            report(sender, "Plugins", profiler, "plugins", samples);
+            report(sender, "Server methods", profiler, "methods", samples);
+        } else if ("dump".equalsIgnoreCase(args[0])) {
+            SamplingProfiler profiler = SamplingProfiler.getLatest();
+            if (profiler == null) {
+                sender.sendMessage(ChatColor.RED + "Nothing has been profiled yet");
+                return true;
+            }
+
+            File profileFolder = new File("profiles");
+            profileFolder.mkdirs();
+            int index = 0;
+            File profileFile = new File(profileFolder, "profile.txt");
+            while (profileFile.exists()) {
+                profileFile = new File(profileFolder, "profile" + (++index) + ".txt");
+            }
+
+            try {
+                profiler.dump(profileFile);
+                sender.sendMessage("Collapsed stacks written to " + profileFile.getPath());
+            } catch (IOException ex) {
+                sender.sendMessage(ChatColor.RED + "Could not save profile: " + ex.getMessage());
+            }
+        } else {
+            sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            return false;
+        }
+        return true;
+    }
+
+    private static void report(CommandSender sender, String title, SamplingProfiler profiler, String type, int samples) {
+        sender.sendMessage(ChatColor.YELLOW + title + ":");
+        for (Map.Entry<String, Integer> entry : profiler.getTop(type, 5)) {
+            int percent = samples == 0 ? 0 : entry.getValue() * 100 / samples;
+            sender.sendMessage("  " + percent + "% " + entry.getKey() + " (" + entry.getValue() * profiler.getInterval() + "ms)");
+        }
+    }
+}
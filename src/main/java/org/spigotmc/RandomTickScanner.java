@@ -0,0 +1,230 @@
+package org.spigotmc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.minecraft.server.Block;
+import net.minecraft.server.Chunk;
+import net.minecraft.server.ChunkSection;
+
+/**
+ * Picks the random block tick positions of a world's ticking chunks on
+ * several threads. The main thread hands over each chunk with the state of
+ * the world's position generator and the sections which had ticking blocks,
+ * the scan repeats the draws of the serial loop and keeps only the positions
+ * holding a ticking block, and the main thread then ticks those in chunk
+ * order. Positions are drawn exactly as the serial loop would, so the result
+ * doesn't depend on how the chunks were split between threads.
+ * <p>
+ * Scanning only reads block ids, nothing is changed until the main thread
+ * applies the ticks, at which point each block is looked up again in case an
+ * earlier tick replaced it.
+ */
+public class RandomTickScanner {
+
+    /**
+     * Worlds ticking fewer chunks than this scan them on the main thread.
+     */
+    public static final int PARALLEL_THRESHOLD = 64;
+    private static final int BATCH_SIZE = 8;
+    private static ExecutorService pool;
+    private static int threads;
+
+    private Chunk[] chunks = new Chunk[64];
+    private int[] seeds = new int[64];
+    private int[] sections = new int[64];
+    private int[] players = new int[64];
+    private int[][] candidates = new int[64][];
+    private int[] counts = new int[64];
+    private int size;
+
+    public static synchronized void doStart(int threadCount) {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder().setNameFormat("Random Tick Thread - %1$d").setDaemon(true).build());
+            threads = threadCount;
+        }
+    }
+
+    public static synchronized void doStop() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return pool != null;
+    }
+
+    /**
+     * Advances the world's position generator past the draws a chunk will use.
+     *
+     * @param seed the generator state
+     * @param sectionMask the sections to draw positions for, one bit each
+     * @return the state after the chunk's draws
+     */
+    public static int skip(int seed, int sectionMask) {
+        for (int i = Integer.bitCount(sectionMask) * 3; i > 0; --i) {
+            seed = seed * 3 + 1013904223;
+        }
+        return seed;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Queues a chunk to be scanned.
+     *
+     * @param chunk the chunk
+     * @param seed the state of the world's position generator before the
+     * chunk's first draw
+     * @param sectionMask the sections with ticking blocks, one bit each
+     * @param playerCount the players near the chunk, for growth rates
+     */
+    public void add(Chunk chunk, int seed, int sectionMask, int playerCount) {
+        if (this.size == this.chunks.length) {
+            int length = this.size << 1;
+            this.chunks = Arrays.copyOf(this.chunks, length);
+            this.seeds = Arrays.copyOf(this.seeds, length);
+            this.sections = Arrays.copyOf(this.sections, length);
+            this.players = Arrays.copyOf(this.players, length);
+            this.candidates = Arrays.copyOf(this.candidates, length);
+            this.counts = Arrays.copyOf(this.counts, length);
+        }
+        this.chunks[this.size] = chunk;
+        this.seeds[this.size] = seed;
+        this.sections[this.size] = sectionMask;
+        this.players[this.size] = playerCount;
+        this.counts[this.size] = 0;
+        ++this.size;
+    }
+
+    public Chunk getChunk(int index) {
+        return this.chunks[index];
+    }
+
+    public int getPlayers(int index) {
+        return this.players[index];
+    }
+
+    public int getCandidateCount(int index) {
+        return this.counts[index];
+    }
+
+    /**
+     * Gets a position found in a chunk, packed as the section index followed
+     * by 4 bits each of y, z and x.
+     *
+     * @param index the chunk index
+     * @param candidate the position index
+     * @return the packed position
+     */
+    public int getCandidate(int index, int candidate) {
+        return this.candidates[index][candidate];
+    }
+
+    /**
+     * Drops the queued chunks, keeping the buffers for the next tick.
+     */
+    public void clear() {
+        Arrays.fill(this.chunks, 0, this.size, null);
+        this.size = 0;
+    }
+
+    /**
+     * Scans every queued chunk, on the pool if it is running, and waits for
+     * all of them. Must be called from the thread ticking the world.
+     */
+    public void scan() {
+        final AtomicInteger cursor = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            public void run() {
+                int start;
+                while ((start = cursor.getAndAdd(BATCH_SIZE)) < RandomTickScanner.this.size) {
+                    int end = Math.min(start + BATCH_SIZE, RandomTickScanner.this.size);
+                    for (int i = start; i < end; ++i) {
+                        RandomTickScanner.this.scan(i);
+                    }
+                }
+            }
+        };
+
+        ExecutorService executor = pool;
+        int tasks = executor == null ? 0 : Math.min(threads, (this.size + BATCH_SIZE - 1) / BATCH_SIZE - 1);
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks);
+        for (int i = 0; i < tasks; ++i) {
+            futures.add(executor.submit(worker));
+        }
+
+        RuntimeException failure = null;
+        try {
+            worker.run();
+        } catch (RuntimeException ex) {
+            failure = ex;
+            cursor.set(this.size);
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (failure == null) {
+                    failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void scan(int index) {
+        ChunkSection[] chunkSections = this.chunks[index].i();
+        int mask = this.sections[index];
+        int seed = this.seeds[index];
+        int[] found = this.candidates[index];
+        if (found == null || found.length < Integer.bitCount(mask) * 3) {
+            found = this.candidates[index] = new int[Math.max(16, Integer.bitCount(mask) * 3)];
+        }
+        int count = 0;
+
+        for (int section = 0; section < chunkSections.length; ++section) {
+            if ((mask & (1 << section)) == 0) {
+                continue;
+            }
+            ChunkSection chunksection = chunkSections[section];
+
+            for (int draw = 0; draw < 3; ++draw) {
+                seed = seed * 3 + 1013904223;
+                int position = seed >> 2;
+                int x = position & 15;
+                int z = position >> 8 & 15;
+                int y = position >> 16 & 15;
+
+                if (chunksection == null) {
+                    continue;
+                }
+                Block block = Block.byId[chunksection.a(x, y, z)];
+                if (block != null && block.isTicking()) {
+                    found[count++] = section << 12 | y << 8 | z << 4 | x;
+                }
+            }
+        }
+        this.counts[index] = count;
+    }
+}
@@ -0,0 +1,311 @@
+package org.spigotmc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compression types a chunk can be stored with in a region file. Alongside
+ * vanilla's zlib, which can be written at any deflate level, chunks may be
+ * stored in the LZ4 block format. LZ4 files are larger but compress several
+ * times faster than zlib, and are only readable by this server until they are
+ * converted back.
+ * <p>
+ * LZ4 data is stored as the length of the uncompressed data followed by a
+ * single LZ4 block.
+ */
+public class RegionCompression {
+
+    public static final int GZIP = 1;
+    public static final int ZLIB = 2;
+    public static final int LZ4 = 3;
+    private static final int HASH_BITS = 14;
+    private static final int MIN_MATCH = 4;
+    // The format requires the last match to start at least 12 bytes, and end at least 5 bytes, before the end
+    private static final int MATCH_START_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 65535;
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+    private static final ThreadLocal<int[]> hashTables = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_BITS];
+        }
+    };
+
+    /**
+     * Gets a compression type by name.
+     *
+     * @param name "zlib" or "lz4"
+     * @return the type, or -1 if there is no such type
+     */
+    public static int getType(String name) {
+        if ("zlib".equalsIgnoreCase(name)) {
+            return ZLIB;
+        } else if ("lz4".equalsIgnoreCase(name)) {
+            return LZ4;
+        }
+        return -1;
+    }
+
+    public static String getName(int type) {
+        switch (type) {
+            case GZIP:
+                return "gzip";
+            case ZLIB:
+                return "zlib";
+            case LZ4:
+                return "lz4";
+            default:
+                return "unknown";
+        }
+    }
+
+    public static boolean isSupported(int type) {
+        return type == GZIP || type == ZLIB || type == LZ4;
+    }
+
+    /**
+     * Compresses a chunk for writing.
+     *
+     * @param type {@link #ZLIB} or {@link #LZ4}
+     * @param level the deflate level, only used by zlib
+     * @param data the uncompressed chunk
+     * @param length the number of valid bytes in the data
+     * @return the compressed chunk
+     */
+    public static byte[] compress(int type, int level, byte[] data, int length) {
+        if (type == LZ4) {
+            return compressLZ4(data, length);
+        } else if (type != ZLIB) {
+            throw new IllegalArgumentException("Cannot write compression type " + type);
+        }
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(length / 4, 1024));
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int deflated = deflater.deflate(buffer);
+            bytes.write(buffer, 0, deflated);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decompresses a chunk which was read.
+     *
+     * @param type {@link #ZLIB} or {@link #LZ4}
+     * @param data the compressed chunk
+     * @return the uncompressed chunk
+     * @throws IOException if the data is corrupt
+     */
+    public static byte[] decompress(int type, byte[] data) throws IOException {
+        if (type == LZ4) {
+            return decompressLZ4(data);
+        } else if (type != ZLIB) {
+            throw new IOException("Cannot read compression type " + type);
+        }
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data);
+
+        byte[] out = new byte[Math.max(data.length * 4, 1024)];
+        int size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int inflated = inflater.inflate(out, size, out.length - size);
+                if (inflated == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Unexpected end of chunk data");
+                }
+                size += inflated;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex.getMessage());
+        }
+        return size == out.length ? out : Arrays.copyOf(out, size);
+    }
+
+    private static byte[] compressLZ4(byte[] src, int length) {
+        byte[] dst = new byte[4 + length + length / 255 + 16];
+        dst[0] = (byte) (length >>> 24);
+        dst[1] = (byte) (length >>> 16);
+        dst[2] = (byte) (length >>> 8);
+        dst[3] = (byte) length;
+        int op = 4;
+        int anchor = 0;
+
+        if (length > MATCH_START_LIMIT) {
+            int[] table = hashTables.get();
+            Arrays.fill(table, -1);
+            int limit = length - MATCH_START_LIMIT;
+            int matchLimit = length - LAST_LITERALS;
+            int ip = 0;
+            int misses = 0;
+
+            while (ip < limit) {
+                int sequence = readInt(src, ip);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+                int ref = table[hash];
+                table[hash] = ip;
+
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    // Skip faster through data which doesn't compress
+                    ip += 1 + (misses++ >> 6);
+                    continue;
+                }
+                misses = 0;
+
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    --ip;
+                    --ref;
+                }
+
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    ++matchLength;
+                }
+
+                op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        op = writeSequence(dst, op, src, anchor, length - anchor, 0, 0);
+        return Arrays.copyOf(dst, op);
+    }
+
+    // A match length of 0 writes the final run of literals
+    private static int writeSequence(byte[] dst, int op, byte[] src, int start, int literals, int offset, int matchLength) {
+        int token = op++;
+        int tokenValue;
+        if (literals >= 15) {
+            tokenValue = 15 << 4;
+            op = writeLength(dst, op, literals - 15);
+        } else {
+            tokenValue = literals << 4;
+        }
+        System.arraycopy(src, start, dst, op, literals);
+        op += literals;
+
+        if (matchLength > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int extra = matchLength - MIN_MATCH;
+            if (extra >= 15) {
+                tokenValue |= 15;
+                op = writeLength(dst, op, extra - 15);
+            } else {
+                tokenValue |= extra;
+            }
+        }
+        dst[token] = (byte) tokenValue;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static byte[] decompressLZ4(byte[] src) throws IOException {
+        if (src.length < 5) {
+            throw new EOFException("Unexpected end of chunk data");
+        }
+        int length = readInt(src, 0);
+        if (length < 0 || length > (1 << 26)) {
+            throw new IOException("Invalid chunk length " + length);
+        }
+
+        byte[] dst = new byte[length];
+        int ip = 4;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 255;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 255;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (op + literals > length || ip + literals > src.length) {
+                    throw new IOException("Corrupt chunk data");
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == src.length) {
+                    break;
+                }
+
+                int offset = (src[ip] & 255) | (src[ip + 1] & 255) << 8;
+                ip += 2;
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 255;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || offset > op || op + matchLength > length) {
+                    throw new IOException("Corrupt chunk data");
+                }
+
+                int ref = op - offset;
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                } else {
+                    // Overlapping matches repeat the bytes being written
+                    for (int i = 0; i < matchLength; ++i) {
+                        dst[op + i] = dst[ref + i];
+                    }
+                }
+                op += matchLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new EOFException("Unexpected end of chunk data");
+        }
+
+        if (op != length) {
+            throw new IOException("Corrupt chunk data");
+        }
+        return dst;
+    }
+
+    private static int readInt(byte[] array, int index) {
+        return (array[index] & 255) << 24 | (array[index + 1] & 255) << 16 | (array[index + 2] & 255) << 8 | (array[index + 3] & 255);
+    }
+}
@@ -0,0 +1,70 @@
+package org.spigotmc;
+
+import net.minecraft.server.ChunkRegionLoader;
+import net.minecraft.server.IChunkLoader;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.craftbukkit.CraftWorld;
+
+public class RegionCompressionCommand extends Command {
+
+    public RegionCompressionCommand(String name) {
+        super(name);
+        this.description = "Shows or converts the compression of a world's region files";
+        this.usageMessage = "/regioncompression <world> [zlib|lz4] [level]";
+        this.setPermission("bukkit.command.regioncompression");
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String currentAlias, String[] args) {
+        if (!testPermission(sender)) return true;
+
+        if (args.length < 1) {
+            sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            return false;
+        }
+
+        World world = Bukkit.getWorld(args[0]);
+        if (world == null) {
+            sender.sendMessage(ChatColor.RED + "No such world: " + args[0]);
+            return true;
+        }
+        CraftWorld craftWorld = (CraftWorld) world;
+        IChunkLoader loader = craftWorld.getHandle().chunkProviderServer.e;
+        if (!(loader instanceof ChunkRegionLoader)) {
+            sender.sendMessage(ChatColor.RED + world.getName() + " is not stored in region files");
+            return true;
+        }
+
+        if (args.length < 2) {
+            sender.sendMessage(world.getName() + " saves chunks with " + craftWorld.regionCompression);
+            return true;
+        }
+
+        int type = RegionCompression.getType(args[1]);
+        if (type < 0) {
+            sender.sendMessage(ChatColor.RED + "Unknown compression: " + args[1]);
+            return true;
+        }
+        int level = craftWorld.regionCompressionLevel;
+        if (args.length > 2) {
+            try {
+                level = Math.max(-1, Math.min(9, Integer.parseInt(args[2])));
+            } catch (NumberFormatException ex) {
+                sender.sendMessage(ChatColor.RED + "Invalid level: " + args[2]);
+                return true;
+            }
+        }
+
+        craftWorld.regionCompression = RegionCompression.getName(type);
+        craftWorld.regionCompressionLevel = level;
+        ((ChunkRegionLoader) loader).setCompression(type, level);
+        int regions = ((ChunkRegionLoader) loader).convertRegions();
+        sender.sendMessage("Converting " + regions + " region files of " + world.getName() + " to " + craftWorld.regionCompression + " in the background");
+        sender.sendMessage("Set region-compression in the world settings to keep it after a restart");
+        return true;
+    }
+}
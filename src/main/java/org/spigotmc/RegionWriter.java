@@ -0,0 +1,177 @@
+package org.spigotmc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.bukkit.Bukkit;
+
+/**
+ * Writes queued chunk saves on several threads, in place of the single file IO
+ * thread. Each region file is always written by the same thread, so saves to
+ * one region stay in order while different regions are compressed and
+ * written at the same time.
+ * <p>
+ * Chunks are counted from the moment they are queued until they are on disk.
+ * Once more than the configured number are waiting, the thread queueing more
+ * is held back until the writers catch up, which stops a mass unload or save
+ * from filling the heap with chunk snapshots. It is held back for at most
+ * {@link #MAX_WAIT} milliseconds, after which the queue may grow past its
+ * limit until the writers have emptied it, rather than stalling the server on
+ * a slow disk.
+ */
+public class RegionWriter {
+
+    private static final long MAX_WAIT = 1000;
+    private static final Object lock = new Object();
+    private static ExecutorService[] shards;
+    private static int maxQueued = 1024;
+    private static int queued;
+    // Set once a wait timed out, nothing waits again until the queue is empty
+    private static boolean overflowing;
+    private static long lastWarning;
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong chunks = new AtomicLong();
+    private static final AtomicLong writeTime = new AtomicLong();
+
+    public static synchronized void doStart(int threadCount, int queueSize) {
+        synchronized (lock) {
+            maxQueued = Math.max(1, queueSize);
+            lock.notifyAll();
+        }
+        if (shards == null) {
+            ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("Region Writer Thread - %1$d").setDaemon(true).build();
+            ExecutorService[] executors = new ExecutorService[Math.max(1, threadCount)];
+            for (int i = 0; i < executors.length; ++i) {
+                executors[i] = Executors.newSingleThreadExecutor(factory);
+            }
+            shards = executors;
+        }
+    }
+
+    /**
+     * Queues a write on the thread owning a region.
+     *
+     * @param region the key of the region being written
+     * @param task the write
+     */
+    public static void execute(long region, Runnable task) {
+        ExecutorService[] executors;
+        synchronized (RegionWriter.class) {
+            if (shards == null) {
+                doStart(2, maxQueued);
+            }
+            executors = shards;
+        }
+        int hash = (int) (region ^ (region >>> 32)) * 0x9E3779B9;
+        executors[(hash >>> 1) % executors.length].execute(task);
+    }
+
+    /**
+     * Waits until there is room for another chunk in the queue, or until
+     * {@link #MAX_WAIT} milliseconds have passed. Doesn't wait at all after a
+     * timeout, until the writers have caught up. Must not be called while
+     * holding a lock a writer needs.
+     */
+    public static void awaitCapacity() {
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + MAX_WAIT;
+            while (queued >= maxQueued && !overflowing) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    overflowing = true;
+                    // Once a minute at most, a disk which can't keep up overflows again each time the queue empties
+                    if (deadline - lastWarning >= 60000) {
+                        lastWarning = deadline;
+                        Bukkit.getLogger().log(Level.WARNING, "[Spigot] Chunk saves are not keeping up, " + queued + " are waiting to be written");
+                    }
+                    return;
+                }
+
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts chunks newly queued for saving.
+     *
+     * @param count the number of chunks
+     */
+    public static void queued(int count) {
+        synchronized (lock) {
+            queued += count;
+        }
+    }
+
+    /**
+     * Counts chunks which are now on disk.
+     *
+     * @param count the number of chunks written
+     * @param nanos how long writing them took
+     */
+    public static void written(int count, long nanos) {
+        batches.incrementAndGet();
+        chunks.addAndGet(count);
+        writeTime.addAndGet(nanos);
+        release(count);
+    }
+
+    /**
+     * Counts work which is finished without being counted as a write.
+     *
+     * @param count the number of queued entries finished
+     */
+    public static void release(int count) {
+        synchronized (lock) {
+            queued -= count;
+            if (queued <= 0) {
+                overflowing = false;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every queued chunk has been written.
+     */
+    public static void waitForWrites() {
+        synchronized (lock) {
+            while (queued > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public static int getQueued() {
+        synchronized (lock) {
+            return queued;
+        }
+    }
+
+    public static long getChunksWritten() {
+        return chunks.get();
+    }
+
+    /**
+     * Gets the average time taken to write a batch of chunks to a region.
+     *
+     * @return the average time in nanoseconds, or 0 if nothing was written
+     */
+    public static long getAverageWriteTime() {
+        long count = batches.get();
+        return count == 0 ? 0 : writeTime.get() / count;
+    }
+}
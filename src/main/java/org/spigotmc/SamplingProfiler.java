@@ -0,0 +1,270 @@
+package org.spigotmc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Samples the stack of the server thread, and of the world threads while they
+ * are ticking a world, at a fixed interval. Samples are kept as collapsed
+ * stacks, rooted at the timings phase the thread was in, so a dump can be fed
+ * straight into flamegraph tools. Time is also summed per plugin and per
+ * server method for a quick report in game.
+ */
+public class SamplingProfiler implements Runnable {
+
+    private static final String NMS_PACKAGE = "net.minecraft.server.";
+    private static SamplingProfiler running;
+    private static SamplingProfiler latest;
+    private static volatile boolean sampling;
+    // The phase each thread is in, threads outside of any phase have no entry
+    private static final Map<Thread, String> currentPhases = new ConcurrentHashMap<Thread, String>();
+    private final Thread thread;
+    private final int interval;
+    private final Map<String, Integer> stacks = new HashMap<String, Integer>();
+    private final Map<String, Integer> plugins = new HashMap<String, Integer>();
+    private final Map<String, Integer> methods = new HashMap<String, Integer>();
+    private final Map<String, Integer> phases = new HashMap<String, Integer>();
+    // Plugin owning a class, or the empty string if none does
+    private final Map<String, String> owners = new HashMap<String, String>();
+    private final Map<String, String> pluginPackages = new HashMap<String, String>();
+    private final long startTime = System.currentTimeMillis();
+    private int samples;
+    private volatile long stopTime;
+    private volatile boolean stopped;
+
+    private SamplingProfiler(Thread thread, int interval) {
+        this.thread = thread;
+        this.interval = interval;
+        for (Plugin plugin : Bukkit.getPluginManager().getPlugins()) {
+            Package pkg = plugin.getClass().getPackage();
+            if (pkg != null) {
+                pluginPackages.put(pkg.getName() + ".", plugin.getName());
+            }
+        }
+    }
+
+    /**
+     * Starts sampling the given thread and the world threads, unless the
+     * profiler is already running.
+     *
+     * @param thread the main thread to sample
+     * @param interval the time between samples in milliseconds
+     * @return false if the profiler was already running
+     */
+    public static synchronized boolean doStart(Thread thread, int interval) {
+        if (running != null) {
+            return false;
+        }
+
+        running = new SamplingProfiler(thread, Math.max(1, interval));
+        latest = running;
+        currentPhases.clear();
+        sampling = true;
+        Thread sampler = new Thread(running, "Spigot Sampling Profiler");
+        sampler.setDaemon(true);
+        sampler.setPriority(Thread.MAX_PRIORITY);
+        sampler.start();
+        return true;
+    }
+
+    /**
+     * Stops the profiler, keeping the samples taken for a later dump.
+     *
+     * @return the stopped profiler, or null if it wasn't running
+     */
+    public static synchronized SamplingProfiler doStop() {
+        SamplingProfiler profiler = running;
+        if (profiler != null) {
+            profiler.stopped = true;
+            profiler.stopTime = System.currentTimeMillis();
+            running = null;
+            sampling = false;
+            currentPhases.clear();
+        }
+        return profiler;
+    }
+
+    public static synchronized boolean isRunning() {
+        return running != null;
+    }
+
+    /**
+     * Gets the running profiler, or the last one to run.
+     *
+     * @return the latest profiler, or null if none was started yet
+     */
+    public static synchronized SamplingProfiler getLatest() {
+        return latest;
+    }
+
+    /**
+     * Marks the phase the calling thread is entering, if the profiler is
+     * running.
+     *
+     * @param name the phase name, or null when leaving all phases
+     * @return the phase being replaced, to be restored later
+     */
+    public static String enterPhase(String name) {
+        if (!sampling) {
+            return null;
+        }
+        return setPhase(Thread.currentThread(), name);
+    }
+
+    public static void exitPhase(String previous) {
+        if (sampling) {
+            setPhase(Thread.currentThread(), previous);
+        }
+    }
+
+    private static String setPhase(Thread thread, String name) {
+        return name == null ? currentPhases.remove(thread) : currentPhases.put(thread, name);
+    }
+
+    public void run() {
+        StringBuilder builder = new StringBuilder();
+        while (!stopped && thread.isAlive()) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            sample(builder, thread, "other");
+            for (Thread worldThread : WorldTicker.getTickingThreads()) {
+                sample(builder, worldThread, "other world tick");
+            }
+        }
+    }
+
+    private void sample(StringBuilder builder, Thread sampled, String defaultPhase) {
+        String currentPhase = currentPhases.get(sampled);
+        StackTraceElement[] stack = sampled.getStackTrace();
+        if (stack.length == 0 || stopped) {
+            return;
+        }
+
+        synchronized (this) {
+            record(builder, currentPhase == null ? defaultPhase : currentPhase, stack);
+        }
+    }
+
+    private void record(StringBuilder builder, String currentPhase, StackTraceElement[] stack) {
+        ++samples;
+        increment(phases, currentPhase);
+
+        builder.setLength(0);
+        builder.append(currentPhase.replace(';', '_'));
+        String plugin = null;
+        String method = null;
+        // Stack traces start at the innermost frame, collapsed stacks with the outermost
+        for (int i = stack.length - 1; i >= 0; --i) {
+            StackTraceElement element = stack[i];
+            String className = element.getClassName();
+            builder.append(';').append(className).append('.').append(element.getMethodName());
+
+            String owner = getOwner(className);
+            if (owner.length() > 0) {
+                plugin = owner;
+            }
+            if (className.startsWith(NMS_PACKAGE)) {
+                method = className.substring(NMS_PACKAGE.length()) + "." + element.getMethodName();
+            }
+        }
+
+        increment(stacks, builder.toString());
+        if (plugin != null) {
+            increment(plugins, plugin);
+        }
+        if (method != null) {
+            increment(methods, method);
+        }
+    }
+
+    private String getOwner(String className) {
+        String owner = owners.get(className);
+        if (owner == null) {
+            owner = "";
+            for (Map.Entry<String, String> entry : pluginPackages.entrySet()) {
+                if (className.startsWith(entry.getKey())) {
+                    owner = entry.getValue();
+                    break;
+                }
+            }
+            owners.put(className, owner);
+        }
+        return owner;
+    }
+
+    private static void increment(Map<String, Integer> map, String key) {
+        Integer count = map.get(key);
+        map.put(key, count == null ? 1 : count + 1);
+    }
+
+    public synchronized int getSamples() {
+        return samples;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public long getDuration() {
+        return (stopped ? stopTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * Gets the phases, plugins or server methods with the most samples.
+     *
+     * @param type one of "phases", "plugins" or "methods"
+     * @param limit the maximum number of entries
+     * @return the entries, highest sample count first
+     */
+    public synchronized List<Map.Entry<String, Integer>> getTop(String type, int limit) {
+        Map<String, Integer> map = "plugins".equals(type) ? plugins : "methods".equals(type) ? methods : phases;
+        List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(map.size());
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(entry));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        return entries.size() > limit ? entries.subList(0, limit) : entries;
+    }
+
+    /**
+     * Writes the samples as collapsed stacks, one stack per line followed by
+     * the number of samples in it.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void dump(File file) throws IOException {
+        PrintStream out = new PrintStream(file);
+        try {
+            for (Map.Entry<String, Integer> entry : stacks.entrySet()) {
+                out.print(entry.getKey());
+                out.print(' ');
+                out.println(entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+}
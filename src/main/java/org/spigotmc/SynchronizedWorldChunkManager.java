@@ -0,0 +1,92 @@
+package org.spigotmc;
+
+import java.util.List;
+import java.util.Random;
+import net.minecraft.server.BiomeBase;
+import net.minecraft.server.ChunkPosition;
+import net.minecraft.server.WorldChunkManager;
+
+/**
+ * Serializes the calls into a world's biome generator. Its biome cache isn't
+ * thread safe and all gen layers share one static int cache, so a world read
+ * by async chunk generation or ticked in parallel with other worlds has its
+ * manager wrapped in this. The lock is only held for a single lookup, never a
+ * whole terrain pass.
+ */
+public class SynchronizedWorldChunkManager extends WorldChunkManager {
+
+    private static final Object lock = new Object();
+    private final WorldChunkManager handle;
+
+    public SynchronizedWorldChunkManager(WorldChunkManager handle) {
+        this.handle = handle;
+    }
+
+    @Override
+    public List a() {
+        return this.handle.a();
+    }
+
+    @Override
+    public BiomeBase getBiome(int i, int j) {
+        synchronized (lock) {
+            return this.handle.getBiome(i, j);
+        }
+    }
+
+    @Override
+    public float[] getWetness(float[] afloat, int i, int j, int k, int l) {
+        synchronized (lock) {
+            return this.handle.getWetness(afloat, i, j, k, l);
+        }
+    }
+
+    @Override
+    public float[] getTemperatures(float[] afloat, int i, int j, int k, int l) {
+        synchronized (lock) {
+            return this.handle.getTemperatures(afloat, i, j, k, l);
+        }
+    }
+
+    @Override
+    public BiomeBase[] getBiomes(BiomeBase[] abiomebase, int i, int j, int k, int l) {
+        synchronized (lock) {
+            return this.handle.getBiomes(abiomebase, i, j, k, l);
+        }
+    }
+
+    @Override
+    public BiomeBase[] getBiomeBlock(BiomeBase[] abiomebase, int i, int j, int k, int l) {
+        synchronized (lock) {
+            return this.handle.getBiomeBlock(abiomebase, i, j, k, l);
+        }
+    }
+
+    @Override
+    public BiomeBase[] a(BiomeBase[] abiomebase, int i, int j, int k, int l, boolean flag) {
+        synchronized (lock) {
+            return this.handle.a(abiomebase, i, j, k, l, flag);
+        }
+    }
+
+    @Override
+    public boolean a(int i, int j, int k, List list) {
+        synchronized (lock) {
+            return this.handle.a(i, j, k, list);
+        }
+    }
+
+    @Override
+    public ChunkPosition a(int i, int j, int k, List list, Random random) {
+        synchronized (lock) {
+            return this.handle.a(i, j, k, list, random);
+        }
+    }
+
+    @Override
+    public void b() {
+        synchronized (lock) {
+            this.handle.b();
+        }
+    }
+}
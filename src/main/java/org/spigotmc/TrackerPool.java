@@ -0,0 +1,131 @@
+package org.spigotmc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs entity tracker updates across several threads. Work is handed out in
+ * small batches from a shared cursor, so threads which finish early pick up
+ * the remaining entries, and the calling thread takes part as well.
+ * <p>
+ * While a job is running, packets sent to a player from a tracker thread are
+ * queued on that player's connection and only passed on to the network once
+ * the main thread flushes them.
+ */
+public class TrackerPool {
+
+    private static final int BATCH_SIZE = 32;
+    private static final ThreadLocal<Boolean> trackerThread = new ThreadLocal<Boolean>();
+    private static ExecutorService pool;
+    private static int threads;
+
+    public interface Job<T> {
+
+        void run(T item);
+    }
+
+    public static synchronized void doStart(int threadCount) {
+        if (pool == null) {
+            final ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("Entity Tracker Thread - %1$d").setDaemon(true).build();
+            pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    return factory.newThread(new Runnable() {
+                        public void run() {
+                            trackerThread.set(Boolean.TRUE);
+                            r.run();
+                        }
+                    });
+                }
+            });
+            threads = threadCount;
+        }
+    }
+
+    public static synchronized void doStop() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return pool != null;
+    }
+
+    /**
+     * Returns true if the current thread is running tracker updates, in which
+     * case packets must be queued rather than sent.
+     *
+     * @return whether this is a tracker thread
+     */
+    public static boolean isTrackerThread() {
+        return trackerThread.get() != null;
+    }
+
+    /**
+     * Runs the job for every item and waits for all of them to complete. Must
+     * be called from the main thread.
+     *
+     * @param items the items to process
+     * @param job the work to do for each item
+     */
+    public static <T> void run(final T[] items, final Job<T> job) {
+        final AtomicInteger cursor = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            public void run() {
+                int start;
+                while ((start = cursor.getAndAdd(BATCH_SIZE)) < items.length) {
+                    int end = Math.min(start + BATCH_SIZE, items.length);
+                    for (int i = start; i < end; ++i) {
+                        job.run(items[i]);
+                    }
+                }
+            }
+        };
+
+        int tasks = Math.min(threads, (items.length + BATCH_SIZE - 1) / BATCH_SIZE - 1);
+        List<Future<?>> futures = new ArrayList<Future<?>>(Math.max(tasks, 0));
+        for (int i = 0; i < tasks; ++i) {
+            futures.add(pool.submit(worker));
+        }
+
+        RuntimeException failure = null;
+        trackerThread.set(Boolean.TRUE);
+        try {
+            worker.run();
+        } catch (RuntimeException ex) {
+            failure = ex;
+            // Stop handing out work, the workers will finish their current batch
+            cursor.set(items.length);
+        } finally {
+            trackerThread.remove();
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (failure == null) {
+                    failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
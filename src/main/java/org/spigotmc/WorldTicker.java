@@ -0,0 +1,153 @@
+package org.spigotmc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.WorldServer;
+
+/**
+ * Ticks every loaded world on its own worker thread. The main thread waits on
+ * all workers before running the merge phase, in which operations that touch
+ * more than one world (portals, players changing worlds) are executed in the
+ * order they were requested. Only then are trackers, connections and the
+ * player list processed.
+ */
+public class WorldTicker {
+
+    private static final Queue<Runnable> mergeQueue = new ConcurrentLinkedQueue<Runnable>();
+    private static final ThreadLocal<Boolean> worldThread = new ThreadLocal<Boolean>();
+    // Workers currently ticking a world, for the sampling profiler
+    private static final List<Thread> tickingThreads = new CopyOnWriteArrayList<Thread>();
+    private static ExecutorService pool;
+    private static volatile boolean ticking;
+
+    public static synchronized void doStart(int threads) {
+        if (pool == null) {
+            final ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("World Tick Thread - %1$d").setDaemon(true).build();
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    return factory.newThread(new Runnable() {
+                        public void run() {
+                            worldThread.set(Boolean.TRUE);
+                            r.run();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    public static synchronized void doStop() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return pool != null;
+    }
+
+    /**
+     * Returns true if the calling thread is a world worker and the worlds are
+     * currently being ticked in parallel.
+     *
+     * @return whether the current thread is ticking a world
+     */
+    public static boolean isWorldThread() {
+        return ticking && worldThread.get() != null;
+    }
+
+    /**
+     * Gets the worker threads which are ticking a world right now.
+     *
+     * @return an unmodifiable view of the ticking threads, safe to iterate
+     * while they change
+     */
+    public static List<Thread> getTickingThreads() {
+        return Collections.unmodifiableList(tickingThreads);
+    }
+
+    /**
+     * Runs the task now if called outside of the parallel phase, otherwise
+     * queues it to be run on the main thread once every world has finished
+     * ticking.
+     *
+     * @param task the cross world operation
+     * @return true if the task was deferred to the merge phase
+     */
+    public static boolean defer(Runnable task) {
+        if (isWorldThread()) {
+            mergeQueue.add(task);
+            return true;
+        }
+        task.run();
+        return false;
+    }
+
+    /**
+     * Ticks all the worlds in parallel, blocking until each has finished and
+     * the merge phase has completed. Must be called from the main thread.
+     *
+     * @param server the server owning the worlds
+     * @param worlds the worlds to tick
+     */
+    public static void tickWorlds(final MinecraftServer server, List<WorldServer> worlds) {
+        List<Future<?>> futures = new ArrayList<Future<?>>(worlds.size());
+        ticking = true;
+        try {
+            for (final WorldServer world : worlds) {
+                futures.add(pool.submit(new Callable<Object>() {
+                    public Object call() {
+                        Thread thread = Thread.currentThread();
+                        tickingThreads.add(thread);
+                        try {
+                            server.tickWorld(world);
+                        } finally {
+                            tickingThreads.remove(thread);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            RuntimeException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    if (failure == null) {
+                        failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            ticking = false;
+        }
+
+        Runnable task;
+        while ((task = mergeQueue.poll()) != null) {
+            task.run();
+        }
+    }
+}
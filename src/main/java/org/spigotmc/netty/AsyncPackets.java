@@ -0,0 +1,55 @@
+package org.spigotmc.netty;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.minecraft.server.Packet;
+import net.minecraft.server.Packet0KeepAlive;
+import org.bukkit.craftbukkit.Spigot;
+
+/**
+ * Declares which packets from a logged in player may be handled away from the
+ * main thread, and runs them. Only packets which don't touch the world, the
+ * player's inventory or any other state owned by the main thread belong here,
+ * and nothing which calls into plugins, as Bukkit promises plugins their
+ * events, tab completers and plugin channel listeners run on the main thread.
+ * They are only handed to the pool when settings.async-packets is enabled.
+ * The pool also runs the packets vanilla already handles asynchronously, such
+ * as chat.
+ * <p>
+ * The pool is bounded, once its queue is full the Netty thread handing over a
+ * packet handles it itself, which also slows down reading from clients
+ * flooding the server.
+ */
+public class AsyncPackets {
+
+    private static final Set<Class<? extends Packet>> asyncPackets = new HashSet<Class<? extends Packet>>();
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        asyncPackets.add(Packet0KeepAlive.class);
+
+        int threads = Math.max(1, Spigot.asyncPacketThreads);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(Spigot.asyncPacketQueueSize),
+                new ThreadFactoryBuilder().setNameFormat("Async Packet Handler - %1$d").build(), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns true if the packet can be handled off the main thread once the
+     * player has logged in.
+     *
+     * @param packet the received packet
+     * @return whether the packet is safe to handle asynchronously
+     */
+    public static boolean isAsync(Packet packet) {
+        return Spigot.asyncPackets && asyncPackets.contains(packet.getClass());
+    }
+
+    public static void execute(Runnable task) {
+        executor.execute(task);
+    }
+}
@@ -0,0 +1,62 @@
+package org.spigotmc.netty;
+
+import io.netty.buffer.ByteBuf;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses chunk data straight into an outbound buffer. Every thread keeps
+ * its own deflater and scratch array, so compressing a chunk packet on a Netty
+ * IO thread allocates nothing beyond the buffer it is written to.
+ */
+public class ChunkDeflater {
+
+    private static final ThreadLocal<ChunkDeflater> localDeflater = new ThreadLocal<ChunkDeflater>() {
+        @Override
+        protected ChunkDeflater initialValue() {
+            return new ChunkDeflater();
+        }
+    };
+    // Don't use higher compression level, slows things down too much
+    private final Deflater deflater = new Deflater(4);
+    private final byte[] scratch = new byte[16384];
+
+    private ChunkDeflater() {
+    }
+
+    /**
+     * Gets the deflater for the current thread, reset and ready for a new
+     * stream.
+     *
+     * @return the deflater of this thread
+     */
+    public static ChunkDeflater get() {
+        ChunkDeflater chunkDeflater = localDeflater.get();
+        chunkDeflater.deflater.reset();
+        return chunkDeflater;
+    }
+
+    /**
+     * Compresses the data and appends whatever output is ready to the buffer.
+     *
+     * @param data the uncompressed data
+     * @param out the buffer to write to
+     */
+    public void write(byte[] data, ByteBuf out) {
+        deflater.setInput(data, 0, data.length);
+        while (!deflater.needsInput()) {
+            out.writeBytes(scratch, 0, deflater.deflate(scratch, 0, scratch.length));
+        }
+    }
+
+    /**
+     * Finishes the stream, appending the remaining output to the buffer.
+     *
+     * @param out the buffer to write to
+     */
+    public void finish(ByteBuf out) {
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.writeBytes(scratch, 0, deflater.deflate(scratch, 0, scratch.length));
+        }
+    }
+}
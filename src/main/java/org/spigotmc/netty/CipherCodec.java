@@ -5,18 +5,23 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToByteCodec;
 import javax.crypto.Cipher;
 import javax.crypto.ShortBufferException;
-import org.bouncycastle.crypto.BufferedBlockCipher;
 
 /**
  * This class is a complete solution for encrypting and decoding bytes in a
- * Netty stream. It takes two {@link BufferedBlockCipher} instances, used for
- * encryption and decryption respectively.
+ * Netty stream. It takes two {@link Cipher} instances, used for encryption and
+ * decryption respectively.
+ * <p>
+ * Heap buffers are ciphered straight from one backing array into the other.
+ * Direct buffers are copied through a small array kept by the codec for each
+ * direction, so no arrays are allocated per write. Outbound data is encrypted
+ * together for everything written since the last flush.
  */
 public class CipherCodec extends ByteToByteCodec {
 
     private Cipher encrypt;
     private Cipher decrypt;
-    private ByteBuf heapOut;
+    private final byte[] encryptBuffer = new byte[8192];
+    private final byte[] decryptBuffer = new byte[8192];
 
     public CipherCodec(Cipher encrypt, Cipher decrypt) {
         this.encrypt = encrypt;
@@ -25,17 +30,12 @@ public class CipherCodec extends ByteToByteCodec {
 
     @Override
     public void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
-        if (heapOut == null) {
-            heapOut = ctx.alloc().heapBuffer();
-        }
-        cipher(encrypt, in, heapOut);
-        out.writeBytes(heapOut);
-        heapOut.discardSomeReadBytes();
+        cipher(encrypt, in, out, encryptBuffer);
     }
 
     @Override
     public void decode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
-        cipher(decrypt, in, out);
+        cipher(decrypt, in, out, decryptBuffer);
     }
 
     @Override
@@ -47,21 +47,29 @@ public class CipherCodec extends ByteToByteCodec {
     @Override
     public void freeOutboundBuffer(ChannelHandlerContext ctx) throws Exception {
         super.freeOutboundBuffer(ctx);
-        if (heapOut != null) {
-            heapOut.release();
-            heapOut = null;
-        }
         encrypt = null;
     }
 
-    private void cipher(Cipher cipher, ByteBuf in, ByteBuf out) throws ShortBufferException {
+    private static void cipher(Cipher cipher, ByteBuf in, ByteBuf out, byte[] buffer) throws ShortBufferException {
         int available = in.readableBytes();
-        int outputSize = cipher.getOutputSize(available);
-        if (out.capacity() < outputSize) {
-            out.capacity(outputSize);
+        if (available == 0) {
+            return;
+        }
+
+        // CFB8 is a stream mode, every input byte produces exactly one output byte
+        out.ensureWritableBytes(cipher.getOutputSize(available));
+        if (in.hasArray() && out.hasArray()) {
+            int processed = cipher.update(in.array(), in.arrayOffset() + in.readerIndex(), available, out.array(), out.arrayOffset() + out.writerIndex());
+            in.skipBytes(available);
+            out.writerIndex(out.writerIndex() + processed);
+            return;
+        }
+
+        // The cipher may work in place, so the same array holds the input and output of each piece
+        while (in.isReadable()) {
+            int length = Math.min(in.readableBytes(), buffer.length);
+            in.readBytes(buffer, 0, length);
+            out.writeBytes(buffer, 0, cipher.update(buffer, 0, length, buffer));
         }
-        int processed = cipher.update(in.array(), in.arrayOffset() + in.readerIndex(), available, out.array(), out.arrayOffset() + out.writerIndex());
-        in.readerIndex(in.readerIndex() + processed);
-        out.writerIndex(out.writerIndex() + processed);
     }
 }
@@ -1,7 +1,9 @@
 package org.spigotmc.netty;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.buffer.MessageBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundMessageHandlerAdapter;
 import io.netty.channel.socket.SocketChannel;
@@ -12,17 +14,23 @@ import java.util.AbstractList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import net.minecraft.server.Connection;
 import net.minecraft.server.INetworkManager;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.Packet;
+import net.minecraft.server.Packet51MapChunk;
+import net.minecraft.server.Packet56MapChunkBulk;
 import net.minecraft.server.Packet252KeyResponse;
 import net.minecraft.server.PendingConnection;
 import net.minecraft.server.PlayerConnection;
+import org.bukkit.Bukkit;
+import org.bukkit.craftbukkit.Spigot;
 
 /**
  * This class forms the basis of the Netty integration. It implements
@@ -31,12 +39,55 @@ import net.minecraft.server.PlayerConnection;
  */
 public class NettyNetworkManager extends ChannelInboundMessageHandlerAdapter<Packet> implements INetworkManager {
 
-    private static final ExecutorService threadPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("Async Packet Handler - %1$d").build());
     private static final MinecraftServer server = MinecraftServer.getServer();
     private static final PrivateKey key = server.F().getPrivate();
     private static final NettyServerConnection serverConnection = (NettyServerConnection) server.ae();
+    // Connections with packets waiting for the end of tick flush
+    private static final Queue<NettyNetworkManager> dirtyManagers = new ConcurrentLinkedQueue<NettyNetworkManager>();
+    // Compressed size is not known until the packet is encoded, assume a typical chunk column
+    private static final int CHUNK_SIZE_ESTIMATE = 8192;
+    // Chunks are held back while this much written data has not reached the socket yet
+    private static final int HIGH_WATER_MARK = 1 << 20;
+    // Everything but chunks shares the control lane, so a respawn and the packets after it stay in order
+    private static final int CONTROL_LANE = 0;
+    private static final int CHUNK_LANE = 1;
+    // Block updates which must not overtake the chunks they apply to
+    private static final int BLOCK_LANE = 2;
+    private static final byte[] lanes = new byte[256];
+
+    static {
+        for (int id : new int[]{51, 56}) {
+            lanes[id] = CHUNK_LANE;
+        }
+        for (int id : new int[]{52, 53, 54, 55, 130, 132}) {
+            lanes[id] = BLOCK_LANE;
+        }
+    }
     /*========================================================================*/
     private final Queue<Packet> syncPackets = new ConcurrentLinkedQueue<Packet>();
+    // Spigot start - packets handled off the main thread, one at a time and in order for each connection
+    private final Queue<Packet> asyncPackets = new ConcurrentLinkedQueue<Packet>();
+    private final AtomicBoolean asyncScheduled = new AtomicBoolean();
+    private final Runnable asyncTask = new Runnable() {
+        public void run() {
+            do {
+                Packet packet;
+                while ((packet = asyncPackets.poll()) != null) {
+                    try {
+                        packet = PacketListener.callReceived(NettyNetworkManager.this, connection, packet);
+                        if (packet != null) {
+                            packet.handle(connection);
+                        }
+                    } catch (Exception ex) {
+                        Bukkit.getServer().getLogger().log(Level.WARNING, "Failed to handle packet: " + ex, ex);
+                    }
+                }
+                asyncScheduled.set(false);
+                // Pick up packets added after the queue was emptied, unless another task already has
+            } while (!asyncPackets.isEmpty() && asyncScheduled.compareAndSet(false, true));
+        }
+    };
+    // Spigot end
     private final List<Packet> highPriorityQueue = new AbstractList<Packet>() {
         @Override
         public void add(int index, Packet element) {
@@ -61,6 +112,24 @@ public class NettyNetworkManager extends ChannelInboundMessageHandlerAdapter<Pac
     private String dcReason;
     private Object[] dcArgs;
     private Socket socketAdaptor;
+    // Spigot start - writes made while ticking are held back and flushed together, chunks last
+    private final Queue<Packet> controlLane = new ConcurrentLinkedQueue<Packet>();
+    private final Queue<Packet> chunkLane = new ConcurrentLinkedQueue<Packet>();
+    private final AtomicInteger chunkLaneSize = new AtomicInteger();
+    private final AtomicInteger chunkAllowance = new AtomicInteger();
+    private final AtomicInteger unwrittenBytes = new AtomicInteger();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicInteger pendingBytes = new AtomicInteger();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flushScheduled.set(false);
+            drainWrites();
+        }
+    };
+    // Spigot end
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
@@ -97,15 +166,11 @@ public class NettyNetworkManager extends ChannelInboundMessageHandlerAdapter<Pac
             secret = ((Packet252KeyResponse) msg).a(key);
         }
 
-        if (msg.a_()) {
-            threadPool.submit(new Runnable() {
-                public void run() {
-                    Packet packet = PacketListener.callReceived(NettyNetworkManager.this, connection, msg);
-                    if (packet != null) {
-                        packet.handle(connection);
-                    }
-                }
-            });
+        if (msg.a_() || (connection instanceof PlayerConnection && AsyncPackets.isAsync(msg))) {
+            asyncPackets.add(msg);
+            if (asyncScheduled.compareAndSet(false, true)) {
+                AsyncPackets.execute(asyncTask);
+            }
         } else {
             syncPackets.add(msg);
         }
@@ -138,7 +203,19 @@ public class NettyNetworkManager extends ChannelInboundMessageHandlerAdapter<Pac
             // If handler indicates packet send
             if (packet != null) {
                 highPriorityQueue.add(packet);
-                channel.write(packet);
+                if (Spigot.nettyCoalesceWrites) {
+                    if (this.addToLane(packet) && pendingBytes.addAndGet(estimateSize(packet)) >= Spigot.nettyFlushThreshold
+                            || packet instanceof Packet252KeyResponse || !server.server.isPrimaryThread() && !org.spigotmc.WorldTicker.isWorldThread()) {
+                        // Encryption starts right after this packet and packets from other threads are not held back
+                        flush();
+                    } else if (dirty.compareAndSet(false, true)) {
+                        dirtyManagers.add(this);
+                    }
+                } else {
+                    channel.write(packet);
+                    writeCount.incrementAndGet();
+                    flushCount.incrementAndGet();
+                }
 
                 // If needed, check and prepare encryption phase
                 if (packet instanceof Packet252KeyResponse) {
@@ -151,6 +228,132 @@ public class NettyNetworkManager extends ChannelInboundMessageHandlerAdapter<Pac
         }
     }
 
+    /**
+     * Writes all held back packets to the channel and flushes it, on the
+     * channel's event loop.
+     */
+    public void flush() {
+        dirty.set(false);
+        if (channel.eventLoop().inEventLoop()) {
+            drainWrites();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(flushTask);
+        }
+    }
+
+    /**
+     * Flushes every connection which held back packets during this tick.
+     * Called at the end of the network pulse.
+     */
+    public static void flushAll() {
+        // Connections with chunks left over mark themselves dirty again for the next tick
+        for (int i = dirtyManagers.size(); i > 0; --i) {
+            NettyNetworkManager manager = dirtyManagers.poll();
+            if (manager == null) {
+                break;
+            }
+            manager.chunkAllowance.set(Spigot.chunkLaneBudget);
+            manager.flush();
+        }
+    }
+
+    /**
+     * Adds the packet to the lane it is sent from.
+     *
+     * @param packet the packet to send
+     * @return whether the packet can be written by the next flush, chunks
+     * may have to wait for bandwidth
+     */
+    private boolean addToLane(Packet packet) {
+        int lane = lanes[packet.k() & 0xFF];
+        if (lane == BLOCK_LANE) {
+            lane = chunkLaneSize.get() > 0 ? CHUNK_LANE : CONTROL_LANE;
+        }
+
+        if (lane == CHUNK_LANE) {
+            chunkLaneSize.incrementAndGet();
+            chunkLane.add(packet);
+            return Spigot.chunkLaneBudget <= 0;
+        }
+        controlLane.add(packet);
+        return true;
+    }
+
+    private void drainWrites() {
+        MessageBuf<Object> out = channel.outboundMessageBuffer();
+        int count = 0;
+        int bytes = 0;
+        Packet packet;
+        while ((packet = controlLane.poll()) != null) {
+            out.add(packet);
+            bytes += estimateSize(packet);
+            ++count;
+        }
+        pendingBytes.addAndGet(-bytes);
+
+        // Chunks only go out while the client keeps up and this tick's budget lasts
+        boolean budgeted = Spigot.chunkLaneBudget > 0;
+        int allowance = budgeted ? chunkAllowance.get() : Integer.MAX_VALUE;
+        while (allowance > 0 && unwrittenBytes.get() + bytes < HIGH_WATER_MARK && (packet = chunkLane.poll()) != null) {
+            chunkLaneSize.decrementAndGet();
+            int size = estimateSize(packet);
+            if (!budgeted) {
+                pendingBytes.addAndGet(-size);
+            }
+            out.add(packet);
+            bytes += size;
+            allowance -= size;
+            ++count;
+        }
+        if (budgeted) {
+            chunkAllowance.set(allowance);
+        }
+
+        if (count > 0) {
+            writeCount.addAndGet(count);
+            flushCount.incrementAndGet();
+            final int written = bytes;
+            unwrittenBytes.addAndGet(written);
+            channel.flush().addListener(new ChannelFutureListener() {
+                public void operationComplete(ChannelFuture future) {
+                    unwrittenBytes.addAndGet(-written);
+                }
+            });
+        }
+
+        if (!chunkLane.isEmpty() && dirty.compareAndSet(false, true)) {
+            dirtyManagers.add(this);
+        }
+    }
+
+    private static int estimateSize(Packet packet) {
+        if (packet instanceof Packet51MapChunk) {
+            return CHUNK_SIZE_ESTIMATE;
+        } else if (packet instanceof Packet56MapChunkBulk) {
+            return CHUNK_SIZE_ESTIMATE * ((Packet56MapChunkBulk) packet).d();
+        }
+        return packet.a();
+    }
+
+    /**
+     * Gets the number of times packets were flushed to the socket, each
+     * flush costs at least one system call.
+     *
+     * @return the flush count of this connection
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Gets the number of packets written to this connection.
+     *
+     * @return the packet count of this connection
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
     /**
      * wakeThreads. In Vanilla this method will interrupt the network read and
      * write threads, thus waking them.
@@ -197,18 +400,19 @@ public class NettyNetworkManager extends ChannelInboundMessageHandlerAdapter<Pac
     public void d() {
         if (connected) {
             connected = false;
+            flush(); // Spigot - send held back packets, such as the kick message, first
             channel.close();
         }
     }
 
     /**
-     * queueSize. Return the number of packets in the low priority queue. In a
-     * NIO environment this will always be 0.
+     * queueSize. Return the number of packets in the low priority queue, which
+     * holds the chunks waiting for bandwidth to the client.
      *
      * @return the size of the packet send queue
      */
     public int e() {
-        return 0;
+        return chunkLaneSize.get();
     }
 
     /**
@@ -2,6 +2,7 @@ package org.spigotmc.netty;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelException;
 import io.netty.channel.ChannelFuture;
@@ -53,7 +54,7 @@ public class NettyServerConnection extends ServerConnection {
                         .addLast("encoder", new PacketEncoder())
                         .addLast("manager", new NettyNetworkManager());
             }
-        }).group(new NioEventLoopGroup(Spigot.nettyThreads, new ThreadFactoryBuilder().setNameFormat("Netty IO Thread - %1$d").build())).localAddress(host, port).bind();
+        }).childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT).group(new NioEventLoopGroup(Spigot.nettyThreads, new ThreadFactoryBuilder().setNameFormat("Netty IO Thread - %1$d").build())).localAddress(host, port).bind();
         MinecraftServer.log.info("Using Netty NIO with {0} threads for network connections.");
     }
 
@@ -78,6 +79,8 @@ public class NettyServerConnection extends ServerConnection {
                 pendingConnections.remove(i--);
             }
         }
+
+        NettyNetworkManager.flushAll();
     }
 
     /**
@@ -1,63 +1,214 @@
 package org.spigotmc.netty;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import net.minecraft.server.Packet;
 
 /**
- * Packet decoding class backed by a reusable {@link DataInputStream} which
- * backs the input {@link ByteBuf}. Reads an unsigned byte packet header and
- * then decodes the packet accordingly.
+ * Packet decoding class which works out the length of a packet from its id
+ * and the length fields within it before reading it. A packet is only decoded
+ * once all of its bytes have arrived, so fragmented packets are never parsed
+ * more than once, and the packet reads from a reusable stream over exactly
+ * its own bytes.
+ * <p>
+ * Packets the client is not expected to send have no known layout, these are
+ * parsed from the available bytes and retried once more arrive.
  */
-public class PacketDecoder extends ReplayingDecoder<ReadState> {
+public class PacketDecoder extends ByteToMessageDecoder<Packet> {
 
-    private DataInputStream input;
-    private Packet packet;
-
-    public PacketDecoder() {
-        super(ReadState.HEADER);
-    }
+    private static final int NEED_MORE = -1;
+    private static final int UNKNOWN = -2;
+    private final BufferInputStream bufferIn = new BufferInputStream();
+    private final DataInputStream dataIn = new DataInputStream(bufferIn);
 
     @Override
     public Packet decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
-        if (input == null) {
-            input = new DataInputStream(new ByteBufInputStream(in));
+        if (!in.isReadable()) {
+            return null;
         }
 
-        switch (state()) {
-            case HEADER:
-                short packetId = in.readUnsignedByte();
-                packet = Packet.d(packetId);
-                if (packet == null) {
-                    throw new IOException("Bad packet id " + packetId);
-                }
-                checkpoint(ReadState.DATA);
-            case DATA:
-                try {
-                    packet.a(input);
-                } catch (EOFException ex) {
-                    return null;
-                }
+        int start = in.readerIndex();
+        short packetId = in.getUnsignedByte(start);
+        int end = packetEnd(packetId, in, start + 1);
+        if (end == NEED_MORE) {
+            return null;
+        }
 
-                checkpoint(ReadState.HEADER);
-                Packet ret = packet;
-                packet = null;
+        Packet packet = Packet.d(packetId);
+        if (packet == null) {
+            throw new IOException("Bad packet id " + packetId);
+        }
+
+        if (end == UNKNOWN) {
+            in.readerIndex(start + 1);
+            bufferIn.buf = in;
+            try {
+                packet.a(dataIn);
+            } catch (EOFException ex) {
+                in.readerIndex(start);
+                return null;
+            } finally {
+                bufferIn.buf = null;
+            }
+            return packet;
+        }
 
-                return ret;
+        ByteBuf body = in.slice(start + 1, end - start - 1);
+        in.readerIndex(end);
+        bufferIn.buf = body;
+        try {
+            packet.a(dataIn);
+        } catch (EOFException ex) {
+            throw new IOException("Packet " + packetId + " is longer than its header states");
+        } finally {
+            bufferIn.buf = null;
+        }
+
+        if (body.isReadable()) {
+            throw new IOException("Packet " + packetId + " has " + body.readableBytes() + " unread bytes");
+        }
+        return packet;
+    }
+
+    /**
+     * Finds the index just past the end of a packet sent by the client.
+     *
+     * @param packetId the id of the packet
+     * @param in the buffer holding the packet
+     * @param pos the index of the first byte after the packet id
+     * @return the end index, {@link #NEED_MORE} if the packet has not been
+     * fully received or {@link #UNKNOWN} if the packet layout is not known
+     */
+    private static int packetEnd(int packetId, ByteBuf in, int pos) {
+        switch (packetId) {
+            case 0: // Keep alive
+                return fixed(in, pos, 4);
+            case 2: // Handshake
+                return fixed(in, string(in, string(in, fixed(in, pos, 1))), 4);
+            case 3: // Chat
+            case 203: // Tab complete
+            case 255: // Disconnect
+                return string(in, pos);
+            case 7: // Use entity
+                return fixed(in, pos, 9);
+            case 10: // Flying
+                return fixed(in, pos, 1);
+            case 11: // Player position
+                return fixed(in, pos, 33);
+            case 12: // Player look
+                return fixed(in, pos, 9);
+            case 13: // Player position and look
+                return fixed(in, pos, 41);
+            case 14: // Block dig
+                return fixed(in, pos, 11);
+            case 15: // Block place
+                return fixed(in, item(in, fixed(in, pos, 10)), 3);
+            case 16: // Held item change
+                return fixed(in, pos, 2);
+            case 18: // Arm animation
+            case 19: // Entity action
+                return fixed(in, pos, 5);
+            case 101: // Close window
+            case 205: // Client command
+                return fixed(in, pos, 1);
+            case 102: // Window click
+                return item(in, fixed(in, pos, 7));
+            case 106: // Transaction
+                return fixed(in, pos, 4);
+            case 107: // Creative inventory
+                return item(in, fixed(in, pos, 2));
+            case 108: // Enchant item
+                return fixed(in, pos, 2);
+            case 130: // Update sign
+                return string(in, string(in, string(in, string(in, fixed(in, pos, 10)))));
+            case 202: // Abilities
+                return fixed(in, pos, 3);
+            case 204: // Locale and view distance
+                return fixed(in, string(in, pos), 4);
+            case 250: // Custom payload
+                pos = fixed(in, string(in, pos), 2);
+                if (pos < 0) {
+                    return pos;
+                }
+                // Payloads outside of this range are not read
+                short length = in.getShort(pos - 2);
+                return length > 0 && length < Short.MAX_VALUE ? fixed(in, pos, length) : pos;
+            case 252: // Key response
+                return byteArray(in, byteArray(in, pos));
+            case 254: // Server list ping, older clients send no payload and wait for a reply
+                return Math.min(pos + 1, in.writerIndex());
             default:
-                throw new IllegalStateException();
+                return UNKNOWN;
         }
     }
 
-    @Override
-    public void freeInboundBuffer(ChannelHandlerContext ctx) throws Exception {
-        super.freeInboundBuffer(ctx);
-        input = null;
-        packet = null;
+    private static int fixed(ByteBuf in, int pos, int length) {
+        if (pos < 0) {
+            return pos;
+        }
+        return pos + length <= in.writerIndex() ? pos + length : NEED_MORE;
+    }
+
+    private static int string(ByteBuf in, int pos) {
+        pos = fixed(in, pos, 2);
+        if (pos < 0) {
+            return pos;
+        }
+        // Negative lengths are rejected when the packet reads the string
+        return fixed(in, pos, Math.max(in.getShort(pos - 2), 0) * 2);
+    }
+
+    private static int byteArray(ByteBuf in, int pos) {
+        pos = fixed(in, pos, 2);
+        if (pos < 0) {
+            return pos;
+        }
+        return fixed(in, pos, Math.max(in.getShort(pos - 2), 0));
+    }
+
+    private static int item(ByteBuf in, int pos) {
+        pos = fixed(in, pos, 2);
+        if (pos < 0 || in.getShort(pos - 2) < 0) {
+            return pos;
+        }
+        // Count, damage and the length prefixed NBT tag
+        return byteArray(in, fixed(in, pos, 3));
+    }
+
+    /**
+     * Stream reading from the buffer currently being decoded.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private ByteBuf buf;
+
+        @Override
+        public int read() {
+            return buf.isReadable() ? buf.readUnsignedByte() : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int readable = buf.readableBytes();
+            if (readable == 0) {
+                return -1;
+            }
+            len = Math.min(len, readable);
+            buf.readBytes(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buf.readableBytes();
+        }
     }
 }
@@ -1,11 +1,13 @@
 package org.spigotmc.netty;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 import java.io.DataOutputStream;
+import java.io.OutputStream;
 import net.minecraft.server.Packet;
+import net.minecraft.server.Packet51MapChunk;
+import net.minecraft.server.Packet56MapChunkBulk;
 
 /**
  * Netty encoder which takes a packet and encodes it, and adds a byte packet id
@@ -13,31 +15,43 @@ import net.minecraft.server.Packet;
  */
 public class PacketEncoder extends MessageToByteEncoder<Packet> {
 
-    private ByteBuf outBuf;
-    private DataOutputStream dataOut;
+    private final BufferOutputStream bufferOut = new BufferOutputStream();
+    private final DataOutputStream dataOut = new DataOutputStream(bufferOut);
 
     @Override
     public void encode(ChannelHandlerContext ctx, Packet msg, ByteBuf out) throws Exception {
-        if (outBuf == null) {
-            outBuf = ctx.alloc().directBuffer();
-        }
-        if (dataOut == null) {
-            dataOut = new DataOutputStream(new ByteBufOutputStream(outBuf));
-        }
-
         out.writeByte(msg.k());
-        msg.a(dataOut);
-        out.writeBytes(outBuf);
-        out.discardSomeReadBytes();
+        // Chunk packets compress themselves directly into the outbound buffer
+        if (msg instanceof Packet51MapChunk) {
+            ((Packet51MapChunk) msg).write(out);
+        } else if (msg instanceof Packet56MapChunkBulk) {
+            ((Packet56MapChunkBulk) msg).write(out);
+        } else {
+            bufferOut.buf = out;
+            try {
+                msg.a(dataOut);
+            } finally {
+                bufferOut.buf = null;
+            }
+        }
     }
 
-    @Override
-    public void freeOutboundBuffer(ChannelHandlerContext ctx) throws Exception {
-        super.freeOutboundBuffer(ctx);
-        if (outBuf != null) {
-            outBuf.release();
-            outBuf = null;
+    /**
+     * Stream writing through to the buffer currently being encoded into, so
+     * packets are serialized without an intermediate copy.
+     */
+    private static class BufferOutputStream extends OutputStream {
+
+        private ByteBuf buf;
+
+        @Override
+        public void write(int b) {
+            buf.writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buf.writeBytes(b, off, len);
         }
-        dataOut = null;
     }
 }
@@ -0,0 +1,236 @@
+package org.spigotmc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.minecraft.server.AxisAlignedBB;
+import net.minecraft.server.Entity;
+import net.minecraft.server.NBTTagCompound;
+
+import org.junit.Test;
+
+/**
+ * Checks range queries of the index against a scan of every entity.
+ */
+public class EntityIndexTest {
+
+    @Test
+    public void testQueries() {
+        Random random = new Random(1);
+        EntityIndex index = new EntityIndex();
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 300; i++) {
+            Entity entity = createEntity(random);
+            moveRandomly(random, entity);
+            index.add(entity);
+            entities.add(entity);
+        }
+
+        for (int i = 0; i < 500; i++) {
+            assertQuery(index, entities, randomBox(random));
+        }
+        assertThat(index.size(), is(entities.size()));
+    }
+
+    @Test
+    public void testMoves() {
+        Random random = new Random(2);
+        EntityIndex index = new EntityIndex();
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 200; i++) {
+            Entity entity = createEntity(random);
+            moveRandomly(random, entity);
+            index.add(entity);
+            entities.add(entity);
+        }
+
+        for (int round = 0; round < 200; round++) {
+            for (Entity entity : entities) {
+                if (random.nextInt(3) == 0) {
+                    moveRandomly(random, entity);
+                } else {
+                    // Small steps, which keep crossing the borders of the columns near the origin
+                    entity.setPosition(entity.locX + random.nextDouble() * 2 - 1, entity.locY, entity.locZ + random.nextDouble() * 2 - 1);
+                }
+            }
+            for (int i = 0; i < 10; i++) {
+                assertQuery(index, entities, randomBox(random));
+            }
+        }
+    }
+
+    @Test
+    public void testCellBorders() {
+        EntityIndex index = new EntityIndex();
+        List<Entity> entities = new ArrayList<Entity>();
+        double[] borders = { -16, -8.000001, -8, -7.999999, -0.000001, 0, 0.000001, 7.999999, 8, 8.000001, 16 };
+        for (double x : borders) {
+            for (double z : borders) {
+                Entity entity = createEntity(new Random(3));
+                entity.setPosition(x, 64, z);
+                index.add(entity);
+                entities.add(entity);
+            }
+        }
+
+        for (double x : borders) {
+            for (double z : borders) {
+                assertQuery(index, entities, AxisAlignedBB.a(x - 0.1, 60, z - 0.1, x + 0.1, 70, z + 0.1));
+                assertQuery(index, entities, AxisAlignedBB.a(x, 0, z, x + 8, 256, z + 8));
+            }
+        }
+
+        // Walk every entity across the borders again
+        for (Entity entity : entities) {
+            entity.setPosition(-entity.locZ, 64, entity.locX);
+        }
+        for (double x : borders) {
+            assertQuery(index, entities, AxisAlignedBB.a(x - 0.5, 0, -20, x + 0.5, 256, 20));
+        }
+    }
+
+    @Test
+    public void testWideEntities() {
+        // Boxes reaching up to two blocks into the neighbouring column
+        Random random = new Random(6);
+        EntityIndex index = new EntityIndex();
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 200; i++) {
+            Entity entity = createEntity(random);
+            entity.width = 3.99F;
+            entity.setPosition(random.nextDouble() * 32 - 16, 64, random.nextDouble() * 32 - 16);
+            index.add(entity);
+            entities.add(entity);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            double x = random.nextDouble() * 40 - 20;
+            double z = random.nextDouble() * 40 - 20;
+            assertQuery(index, entities, AxisAlignedBB.a(x, 63, z, x + 0.1, 65, z + 0.1));
+        }
+    }
+
+    @Test
+    public void testRemoval() {
+        Random random = new Random(4);
+        EntityIndex index = new EntityIndex();
+        EntityIndex other = new EntityIndex();
+        List<Entity> entities = new ArrayList<Entity>();
+        List<Entity> elsewhere = new ArrayList<Entity>();
+        for (int i = 0; i < 200; i++) {
+            Entity entity = createEntity(random);
+            entity.setPosition(random.nextDouble() * 40 - 20, 64, random.nextDouble() * 40 - 20);
+            index.add(entity);
+            entities.add(entity);
+        }
+
+        for (int round = 0; round < 300; round++) {
+            Entity entity = entities.get(random.nextInt(entities.size()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    EntityIndex.remove(entity);
+                    EntityIndex.remove(entity);
+                    entities.remove(entity);
+                    entity.setPosition(random.nextDouble() * 40 - 20, 64, random.nextDouble() * 40 - 20);
+                    break;
+                case 1:
+                    // Adding to another world's index takes it out of this one
+                    other.add(entity);
+                    entities.remove(entity);
+                    elsewhere.add(entity);
+                    break;
+                default:
+                    // Adding again only moves it
+                    entity.setPosition(random.nextDouble() * 40 - 20, 64, random.nextDouble() * 40 - 20);
+                    index.add(entity);
+            }
+            if (entities.isEmpty() || random.nextInt(4) == 0) {
+                Entity added = createEntity(random);
+                added.setPosition(random.nextDouble() * 40 - 20, 64, random.nextDouble() * 40 - 20);
+                index.add(added);
+                entities.add(added);
+            }
+
+            assertThat(index.size(), is(entities.size()));
+            assertThat(other.size(), is(elsewhere.size()));
+            assertQuery(index, entities, AxisAlignedBB.a(-30, 0, -30, 30, 256, 30));
+            assertQuery(other, elsewhere, randomBox(random));
+        }
+
+        for (Entity entity : new ArrayList<Entity>(entities)) {
+            EntityIndex.remove(entity);
+        }
+        assertThat(index.size(), is(0));
+        assertThat(index.cellCount(), is(0));
+    }
+
+    @Test
+    public void testForEach() {
+        Random random = new Random(5);
+        EntityIndex index = new EntityIndex();
+        Set<Entity> entities = new HashSet<Entity>();
+        for (int i = 0; i < 100; i++) {
+            Entity entity = createEntity(random);
+            moveRandomly(random, entity);
+            index.add(entity);
+            entities.add(entity);
+        }
+
+        final Set<Entity> visited = new HashSet<Entity>();
+        index.forEach(new EntityIndex.Visitor() {
+            public void visit(Entity entity) {
+                assertTrue(visited.add(entity));
+            }
+        });
+        assertThat(visited, is(entities));
+    }
+
+    private static void assertQuery(EntityIndex index, List<Entity> entities, AxisAlignedBB box) {
+        Set<Entity> expected = new HashSet<Entity>();
+        for (Entity entity : entities) {
+            if (entity.boundingBox.a(box)) {
+                expected.add(entity);
+            }
+        }
+
+        final Set<Entity> actual = new HashSet<Entity>();
+        index.query(box, new EntityIndex.Visitor() {
+            public void visit(Entity entity) {
+                assertTrue("Visited twice", actual.add(entity));
+            }
+        });
+        assertThat(box.toString(), actual, is(expected));
+    }
+
+    private static AxisAlignedBB randomBox(Random random) {
+        double x = random.nextDouble() * 240 - 120;
+        double y = random.nextDouble() * 128;
+        double z = random.nextDouble() * 240 - 120;
+        double size = random.nextInt(4) == 0 ? random.nextDouble() * 64 : random.nextDouble() * 4;
+        return AxisAlignedBB.a(x, y, z, x + size * random.nextDouble(), y + size, z + size * random.nextDouble());
+    }
+
+    private static void moveRandomly(Random random, Entity entity) {
+        entity.setPosition(random.nextDouble() * 200 - 100, random.nextDouble() * 128, random.nextDouble() * 200 - 100);
+    }
+
+    // Up to four blocks wide, the widest the index finds by position
+    private static Entity createEntity(Random random) {
+        Entity entity = new Entity(null) {
+            protected void a() {}
+
+            protected void a(NBTTagCompound nbttagcompound) {}
+
+            protected void b(NBTTagCompound nbttagcompound) {}
+        };
+        entity.width = 0.25F + random.nextFloat() * 3.75F;
+        entity.length = 0.25F + random.nextFloat() * 3F;
+        return entity;
+    }
+}
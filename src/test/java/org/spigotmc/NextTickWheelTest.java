@@ -0,0 +1,220 @@
+package org.spigotmc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import net.minecraft.server.NextTickListEntry;
+
+import org.junit.Test;
+
+/**
+ * Checks the wheel against the sorted set of vanilla's scheduled block ticks.
+ */
+public class NextTickWheelTest {
+
+    @Test
+    public void testFullDrains() {
+        for (long seed = 0; seed < 20; seed++) {
+            new Model(seed, false).run(2000);
+        }
+    }
+
+    @Test
+    public void testPartialDrains() {
+        for (long seed = 100; seed < 120; seed++) {
+            new Model(seed, true).run(2000);
+        }
+    }
+
+    @Test
+    public void testDuplicates() {
+        NextTickWheel wheel = new NextTickWheel();
+        assertTrue(wheel.add(1, 2, 3, 4, 10, 0));
+        assertFalse(wheel.add(1, 2, 3, 4, 20, 0));
+        assertTrue(wheel.add(1, 2, 3, 5, 20, 0));
+        assertThat(wheel.size(), is(2));
+
+        assertTrue(wheel.remove(1, 2, 3, 4));
+        assertFalse(wheel.remove(1, 2, 3, 4));
+        assertTrue(wheel.add(1, 2, 3, 4, 30, 0));
+        assertThat(wheel.size(), is(2));
+    }
+
+    @Test
+    public void testNegativeCoordinates() {
+        NextTickWheel wheel = new NextTickWheel();
+        wheel.add(-30000000, 255, -1, 7, 5, 0);
+        assertTrue(wheel.poll(5, false));
+        assertThat(wheel.x, is(-30000000));
+        assertThat(wheel.y, is(255));
+        assertThat(wheel.z, is(-1));
+        assertThat(wheel.type, is(7));
+
+        wheel.add(-17, 1, 33, 7, 5, 0);
+        assertThat(wheel.getEntries(-2, 2, false).size(), is(1));
+        assertThat(wheel.getEntries(-1, 2, false), is(nullValue()));
+    }
+
+    private static class Model {
+
+        private final Random random;
+        private final boolean partial;
+        private final NextTickWheel wheel = new NextTickWheel();
+        private final TreeSet<NextTickListEntry> reference = new TreeSet<NextTickListEntry>();
+        private final Map<String, NextTickListEntry> scheduled = new HashMap<String, NextTickListEntry>();
+        private long time = 1000;
+
+        Model(long seed, boolean partial) {
+            this.random = new Random(seed);
+            this.partial = partial;
+        }
+
+        void run(int ticks) {
+            for (int tick = 0; tick < ticks; tick++) {
+                // Quiet stretches let the wheel skip ahead to ticks waiting in the heap
+                int adds = tick % 500 < 100 ? random.nextInt(3) : random.nextInt(40);
+                for (int i = 0; i < adds; i++) {
+                    add();
+                }
+
+                if (random.nextInt(10) == 0) {
+                    remove();
+                }
+                if (random.nextInt(20) == 0) {
+                    getEntries();
+                }
+
+                if (!partial) {
+                    assertThat(wheel.countDue(time), is(countDue()));
+                }
+                drain(partial ? random.nextInt(30) : Integer.MAX_VALUE, random.nextInt(50) == 0);
+                assertThat(wheel.size(), is(reference.size()));
+                time++;
+            }
+
+            drain(Integer.MAX_VALUE, true);
+            assertThat(wheel.size(), is(0));
+            assertTrue(reference.isEmpty());
+        }
+
+        private void add() {
+            int x = random.nextInt(80) - 40;
+            int y = random.nextInt(16);
+            int z = random.nextInt(80) - 40;
+            int type = 1 + random.nextInt(3);
+            int priority = random.nextInt(3) - 1;
+            long due;
+            switch (random.nextInt(10)) {
+                case 0:
+                    // Scheduled without a delay, as when the block type is 0
+                    due = 0;
+                    break;
+                case 1:
+                    due = time;
+                    break;
+                case 2:
+                    due = time + random.nextInt(2000);
+                    break;
+                default:
+                    due = time + 1 + random.nextInt(20);
+            }
+
+            String key = x + "," + y + "," + z + "," + type;
+            boolean added = wheel.add(x, y, z, type, due, priority);
+            assertThat(key, added, is(!scheduled.containsKey(key)));
+            if (added) {
+                NextTickListEntry entry = new NextTickListEntry(x, y, z, type);
+                entry.a(due);
+                entry.a(priority);
+                reference.add(entry);
+                scheduled.put(key, entry);
+            }
+        }
+
+        private void remove() {
+            if (scheduled.isEmpty() || random.nextBoolean()) {
+                assertFalse(wheel.remove(1000, 0, 1000, 1));
+                return;
+            }
+            List<String> keys = new ArrayList<String>(scheduled.keySet());
+            Collections.sort(keys);
+            NextTickListEntry entry = scheduled.remove(keys.get(random.nextInt(keys.size())));
+            reference.remove(entry);
+            assertTrue(wheel.remove(entry.a, entry.b, entry.c, entry.d));
+        }
+
+        private void drain(int budget, boolean all) {
+            for (int i = 0; i < budget; i++) {
+                boolean due = !reference.isEmpty() && (all || reference.first().e <= time);
+                assertThat(wheel.poll(time, all), is(due));
+                if (!due) {
+                    return;
+                }
+
+                NextTickListEntry entry = reference.pollFirst();
+                scheduled.remove(entry.a + "," + entry.b + "," + entry.c + "," + entry.d);
+                assertThat(new int[] { wheel.x, wheel.y, wheel.z, wheel.type }, is(new int[] { entry.a, entry.b, entry.c, entry.d }));
+
+                // Blocks ticking schedule more ticks
+                if (random.nextInt(4) == 0) {
+                    add();
+                }
+            }
+        }
+
+        private void getEntries() {
+            int chunkX = (random.nextInt(80) - 40) >> 4;
+            int chunkZ = (random.nextInt(80) - 40) >> 4;
+            boolean remove = random.nextBoolean();
+
+            List<String> expected = new ArrayList<String>();
+            for (Iterator<NextTickListEntry> iterator = reference.iterator(); iterator.hasNext(); ) {
+                NextTickListEntry entry = iterator.next();
+                if (entry.a >> 4 == chunkX && entry.c >> 4 == chunkZ) {
+                    expected.add(describe(entry));
+                    if (remove) {
+                        iterator.remove();
+                        scheduled.remove(entry.a + "," + entry.b + "," + entry.c + "," + entry.d);
+                    }
+                }
+            }
+
+            List<NextTickListEntry> entries = wheel.getEntries(chunkX, chunkZ, remove);
+            if (expected.isEmpty()) {
+                assertThat(entries, is(nullValue()));
+                return;
+            }
+            List<String> actual = new ArrayList<String>();
+            for (NextTickListEntry entry : entries) {
+                actual.add(describe(entry));
+            }
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertThat(actual, is(expected));
+        }
+
+        private int countDue() {
+            int count = 0;
+            for (NextTickListEntry entry : reference) {
+                if (entry.e > time) {
+                    break;
+                }
+                count++;
+            }
+            return count;
+        }
+
+        private static String describe(NextTickListEntry entry) {
+            return entry.a + "," + entry.b + "," + entry.c + "," + entry.d + " at " + entry.e + " priority " + entry.f;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.spigotmc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.minecraft.server.NBTCompressedStreamTools;
+import net.minecraft.server.NBTTagCompound;
+import net.minecraft.server.NBTTagList;
+
+import org.junit.Test;
+
+public class RegionCompressionTest {
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void testShort() throws IOException {
+        // Too short for a match, these are written as literals only
+        Random random = new Random(1);
+        for (int length = 1; length <= 12; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertRoundTrip(data);
+            assertRoundTrip(new byte[length]);
+        }
+    }
+
+    @Test
+    public void testIncompressible() throws IOException {
+        byte[] data = new byte[1 << 16];
+        new Random(2).nextBytes(data);
+
+        byte[] compressed = assertRoundTrip(data);
+        assertThat(compressed.length, is(lessThanOrEqualTo(4 + data.length + data.length / 255 + 16)));
+    }
+
+    @Test
+    public void testRepetitive() throws IOException {
+        byte[] zeros = new byte[1 << 17];
+        assertThat(assertRoundTrip(zeros).length, is(lessThan(zeros.length / 100)));
+
+        byte[] pattern = new byte[100000];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) (i % 7);
+        }
+        assertThat(assertRoundTrip(pattern).length, is(lessThan(pattern.length / 100)));
+
+        // Runs around the edges of the match limits
+        Random random = new Random(3);
+        for (int length = 13; length < 300; length++) {
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = (byte) (random.nextInt(8) == 0 ? random.nextInt(4) : 0);
+            }
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    public void testChunk() throws IOException {
+        byte[] chunk = createChunk(new Random(4));
+
+        byte[] compressed = assertRoundTrip(chunk);
+        assertThat(compressed.length, is(lessThan(chunk.length / 2)));
+    }
+
+    @Test
+    public void testPartialLength() throws IOException {
+        // Only the given length of the buffer is compressed
+        byte[] data = new byte[1000];
+        new Random(5).nextBytes(data);
+        byte[] expected = Arrays.copyOf(data, 600);
+
+        assertThat(RegionCompression.decompress(RegionCompression.LZ4, RegionCompression.compress(RegionCompression.LZ4, -1, data, 600)), is(expected));
+        assertThat(RegionCompression.decompress(RegionCompression.ZLIB, RegionCompression.compress(RegionCompression.ZLIB, -1, data, 600)), is(expected));
+    }
+
+    @Test(expected=EOFException.class)
+    public void testTooShort() throws IOException {
+        RegionCompression.decompress(RegionCompression.LZ4, new byte[] { 0, 0, 0, 0 });
+    }
+
+    @Test(expected=IOException.class)
+    public void testNegativeLength() throws IOException {
+        RegionCompression.decompress(RegionCompression.LZ4, new byte[] { -1, -1, -1, -1, 0 });
+    }
+
+    @Test(expected=IOException.class)
+    public void testHugeLength() throws IOException {
+        RegionCompression.decompress(RegionCompression.LZ4, new byte[] { 127, 0, 0, 0, 0 });
+    }
+
+    @Test(expected=IOException.class)
+    public void testZeroOffset() throws IOException {
+        // One literal then a match with offset 0
+        RegionCompression.decompress(RegionCompression.LZ4, new byte[] { 0, 0, 0, 5, 0x10, 'a', 0, 0, 0x00 });
+    }
+
+    @Test(expected=IOException.class)
+    public void testOffsetBeforeStart() throws IOException {
+        // One literal then a match two bytes back
+        RegionCompression.decompress(RegionCompression.LZ4, new byte[] { 0, 0, 0, 5, 0x10, 'a', 2, 0, 0x00 });
+    }
+
+    @Test(expected=IOException.class)
+    public void testLiteralsPastEnd() throws IOException {
+        // Claims three literals but carries two
+        RegionCompression.decompress(RegionCompression.LZ4, new byte[] { 0, 0, 0, 3, 0x30, 'a', 'b' });
+    }
+
+    @Test(expected=IOException.class)
+    public void testMatchPastLength() throws IOException {
+        // The match would write more than the stated length
+        RegionCompression.decompress(RegionCompression.LZ4, new byte[] { 0, 0, 0, 4, 0x10, 'a', 1, 0, 0x00 });
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        byte[] chunk = createChunk(new Random(6));
+        byte[] compressed = RegionCompression.compress(RegionCompression.LZ4, -1, chunk, chunk.length);
+
+        for (int length = 5; length < compressed.length; length += 97) {
+            try {
+                RegionCompression.decompress(RegionCompression.LZ4, Arrays.copyOf(compressed, length));
+                fail("Decompressed " + length + " of " + compressed.length + " bytes");
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testWrongLength() throws IOException {
+        byte[] data = new byte[5000];
+        new Random(7).nextBytes(data);
+        Arrays.fill(data, 1000, 3000, (byte) 1);
+        byte[] compressed = RegionCompression.compress(RegionCompression.LZ4, -1, data, data.length);
+
+        for (int change : new int[] { -1, 1 }) {
+            byte[] corrupt = compressed.clone();
+            corrupt[3] += change;
+            try {
+                RegionCompression.decompress(RegionCompression.LZ4, corrupt);
+                fail("Decompressed with the length changed by " + change);
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnknownType() throws IOException {
+        RegionCompression.decompress(4, new byte[16]);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testCannotWriteGzip() {
+        RegionCompression.compress(RegionCompression.GZIP, -1, new byte[16], 16);
+    }
+
+    @Test
+    public void testTypes() {
+        assertThat(RegionCompression.getType("zlib"), is(RegionCompression.ZLIB));
+        assertThat(RegionCompression.getType("LZ4"), is(RegionCompression.LZ4));
+        assertThat(RegionCompression.getType("gzip"), is(-1));
+        assertThat(RegionCompression.getName(RegionCompression.LZ4), is("lz4"));
+        assertTrue(RegionCompression.isSupported(RegionCompression.GZIP));
+        assertFalse(RegionCompression.isSupported(0));
+    }
+
+    private static byte[] assertRoundTrip(byte[] data) throws IOException {
+        byte[] compressed = RegionCompression.compress(RegionCompression.LZ4, -1, data, data.length);
+        assertThat(RegionCompression.decompress(RegionCompression.LZ4, compressed), is(data));
+
+        for (int level : new int[] { -1, 1, 9 }) {
+            assertThat(RegionCompression.decompress(RegionCompression.ZLIB, RegionCompression.compress(RegionCompression.ZLIB, level, data, data.length)), is(data));
+        }
+        return compressed;
+    }
+
+    // The uncompressed NBT of a generated chunk, with stone, ores and caves under a layer of dirt
+    private static byte[] createChunk(Random random) throws IOException {
+        NBTTagCompound level = new NBTTagCompound();
+        level.setInt("xPos", random.nextInt(100));
+        level.setInt("zPos", random.nextInt(100));
+        level.setLong("LastUpdate", random.nextInt(100000));
+        level.setBoolean("TerrainPopulated", true);
+
+        int[] heightMap = new int[256];
+        for (int i = 0; i < heightMap.length; i++) {
+            heightMap[i] = 62 + random.nextInt(4);
+        }
+        level.setIntArray("HeightMap", heightMap);
+
+        NBTTagList sections = new NBTTagList("Sections");
+        for (int y = 0; y < 5; y++) {
+            byte[] blocks = new byte[4096];
+            byte[] skyLight = new byte[2048];
+            for (int i = 0; i < blocks.length; i++) {
+                int height = (y << 4) + (i >> 8);
+                if (height == 0) {
+                    blocks[i] = 7;
+                } else if (height < 60) {
+                    int roll = random.nextInt(100);
+                    blocks[i] = (byte) (roll < 3 ? 16 : roll < 4 ? 15 : roll < 10 ? 0 : 1);
+                } else if (height < heightMap[i & 255]) {
+                    blocks[i] = 3;
+                } else if (height == heightMap[i & 255]) {
+                    blocks[i] = 2;
+                }
+                if (blocks[i] == 0) {
+                    skyLight[i >> 1] |= 15 << ((i & 1) << 2);
+                }
+            }
+
+            NBTTagCompound section = new NBTTagCompound();
+            section.setByte("Y", (byte) y);
+            section.setByteArray("Blocks", blocks);
+            section.setByteArray("Data", new byte[2048]);
+            section.setByteArray("BlockLight", new byte[2048]);
+            section.setByteArray("SkyLight", skyLight);
+            sections.add(section);
+        }
+        level.set("Sections", sections);
+
+        byte[] biomes = new byte[256];
+        Arrays.fill(biomes, (byte) 1);
+        level.setByteArray("Biomes", biomes);
+        level.set("Entities", new NBTTagList());
+        level.set("TileEntities", new NBTTagList());
+
+        NBTTagCompound root = new NBTTagCompound();
+        root.set("Level", level);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NBTCompressedStreamTools.a(root, (DataOutput) new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
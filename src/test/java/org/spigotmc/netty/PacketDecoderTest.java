@@ -0,0 +1,345 @@
+package org.spigotmc.netty;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import net.minecraft.server.Packet;
+import net.minecraft.server.Packet250CustomPayload;
+
+import org.junit.Test;
+
+/**
+ * Feeds the decoder streams of client packets cut at every possible point,
+ * checking each packet is decoded once, from exactly its own bytes.
+ */
+public class PacketDecoderTest {
+
+    @Test
+    public void testConcatenated() throws Exception {
+        List<byte[]> packets = createPackets(new Random(1));
+        assertDecodes(packets, new int[] { totalLength(packets) });
+    }
+
+    @Test
+    public void testSingleBytes() throws Exception {
+        List<byte[]> packets = createPackets(new Random(2));
+        int[] splits = new int[totalLength(packets)];
+        Arrays.fill(splits, 1);
+        assertDecodes(packets, splits);
+    }
+
+    @Test
+    public void testEverySplit() throws Exception {
+        // Each variable length packet cut in two at every byte, behind a complete packet
+        Random random = new Random(3);
+        byte[][] variable = { customPayload("MC|Brand", "vanilla".getBytes("UTF-8")), customPayload("Plugin", new byte[300]),
+                customPayload("Empty", new byte[0]), tabComplete("/gamemode cr"), mapChunk(random, 3, -7), mapChunkBulk(random, 3) };
+
+        for (byte[] packet : variable) {
+            List<byte[]> packets = new ArrayList<byte[]>();
+            packets.add(keepAlive(42));
+            packets.add(packet);
+            packets.add(chat("after"));
+            int length = totalLength(packets);
+
+            for (int cut = 1; cut < length; cut++) {
+                assertDecodes(packets, new int[] { cut, length - cut });
+            }
+        }
+    }
+
+    @Test
+    public void testRandomSplits() throws Exception {
+        Random random = new Random(4);
+        for (int round = 0; round < 50; round++) {
+            List<byte[]> packets = createPackets(random);
+            int length = totalLength(packets);
+            List<Integer> splits = new ArrayList<Integer>();
+            for (int fed = 0; fed < length; ) {
+                int split = Math.min(length - fed, 1 + random.nextInt(random.nextBoolean() ? 8 : 2000));
+                splits.add(split);
+                fed += split;
+            }
+
+            int[] array = new int[splits.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = splits.get(i);
+            }
+            assertDecodes(packets, array);
+        }
+    }
+
+    @Test
+    public void testCustomPayload() throws Exception {
+        byte[] data = new byte[1000];
+        new Random(5).nextBytes(data);
+        ByteBuf in = Unpooled.buffer();
+        in.writeBytes(customPayload("BungeeCord", data));
+
+        Packet250CustomPayload packet = (Packet250CustomPayload) new PacketDecoder().decode(null, in);
+        assertThat(packet.tag, is("BungeeCord"));
+        assertThat(packet.data, is(data));
+        assertFalse(in.isReadable());
+    }
+
+    @Test(expected=IOException.class)
+    public void testLongChat() throws Exception {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            message.append('a');
+        }
+        ByteBuf in = Unpooled.buffer();
+        in.writeBytes(chat(message.toString()));
+        new PacketDecoder().decode(null, in);
+    }
+
+    @Test(expected=IOException.class)
+    public void testBadPacketId() throws Exception {
+        ByteBuf in = Unpooled.buffer();
+        in.writeByte(0xF0);
+        in.writeInt(0);
+        new PacketDecoder().decode(null, in);
+    }
+
+    /**
+     * Feeds the packets to a decoder in pieces of the given sizes, as a
+     * cumulating channel handler would.
+     */
+    private static void assertDecodes(List<byte[]> packets, int[] splits) throws Exception {
+        byte[] stream = new byte[totalLength(packets)];
+        int[] ends = new int[packets.size()];
+        int offset = 0;
+        for (int i = 0; i < packets.size(); i++) {
+            byte[] packet = packets.get(i);
+            System.arraycopy(packet, 0, stream, offset, packet.length);
+            offset += packet.length;
+            ends[i] = offset;
+        }
+
+        PacketDecoder decoder = new PacketDecoder();
+        ByteBuf in = Unpooled.buffer();
+        int fed = 0;
+        int decoded = 0;
+        for (int split : splits) {
+            in.writeBytes(stream, fed, split);
+            fed += split;
+
+            Packet packet;
+            while ((packet = decoder.decode(null, in)) != null) {
+                String where = "packet " + decoded + " with splits " + Arrays.toString(splits);
+                assertThat(where, decoded, is(lessThan(packets.size())));
+                byte[] expected = packets.get(decoded);
+                assertThat(where, packet.k(), is(expected[0] & 0xFF));
+                assertThat(where, in.readerIndex(), is(ends[decoded]));
+
+                // Map chunks only keep their inflated data, everything else is written again as it was read
+                if (packet.k() != 51 && packet.k() != 56) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    Packet.a(packet, new DataOutputStream(bytes));
+                    assertThat(where, bytes.toByteArray(), is(expected));
+                }
+                decoded++;
+            }
+            assertThat(in.readerIndex(), is(decoded == 0 ? 0 : ends[decoded - 1]));
+        }
+        assertThat(decoded, is(packets.size()));
+    }
+
+    private static int totalLength(List<byte[]> packets) {
+        int length = 0;
+        for (byte[] packet : packets) {
+            length += packet.length;
+        }
+        return length;
+    }
+
+    private static List<byte[]> createPackets(Random random) throws IOException {
+        List<byte[]> packets = new ArrayList<byte[]>();
+        for (int i = 0; i < 40; i++) {
+            switch (random.nextInt(10)) {
+                case 0:
+                    packets.add(keepAlive(random.nextInt()));
+                    break;
+                case 1:
+                    packets.add(chat("hello " + random.nextInt(1000)));
+                    break;
+                case 2:
+                    packets.add(position(random));
+                    break;
+                case 3:
+                    packets.add(blockPlace(random));
+                    break;
+                case 4:
+                    packets.add(tabComplete("/tp " + random.nextInt(1000)));
+                    break;
+                case 5:
+                    packets.add(locale());
+                    break;
+                case 6:
+                    byte[] data = new byte[random.nextInt(3) == 0 ? 0 : random.nextInt(5000)];
+                    random.nextBytes(data);
+                    packets.add(customPayload("Channel" + random.nextInt(10), data));
+                    break;
+                case 7:
+                    packets.add(mapChunk(random, random.nextInt(100), random.nextInt(100)));
+                    break;
+                case 8:
+                    packets.add(mapChunkBulk(random, 1 + random.nextInt(5)));
+                    break;
+                default:
+                    packets.add(flying(random));
+            }
+        }
+        return packets;
+    }
+
+    private static byte[] keepAlive(int id) throws IOException {
+        Writer out = new Writer(0);
+        out.writeInt(id);
+        return out.toByteArray();
+    }
+
+    private static byte[] chat(String message) throws IOException {
+        Writer out = new Writer(3);
+        out.writeString(message);
+        return out.toByteArray();
+    }
+
+    private static byte[] flying(Random random) throws IOException {
+        Writer out = new Writer(10);
+        out.writeBoolean(random.nextBoolean());
+        return out.toByteArray();
+    }
+
+    private static byte[] position(Random random) throws IOException {
+        Writer out = new Writer(13);
+        out.writeDouble(random.nextDouble() * 1000);
+        out.writeDouble(64);
+        out.writeDouble(65.62);
+        out.writeDouble(random.nextDouble() * 1000);
+        out.writeFloat(random.nextFloat() * 360);
+        out.writeFloat(random.nextFloat() * 180 - 90);
+        out.writeBoolean(true);
+        return out.toByteArray();
+    }
+
+    private static byte[] blockPlace(Random random) throws IOException {
+        Writer out = new Writer(15);
+        out.writeInt(random.nextInt(1000));
+        out.writeByte(64);
+        out.writeInt(random.nextInt(1000));
+        out.writeByte(1);
+        if (random.nextBoolean()) {
+            out.writeShort(-1);
+        } else {
+            // An item without a tag
+            out.writeShort(1);
+            out.writeByte(64);
+            out.writeShort(0);
+            out.writeShort(-1);
+        }
+        out.writeByte(8);
+        out.writeByte(16);
+        out.writeByte(8);
+        return out.toByteArray();
+    }
+
+    private static byte[] tabComplete(String text) throws IOException {
+        Writer out = new Writer(203);
+        out.writeString(text);
+        return out.toByteArray();
+    }
+
+    private static byte[] locale() throws IOException {
+        Writer out = new Writer(204);
+        out.writeString("en_US");
+        out.writeByte(0);
+        out.writeByte(8);
+        out.writeByte(2);
+        out.writeBoolean(true);
+        return out.toByteArray();
+    }
+
+    private static byte[] customPayload(String tag, byte[] data) throws IOException {
+        Writer out = new Writer(250);
+        out.writeString(tag);
+        out.writeShort(data.length);
+        out.write(data);
+        return out.toByteArray();
+    }
+
+    // Only sent by the server, the decoder has no layout for these and parses them from what has arrived
+    private static byte[] mapChunk(Random random, int x, int z) throws IOException {
+        byte[] compressed = deflate(random, 12288 + 256);
+        Writer out = new Writer(51);
+        out.writeInt(x);
+        out.writeInt(z);
+        out.writeBoolean(true);
+        out.writeShort(1);
+        out.writeShort(0);
+        out.writeInt(compressed.length);
+        out.write(compressed);
+        return out.toByteArray();
+    }
+
+    private static byte[] mapChunkBulk(Random random, int count) throws IOException {
+        // One section with sky light and biomes per chunk
+        byte[] compressed = deflate(random, count * (2048 * 5 + 256));
+        Writer out = new Writer(56);
+        out.writeShort(count);
+        out.writeInt(compressed.length);
+        out.writeBoolean(true);
+        out.write(compressed);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(random.nextInt(100));
+            out.writeInt(random.nextInt(100));
+            out.writeShort(1);
+            out.writeShort(0);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(Random random, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i += 1 + random.nextInt(32)) {
+            data[i] = (byte) random.nextInt(16);
+        }
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[length + 64];
+        int size = deflater.deflate(buffer);
+        deflater.end();
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private static class Writer extends DataOutputStream {
+
+        Writer(int id) throws IOException {
+            super(new ByteArrayOutputStream());
+            this.writeByte(id);
+        }
+
+        void writeString(String s) throws IOException {
+            this.writeShort(s.length());
+            this.writeChars(s);
+        }
+
+        byte[] toByteArray() {
+            return ((ByteArrayOutputStream) this.out).toByteArray();
+        }
+    }
+}